@@ -1,6 +1,146 @@
 package abstraction;
 
-public abstract class XmlRule {
+import core.objects.XmlObject;
+import flags.RuleType;
+import interfaces.XmlTagRule;
 
+import java.util.Collection;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Predicate;
 
+/**
+ * A rule on the elements of a tag name, or on all the elements, run while a script is parsed. The static methods
+ * create the usual rules :
+ * <pre>
+ * ArrayList&lt;String&gt; links = new ArrayList&lt;&gt;();
+ * XmlObject.parseXml(page, new XmlParseOptions()
+ *         .addRule(XmlRule.drop("script"))
+ *         .addRule(XmlRule.dropIf("div", div -&gt; "ad".equals(div.getAttributeValue("class"))))
+ *         .addRule(XmlRule.collect("a", a -&gt; a.getAttributeValue("href"), links)));
+ * </pre>
+ */
+public abstract class XmlRule implements XmlTagRule<RuleType> {
+
+    private final String tagName;
+    private final RuleType ruleType;
+
+    /**
+     * A global constructor
+     *
+     * @param tagName  The tag name of the elements the rule runs on, or null for all the elements.
+     * @param ruleType PARSER_RULE for running the rule when an element is opened, TEXT_RULE for when it is closed.
+     */
+    protected XmlRule(String tagName, RuleType ruleType) {
+        if (ruleType == null) throw new IllegalArgumentException("The rule has no type");
+        this.tagName = tagName;
+        this.ruleType = ruleType;
+    }
+
+    @Override
+    public String getTagName() {
+        return tagName;
+    }
+
+    @Override
+    public RuleType getRuleType() {
+        return ruleType;
+    }
+
+    /**
+     * Creates a rule skipping the elements of a tag name with their content, nothing of them is created.
+     *
+     * @param tagName The tag name, or null for all the elements.
+     * @return The rule.
+     */
+    public static XmlRule drop(String tagName) {
+        return dropIf(tagName, object -> true);
+    }
+
+    /**
+     * Creates a rule skipping the elements of a tag name with their content when their open tag matches a filter.
+     *
+     * @param tagName The tag name, or null for all the elements.
+     * @param filter  The filter of the elements to be skipped, it reads the name and attributes of an element.
+     * @return The rule.
+     */
+    public static XmlRule dropIf(String tagName, Predicate<XmlObject> filter) {
+        return new XmlRule(tagName, RuleType.PARSER_RULE) {
+            @Override
+            public void execute(XmlObject currentObject) {
+            }
+
+            @Override
+            public boolean keep(XmlObject currentObject) {
+                return !filter.test(currentObject);
+            }
+        };
+    }
+
+    /**
+     * Creates a rule running an action on the elements of a tag name when they are opened, with their attributes.
+     *
+     * @param tagName The tag name, or null for all the elements.
+     * @param action  The action, for example rewriting the attributes.
+     * @return The rule.
+     */
+    public static XmlRule onOpen(String tagName, Consumer<XmlObject> action) {
+        return new XmlRule(tagName, RuleType.PARSER_RULE) {
+            @Override
+            public void execute(XmlObject currentObject) {
+                action.accept(currentObject);
+            }
+        };
+    }
+
+    /**
+     * Creates a rule running an action on the elements of a tag name when they are closed, with their content.
+     *
+     * @param tagName The tag name, or null for all the elements.
+     * @param action  The action, for example rewriting the texts.
+     * @return The rule.
+     */
+    public static XmlRule onClose(String tagName, Consumer<XmlObject> action) {
+        return new XmlRule(tagName, RuleType.TEXT_RULE) {
+            @Override
+            public void execute(XmlObject currentObject) {
+                action.accept(currentObject);
+            }
+        };
+    }
+
+    /**
+     * Creates a rule adding a value of each element of a tag name to a collection when the element is closed.
+     *
+     * @param tagName The tag name, or null for all the elements.
+     * @param value   The value of an element.
+     * @param values  The collection the values are added to.
+     * @return The rule.
+     */
+    public static <V> XmlRule collect(String tagName, Function<XmlObject, V> value, Collection<? super V> values) {
+        return onClose(tagName, object -> values.add(value.apply(object)));
+    }
+
+    /**
+     * Creates a rule adding a value of each element of a tag name to a collection when the element is closed,
+     * then removing the element from the tree, so the tree does not hold the elements that were read already.
+     *
+     * @param tagName The tag name, or null for all the elements.
+     * @param value   The value of an element.
+     * @param values  The collection the values are added to.
+     * @return The rule.
+     */
+    public static <V> XmlRule extract(String tagName, Function<XmlObject, V> value, Collection<? super V> values) {
+        return new XmlRule(tagName, RuleType.TEXT_RULE) {
+            @Override
+            public void execute(XmlObject currentObject) {
+                values.add(value.apply(currentObject));
+            }
+
+            @Override
+            public boolean keep(XmlObject currentObject) {
+                return false;
+            }
+        };
+    }
 }
@@ -0,0 +1,107 @@
+package core.net;
+
+import java.nio.charset.Charset;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * A page downloaded by a {@link PageFetcher}, the body is kept as the raw bytes it was sent with.
+ */
+public class FetchedPage {
+
+    private final String url;
+    private final int statusCode;
+    private final Map<String, List<String>> headers;
+    private final Charset charset;
+    private final byte[] body;
+
+    /**
+     * A global constructor
+     *
+     * @param url        The url of the page.
+     * @param statusCode The HTTP status code, or -1 for urls that are not HTTP urls.
+     * @param headers    The response headers.
+     * @param charset    The charset of the body.
+     * @param body       The bytes of the body.
+     */
+    public FetchedPage(String url, int statusCode, Map<String, List<String>> headers, Charset charset, byte[] body) {
+        this.url = url;
+        this.statusCode = statusCode;
+        this.headers = copyHeaders(headers);
+        this.charset = charset;
+        this.body = body;
+    }
+
+    /**
+     * Copies the headers of a connection into a map whose names are compared ignoring their case, the status
+     * line that a connection keeps under the null name is left out.
+     */
+    static Map<String, List<String>> copyHeaders(Map<String, List<String>> headers) {
+        TreeMap<String, List<String>> copy = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+        for (Map.Entry<String, List<String>> header : headers.entrySet())
+            if (header.getKey() != null) copy.put(header.getKey(), header.getValue());
+        return Collections.unmodifiableMap(copy);
+    }
+
+    /**
+     * @return The url of the page.
+     */
+    public String getUrl() {
+        return url;
+    }
+
+    /**
+     * @return The HTTP status code, or -1 for urls that are not HTTP urls.
+     */
+    public int getStatusCode() {
+        return statusCode;
+    }
+
+    /**
+     * @return true if the status code is a 2xx code or the url is not an HTTP url.
+     */
+    public boolean isSuccessful() {
+        return statusCode == -1 || (statusCode >= 200 && statusCode < 300);
+    }
+
+    /**
+     * @return The response headers, their names are compared ignoring their case.
+     */
+    public Map<String, List<String>> getHeaders() {
+        return headers;
+    }
+
+    /**
+     * Gets the first value of a response header.
+     *
+     * @param name The name of the header.
+     * @return The value or null if the header was not sent.
+     */
+    public String getHeader(String name) {
+        List<String> values = headers.get(name);
+        return values == null || values.isEmpty() ? null : values.get(0);
+    }
+
+    /**
+     * @return The charset of the body.
+     */
+    public Charset getCharset() {
+        return charset;
+    }
+
+    /**
+     * @return The bytes of the body as they were sent.
+     */
+    public byte[] getBody() {
+        return body;
+    }
+
+    /**
+     * @return The body decoded with its charset.
+     */
+    public String getText() {
+        return new String(body, charset);
+    }
+}
@@ -0,0 +1,490 @@
+package core.net;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URLConnection;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A cache of downloaded pages on the local disk, used by a {@link PageFetcher} through
+ * {@link PageFetcher#setCache(PageCache)}.
+ * <p>
+ * The bodies are stored in files named by the SHA-256 hash of their content, so pages with the same body share
+ * one file, and each url has a small file of its metadata. The index of the urls is kept in memory in the order
+ * they were used, when the bodies take more bytes than the limit the least recently used urls are evicted.
+ * The cache is loaded back from its directory when it is created again, in the order the urls were stored.
+ * <p>
+ * A page is served from the cache without a request while it is fresh by its Cache-Control max-age or its
+ * Expires header. A stale page is requested again with If-None-Match and If-Modified-Since, and a 304
+ * response serves the cached body. Responses with Cache-Control no-store are never cached, and responses
+ * with no-cache or without a freshness lifetime are always revalidated.
+ */
+public class PageCache {
+
+    private static final String BODY_SUFFIX = ".body";
+    private static final String META_SUFFIX = ".meta";
+
+    private final Path directory;
+    private final long maxBytes;
+
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private final HashMap<String, Integer> bodyReferences = new HashMap<>();
+    private final HashMap<String, Long> bodySizes = new HashMap<>();
+    private long size;
+
+    private final AtomicLong hitCount = new AtomicLong();
+    private final AtomicLong missCount = new AtomicLong();
+    private final AtomicLong revalidationCount = new AtomicLong();
+
+    /**
+     * A global constructor, the pages already stored in the directory are loaded.
+     *
+     * @param directory The directory of the cache, it is created if it does not exist.
+     * @param maxBytes  The count of bytes the bodies take on the disk at most.
+     * @throws IOException if the directory could not be read.
+     */
+    public PageCache(Path directory, long maxBytes) throws IOException {
+        if (maxBytes < 1)
+            throw new IllegalArgumentException("The size of the cache must be positive : " + maxBytes);
+
+        this.directory = Files.createDirectories(directory);
+        this.maxBytes = maxBytes;
+        load();
+    }
+
+    /**
+     * @return The count of fetches served from the cache without a request.
+     */
+    public long getHitCount() {
+        return hitCount.get();
+    }
+
+    /**
+     * @return The count of fetches that downloaded a whole body.
+     */
+    public long getMissCount() {
+        return missCount.get();
+    }
+
+    /**
+     * @return The count of fetches served from the cache after a 304 response.
+     */
+    public long getRevalidationCount() {
+        return revalidationCount.get();
+    }
+
+    /**
+     * @return The count of cached urls.
+     */
+    public synchronized int getEntryCount() {
+        return entries.size();
+    }
+
+    /**
+     * @return The count of bytes the bodies take on the disk.
+     */
+    public synchronized long getSize() {
+        return size;
+    }
+
+    /**
+     * @return The count of bytes the bodies take on the disk at most.
+     */
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    /**
+     * Removes all the pages from the cache.
+     */
+    public void clear() {
+        ArrayList<Entry> removed;
+        synchronized (this) {
+            removed = new ArrayList<>(entries.values());
+        }
+        for (Entry entry : removed) remove(entry);
+    }
+
+    /**
+     * Gets the entry of a url and marks it as the most recently used.
+     *
+     * @return The entry or null if the url is not cached.
+     */
+    synchronized Entry get(String url) {
+        return entries.get(url);
+    }
+
+    /**
+     * Reads the page of an entry.
+     *
+     * @throws IOException if the body was removed from the disk.
+     */
+    FetchedPage read(Entry entry) throws IOException {
+        byte[] body = Files.readAllBytes(bodyPath(entry.body));
+        return new FetchedPage(entry.url, 200, entry.headers(), entry.charset(), body);
+    }
+
+    void hit() {
+        hitCount.incrementAndGet();
+    }
+
+    /**
+     * Keeps the body of an entry on the disk until it is released, while its url is revalidated.
+     */
+    synchronized void retain(Entry entry) {
+        bodyReferences.merge(entry.body, 1, Integer::sum);
+    }
+
+    synchronized void release(Entry entry) {
+        dereference(entry.body);
+    }
+
+    /**
+     * Serves a retained entry after a 304 response, its freshness and validators are taken from the response.
+     */
+    FetchedPage revalidated(Entry entry, URLConnection connection) throws IOException {
+        FetchedPage page = read(entry);
+
+        long expires = expiresOf(connection, System.currentTimeMillis());
+        String etag = connection.getHeaderField("ETag");
+        String lastModified = connection.getHeaderField("Last-Modified");
+        Entry updated = new Entry(entry.url, entry.body, entry.charsetName, entry.contentType,
+                etag != null ? etag : entry.etag,
+                lastModified != null ? lastModified : entry.lastModified,
+                expires < 0 ? 0 : expires);
+
+        //The updated entry takes the reference of the entry it replaces.
+        synchronized (this) {
+            if (entries.get(entry.url) == entry) {
+                entries.put(entry.url, updated);
+                writeMeta(updated);
+            }
+        }
+        revalidationCount.incrementAndGet();
+        return page;
+    }
+
+    /**
+     * Stores a downloaded page if its response allows it, a previous page of the url is replaced.
+     */
+    void store(FetchedPage page, URLConnection connection) {
+        missCount.incrementAndGet();
+
+        long expires = expiresOf(connection, System.currentTimeMillis());
+        if (page.getStatusCode() != 200 || expires < 0 || page.getBody().length > maxBytes) {
+            Entry previous = get(page.getUrl());
+            if (previous != null) remove(previous);
+            return;
+        }
+
+        String body = hash(page.getBody());
+        Entry entry = new Entry(page.getUrl(), body, page.getCharset().name(), page.getHeader("Content-Type"),
+                page.getHeader("ETag"), page.getHeader("Last-Modified"), expires);
+
+        //The body is referenced before it is looked for and written, and a body is only deleted under the lock
+        //with its last reference, so the file found or written here is kept.
+        synchronized (this) {
+            bodyReferences.merge(body, 1, Integer::sum);
+        }
+
+        try {
+            Path bodyPath = bodyPath(body);
+            if (!Files.exists(bodyPath)) writeAtomically(bodyPath, page.getBody());
+        } catch (IOException e) {
+            //A page that could not be stored is only not cached.
+            release(entry);
+            return;
+        }
+
+        //The metadata files are only written and deleted under the lock, so the file of a url is always the file
+        //of the entry the url has in the map.
+        synchronized (this) {
+            try {
+                writeMeta(entry);
+            } catch (IOException e) {
+                dereference(body);
+                return;
+            }
+
+            if (!bodySizes.containsKey(body)) {
+                bodySizes.put(body, (long) page.getBody().length);
+                size += page.getBody().length;
+            }
+
+            Entry previous = entries.put(entry.url, entry);
+            if (previous != null) dereference(previous.body);
+            evict();
+        }
+    }
+
+    /**
+     * Removes an entry whose body could not be read or whose url is not cached anymore.
+     */
+    synchronized void remove(Entry entry) {
+        if (entries.get(entry.url) != entry) return;
+        entries.remove(entry.url);
+        delete(metaPath(entry.url));
+        dereference(entry.body);
+    }
+
+    /**
+     * Removes the least recently used urls until the bodies fit in the limit, it is called with the lock held.
+     */
+    private void evict() {
+        Iterator<Entry> iterator = entries.values().iterator();
+
+        while (size > maxBytes && iterator.hasNext()) {
+            Entry eldest = iterator.next();
+            iterator.remove();
+            delete(metaPath(eldest.url));
+            dereference(eldest.body);
+        }
+    }
+
+    /**
+     * Drops a reference to a body, the file of a body that is not referenced anymore is deleted right away while
+     * the lock is held, so a store that references the body again either sees it deleted or keeps it.
+     */
+    private void dereference(String body) {
+        Integer references = bodyReferences.get(body);
+        if (references == null) return;
+
+        if (references > 1) {
+            bodyReferences.put(body, references - 1);
+            return;
+        }
+
+        bodyReferences.remove(body);
+        Long bodySize = bodySizes.remove(body);
+        if (bodySize != null) size -= bodySize;
+        delete(bodyPath(body));
+    }
+
+    private void load() throws IOException {
+        ArrayList<Path> metaFiles = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "*" + META_SUFFIX)) {
+            for (Path path : stream) metaFiles.add(path);
+        }
+
+        HashMap<Path, Long> times = new HashMap<>();
+        for (Path path : metaFiles) times.put(path, Files.getLastModifiedTime(path).toMillis());
+        metaFiles.sort((first, second) -> Long.compare(times.get(first), times.get(second)));
+
+        for (Path path : metaFiles) {
+            Entry entry = readMeta(path);
+            Path bodyPath = entry == null ? null : bodyPath(entry.body);
+
+            if (entry == null || !Files.exists(bodyPath)) {
+                Files.deleteIfExists(path);
+                continue;
+            }
+
+            Entry previous = entries.put(entry.url, entry);
+            if (previous != null) dereference(previous.body);
+            bodyReferences.merge(entry.body, 1, Integer::sum);
+            if (!bodySizes.containsKey(entry.body)) {
+                long bodySize = Files.size(bodyPath);
+                bodySizes.put(entry.body, bodySize);
+                size += bodySize;
+            }
+        }
+
+        //The bodies of no url are left from evictions that were interrupted.
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "*" + BODY_SUFFIX)) {
+            for (Path path : stream) {
+                String name = path.getFileName().toString();
+                if (!bodyReferences.containsKey(name.substring(0, name.length() - BODY_SUFFIX.length())))
+                    Files.deleteIfExists(path);
+            }
+        }
+
+        evict();
+    }
+
+    private Entry readMeta(Path path) {
+        Properties properties = new Properties();
+        try (InputStream input = Files.newInputStream(path)) {
+            properties.load(input);
+        } catch (IOException | IllegalArgumentException e) {
+            return null;
+        }
+
+        String url = properties.getProperty("url");
+        String body = properties.getProperty("body");
+        if (url == null || body == null) return null;
+
+        long expires;
+        try {
+            expires = Long.parseLong(properties.getProperty("expires", "0"));
+        } catch (NumberFormatException e) {
+            expires = 0;
+        }
+
+        return new Entry(url, body, properties.getProperty("charset", "UTF-8"), properties.getProperty("contentType"),
+                properties.getProperty("etag"), properties.getProperty("lastModified"), expires);
+    }
+
+    private void writeMeta(Entry entry) throws IOException {
+        Properties properties = new Properties();
+        properties.setProperty("url", entry.url);
+        properties.setProperty("body", entry.body);
+        properties.setProperty("charset", entry.charsetName);
+        properties.setProperty("expires", Long.toString(entry.expires));
+        if (entry.contentType != null) properties.setProperty("contentType", entry.contentType);
+        if (entry.etag != null) properties.setProperty("etag", entry.etag);
+        if (entry.lastModified != null) properties.setProperty("lastModified", entry.lastModified);
+
+        Path temporary = Files.createTempFile(directory, "meta", ".tmp");
+        try (OutputStream output = Files.newOutputStream(temporary)) {
+            properties.store(output, null);
+        }
+        Files.move(temporary, metaPath(entry.url), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private void writeAtomically(Path path, byte[] bytes) throws IOException {
+        Path temporary = Files.createTempFile(directory, "body", ".tmp");
+        try {
+            Files.write(temporary, bytes);
+            Files.move(temporary, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temporary);
+        }
+    }
+
+    private static void delete(Path path) {
+        if (path == null) return;
+        try {
+            Files.deleteIfExists(path);
+        } catch (IOException e) {
+            //A file that could not be deleted is deleted the next time the cache is loaded.
+        }
+    }
+
+    private Path bodyPath(String body) {
+        return directory.resolve(body + BODY_SUFFIX);
+    }
+
+    private Path metaPath(String url) {
+        return directory.resolve(hash(url.getBytes(StandardCharsets.UTF_8)) + META_SUFFIX);
+    }
+
+    private static String hash(byte[] bytes) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(bytes);
+            StringBuilder builder = new StringBuilder(digest.length * 2);
+            for (byte b : digest) builder.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+            return builder.toString();
+        } catch (NoSuchAlgorithmException e) {
+            //Every Java platform has SHA-256.
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Finds until when a response is fresh.
+     *
+     * @return The time in milliseconds, the current time when the response must be revalidated, or -1 when
+     * it must not be stored.
+     */
+    static long expiresOf(URLConnection connection, long now) {
+        String cacheControl = connection.getHeaderField("Cache-Control");
+
+        if (cacheControl != null) {
+            long maxAge = -1;
+
+            for (String directive : cacheControl.split(",")) {
+                String name = directive.trim().toLowerCase(Locale.ROOT);
+                if (name.equals("no-store")) return -1;
+                if (name.equals("no-cache")) return now;
+
+                if (name.startsWith("max-age=")) {
+                    try {
+                        maxAge = Long.parseLong(name.substring("max-age=".length()).replace("\"", "").trim());
+                    } catch (NumberFormatException e) {
+                        return now;
+                    }
+                }
+            }
+
+            if (maxAge >= 0) return now + maxAge * 1000;
+        }
+
+        long expiration = connection.getExpiration();
+        if (expiration <= 0) return now;
+
+        //The Expires header is relative to the Date header of the server.
+        long date = connection.getDate();
+        return date > 0 ? now + Math.max(0, expiration - date) : Math.max(now, expiration);
+    }
+
+    /**
+     * The metadata of a cached url, the entries are replaced and never changed.
+     */
+    static final class Entry {
+        final String url;
+        final String body;
+        final String charsetName;
+        final String contentType;
+        final String etag;
+        final String lastModified;
+        final long expires;
+
+        Entry(String url, String body, String charsetName, String contentType, String etag, String lastModified, long expires) {
+            this.url = url;
+            this.body = body;
+            this.charsetName = charsetName;
+            this.contentType = contentType;
+            this.etag = etag;
+            this.lastModified = lastModified;
+            this.expires = expires;
+        }
+
+        boolean isFresh(long now) {
+            return now < expires;
+        }
+
+        /**
+         * @return The headers of a conditional request for the url.
+         */
+        Map<String, String> validators() {
+            HashMap<String, String> validators = new HashMap<>();
+            if (etag != null) validators.put("If-None-Match", etag);
+            if (lastModified != null) validators.put("If-Modified-Since", lastModified);
+            return validators;
+        }
+
+        Charset charset() {
+            try {
+                return Charset.forName(charsetName);
+            } catch (IllegalArgumentException e) {
+                return StandardCharsets.UTF_8;
+            }
+        }
+
+        Map<String, List<String>> headers() {
+            HashMap<String, List<String>> headers = new HashMap<>();
+            if (contentType != null) headers.put("Content-Type", Collections.singletonList(contentType));
+            if (etag != null) headers.put("ETag", Collections.singletonList(etag));
+            if (lastModified != null) headers.put("Last-Modified", Collections.singletonList(lastModified));
+            return headers;
+        }
+    }
+}
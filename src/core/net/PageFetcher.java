@@ -0,0 +1,608 @@
+package core.net;
+
+import core.objects.XmlObject;
+import core.parsers.XmlParseOptions;
+import core.parsers.XmlPullParser;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLConnection;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.NoSuchFileException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Downloads pages asynchronously on a bounded pool of threads.
+ * <p>
+ * Each fetch returns a CompletableFuture at once. The fetches of one host are limited to a count of concurrent
+ * connections, the others wait in the queue of their host without holding a thread. The bodies are read fully
+ * and closed so the HTTP connections are kept alive and reused by the following fetches of the same host
+ * (see the http.maxConnections system property for the count of idle connections kept per host).
+ * <p>
+ * The setters return the fetcher so they can be chained :
+ * <pre>
+ * PageFetcher fetcher = new PageFetcher(100).setMaxConnectionsPerHost(8).setRequestTimeout(20000);
+ * fetcher.fetch("http://example.com").thenApply(FetchedPage::getText);
+ * </pre>
+ */
+public class PageFetcher implements AutoCloseable {
+
+    public static final int DEFAULT_THREADS = 256;
+    public static final int DEFAULT_MAX_CONNECTIONS_PER_HOST = 6;
+    public static final String DEFAULT_USER_AGENT = "Mozilla/5.0 (X11; Ubuntu; Linux x86_64; rv:54.0) Gecko/20100101 Firefox/54.0";
+
+    //The count of bytes looked at for a charset declaration when the response does not tell it.
+    private static final int CHARSET_SNIFF_LENGTH = 1024;
+
+    private static final ScheduledThreadPoolExecutor TIMER = createTimer();
+    private static volatile PageFetcher defaultFetcher;
+
+    private final ExecutorService executor;
+    private final HashMap<String, HostQueue> hosts = new HashMap<>();
+    private final boolean shared;
+    private boolean closed;
+
+    private volatile int maxConnectionsPerHost = DEFAULT_MAX_CONNECTIONS_PER_HOST;
+    private volatile int connectTimeout = 10000;
+    private volatile int readTimeout = 30000;
+    private volatile long requestTimeout = 60000;
+    private volatile String userAgent = DEFAULT_USER_AGENT;
+    private volatile PageCache cache;
+
+    /**
+     * A global constructor, the fetcher uses {@link #DEFAULT_THREADS} threads at most.
+     */
+    public PageFetcher() {
+        this(DEFAULT_THREADS);
+    }
+
+    /**
+     * A global constructor
+     *
+     * @param threads The count of threads that fetch at the same time at most, the threads end when they are idle.
+     */
+    public PageFetcher(int threads) {
+        this(threads, false);
+    }
+
+    private PageFetcher(int threads, boolean shared) {
+        if (threads < 1)
+            throw new IllegalArgumentException("The count of threads must be positive : " + threads);
+
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 30, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(), daemonThreads("page-fetcher-"));
+        executor.allowCoreThreadTimeOut(true);
+        this.executor = executor;
+        this.shared = shared;
+    }
+
+    /**
+     * Gets the fetcher shared by the whole application, it can not be closed.
+     *
+     * @return The shared fetcher.
+     */
+    public static PageFetcher getDefault() {
+        PageFetcher fetcher = defaultFetcher;
+        if (fetcher == null) {
+            synchronized (PageFetcher.class) {
+                if (defaultFetcher == null) defaultFetcher = new PageFetcher(DEFAULT_THREADS, true);
+                fetcher = defaultFetcher;
+            }
+        }
+        return fetcher;
+    }
+
+    /**
+     * @return The count of connections to one host that are open at the same time at most.
+     */
+    public int getMaxConnectionsPerHost() {
+        return maxConnectionsPerHost;
+    }
+
+    /**
+     * Sets the count of connections to one host that are open at the same time at most.
+     *
+     * @param maxConnectionsPerHost The count of connections.
+     * @return This fetcher.
+     */
+    public PageFetcher setMaxConnectionsPerHost(int maxConnectionsPerHost) {
+        if (maxConnectionsPerHost < 1)
+            throw new IllegalArgumentException("The count of connections must be positive : " + maxConnectionsPerHost);
+        this.maxConnectionsPerHost = maxConnectionsPerHost;
+        return this;
+    }
+
+    /**
+     * Sets the timeout of opening a connection.
+     *
+     * @param connectTimeout The timeout in milliseconds, 0 for no timeout.
+     * @return This fetcher.
+     */
+    public PageFetcher setConnectTimeout(int connectTimeout) {
+        this.connectTimeout = connectTimeout;
+        return this;
+    }
+
+    /**
+     * Sets the timeout of waiting for the next bytes of a response.
+     *
+     * @param readTimeout The timeout in milliseconds, 0 for no timeout.
+     * @return This fetcher.
+     */
+    public PageFetcher setReadTimeout(int readTimeout) {
+        this.readTimeout = readTimeout;
+        return this;
+    }
+
+    /**
+     * Sets the timeout of a whole fetch, the time waited in the queue of the host included. A fetch that
+     * times out completes with a TimeoutException and its connection is closed.
+     *
+     * @param requestTimeout The timeout in milliseconds, 0 for no timeout.
+     * @return This fetcher.
+     */
+    public PageFetcher setRequestTimeout(long requestTimeout) {
+        this.requestTimeout = requestTimeout;
+        return this;
+    }
+
+    /**
+     * Sets the User-Agent header sent with the requests.
+     *
+     * @param userAgent The user agent.
+     * @return This fetcher.
+     */
+    public PageFetcher setUserAgent(String userAgent) {
+        this.userAgent = userAgent;
+        return this;
+    }
+
+    /**
+     * @return The cache of the fetched pages, or null if the pages are not cached.
+     */
+    public PageCache getCache() {
+        return cache;
+    }
+
+    /**
+     * Sets the cache the fetched pages are stored in and served from.
+     *
+     * @param cache The cache, or null for not caching the pages.
+     * @return This fetcher.
+     */
+    public PageFetcher setCache(PageCache cache) {
+        this.cache = cache;
+        return this;
+    }
+
+    /**
+     * Downloads a page. When the fetcher has a cache a fresh cached page is served without a request, the disk is
+     * read by the calling thread, and a stale cached page is revalidated.
+     *
+     * @param url The url of the page.
+     * @return A future of the page, it completes exceptionally if the page could not be downloaded.
+     */
+    public CompletableFuture<FetchedPage> fetch(String url) {
+        PageCache cache = this.cache;
+        if (cache == null)
+            return submit(url, Collections.emptyMap(), (connection, statusCode, charset, body) ->
+                    readPage(url, connection, statusCode, charset, body));
+
+        PageCache.Entry entry = cache.get(url);
+        if (entry != null && entry.isFresh(System.currentTimeMillis())) {
+            try {
+                FetchedPage page = cache.read(entry);
+                cache.hit();
+                return CompletableFuture.completedFuture(page);
+            } catch (IOException e) {
+                //The body was removed from the disk, the page is downloaded again.
+                cache.remove(entry);
+                entry = null;
+            }
+        }
+
+        PageCache.Entry cachedEntry = entry;
+        if (cachedEntry != null) cache.retain(cachedEntry);
+
+        CompletableFuture<FetchedPage> future = submit(url,
+                cachedEntry == null ? Collections.emptyMap() : cachedEntry.validators(),
+                (connection, statusCode, charset, body) -> {
+                    if (statusCode == HttpURLConnection.HTTP_NOT_MODIFIED && cachedEntry != null) {
+                        try {
+                            return cache.revalidated(cachedEntry, connection);
+                        } catch (NoSuchFileException e) {
+                            //The body was removed from the disk, the page is downloaded again without validators.
+                            cache.remove(cachedEntry);
+                            return null;
+                        }
+                    }
+
+                    FetchedPage page = readPage(url, connection, statusCode, charset, body);
+                    cache.store(page, connection);
+                    return page;
+                });
+
+        if (cachedEntry == null) return future;
+
+        future.whenComplete((page, error) -> cache.release(cachedEntry));
+        return future.thenCompose(page -> page != null ? CompletableFuture.completedFuture(page) : fetch(url));
+    }
+
+    private static FetchedPage readPage(String url, URLConnection connection, int statusCode, Charset charset, InputStream body) throws IOException {
+        return new FetchedPage(url, statusCode, connection.getHeaderFields(), charset, readAll(body, connection.getContentLengthLong()));
+    }
+
+    /**
+     * Downloads and parses a page at the same time, the body is handed to the parser as it arrives and is never
+     * held as a whole. The parser reads the body itself, so a parser that falls behind stops the reading and
+     * the connection holds the rest of the body back. When the fetcher has a cache the page is fetched through
+     * the cache and parsed once its body is complete.
+     *
+     * @param url The url of the page.
+     * @return A future of the root object of the page, it completes exceptionally if the page could not be
+     * downloaded or its status code is not a 2xx code.
+     */
+    public CompletableFuture<XmlObject> fetchAndParse(String url) {
+        return fetchAndParse(url, new XmlParseOptions());
+    }
+
+    /**
+     * Downloads and parses a page at the same time with the given options, see {@link #fetchAndParse(String)}.
+     *
+     * @param url     The url of the page.
+     * @param options The options of the parsing, the parsing is always sequential.
+     * @return A future of the root object of the page.
+     */
+    public CompletableFuture<XmlObject> fetchAndParse(String url, XmlParseOptions options) {
+        if (cache != null) {
+            return fetch(url).thenApply(page -> {
+                if (!page.isSuccessful())
+                    throw new CompletionException(new IOException("The fetch of " + url + " failed with the status code " + page.getStatusCode()));
+                try {
+                    return XmlObject.parseXml(new XmlPullParser(new ByteArrayInputStream(page.getBody()), page.getCharset()), options);
+                } catch (IOException e) {
+                    throw new CompletionException(e);
+                }
+            });
+        }
+
+        return submit(url, Collections.emptyMap(), (connection, statusCode, charset, body) -> {
+            if (statusCode >= 300)
+                throw new IOException("The fetch of " + url + " failed with the status code " + statusCode);
+            return XmlObject.parseXml(new XmlPullParser(body, charset), options);
+        });
+    }
+
+    /**
+     * Starts a fetch whose response is handled by the fetching thread.
+     *
+     * @param url            The url.
+     * @param requestHeaders The headers of the request.
+     * @param handler        The handler of the response, the body is closed after it.
+     * @return The future of the value of the handler.
+     */
+    <T> CompletableFuture<T> submit(String url, Map<String, String> requestHeaders, ResponseHandler<T> handler) {
+        URL parsedUrl;
+        try {
+            parsedUrl = new URL(url);
+        } catch (IOException e) {
+            CompletableFuture<T> future = new CompletableFuture<>();
+            future.completeExceptionally(e);
+            return future;
+        }
+
+        FetchTask<T> task = new FetchTask<>(parsedUrl, requestHeaders, handler);
+
+        long timeout = requestTimeout;
+        if (timeout > 0) {
+            ScheduledFuture<?> timer = TIMER.schedule(
+                    () -> task.future.completeExceptionally(new TimeoutException("The fetch of " + url + " timed out")),
+                    timeout, TimeUnit.MILLISECONDS);
+            task.future.whenComplete((value, error) -> timer.cancel(false));
+        }
+        //A fetch completed from outside, by a timeout or a cancellation, closes its connection.
+        task.future.whenComplete((value, error) -> {
+            if (error != null) task.abort();
+        });
+
+        queue(parsedUrl, task);
+        return task.future;
+    }
+
+    /**
+     * Queues a task on the queue of the host of its url. The queue is found and the task is counted in it under
+     * the same lock, so the queue can not be removed by the release of its last task in between.
+     */
+    private void queue(URL url, FetchTask<?> task) {
+        String key = url.getProtocol().toLowerCase(Locale.ROOT) + "://" + url.getHost().toLowerCase(Locale.ROOT)
+                + ":" + (url.getPort() == -1 ? url.getDefaultPort() : url.getPort());
+
+        synchronized (hosts) {
+            if (closed) {
+                task.future.completeExceptionally(closedException());
+                return;
+            }
+            HostQueue host = hosts.get(key);
+            if (host == null) {
+                host = new HostQueue(key);
+                hosts.put(key, host);
+            }
+            task.host = host;
+            if (!host.start(task)) return;
+        }
+        dispatch(task);
+    }
+
+    /**
+     * Hands a task to the threads, a task that is refused because the fetcher was closed in between is failed.
+     */
+    private void dispatch(FetchTask<?> task) {
+        try {
+            executor.execute(task);
+        } catch (RejectedExecutionException e) {
+            task.future.completeExceptionally(closedException());
+        }
+    }
+
+    private static CancellationException closedException() {
+        return new CancellationException("The fetcher is closed");
+    }
+
+    /**
+     * Opens the connection of a fetch and hands its response to the handler.
+     */
+    private <T> T execute(FetchTask<T> task) throws IOException {
+        URLConnection connection = task.url.openConnection();
+        connection.setConnectTimeout(connectTimeout);
+        connection.setReadTimeout(readTimeout);
+        connection.setRequestProperty("User-Agent", userAgent);
+        for (Map.Entry<String, String> header : task.requestHeaders.entrySet())
+            connection.setRequestProperty(header.getKey(), header.getValue());
+        task.connection = connection;
+        if (task.future.isDone()) throw new IOException("The fetch of " + task.url + " was aborted");
+
+        int statusCode = -1;
+        InputStream body;
+
+        if (connection instanceof HttpURLConnection) {
+            HttpURLConnection httpConnection = (HttpURLConnection) connection;
+            statusCode = httpConnection.getResponseCode();
+            body = statusCode >= 400 ? httpConnection.getErrorStream() : httpConnection.getInputStream();
+            if (body == null) body = new ByteArrayInputStream(new byte[0]);
+        } else {
+            body = connection.getInputStream();
+        }
+
+        //Closing the body after reading it keeps the connection alive for the next fetches.
+        try (BufferedInputStream bufferedBody = new BufferedInputStream(body)) {
+            Charset charset = detectCharset(connection.getContentType(), bufferedBody);
+            return task.handler.handle(connection, statusCode, charset, bufferedBody);
+        }
+    }
+
+    /**
+     * Finds the charset of a body : the charset of the Content-Type header, else a byte order mark, else a charset
+     * or encoding declaration at the beginning of the body, else UTF-8.
+     *
+     * @param contentType The Content-Type header or null.
+     * @param body        The body, it is reset to its beginning after looking at it.
+     * @return The charset.
+     * @throws IOException if reading the body failed.
+     */
+    static Charset detectCharset(String contentType, BufferedInputStream body) throws IOException {
+        Charset charset = contentType == null ? null : charsetOf(contentType);
+        if (charset != null) return charset;
+
+        body.mark(CHARSET_SNIFF_LENGTH);
+        byte[] head = new byte[CHARSET_SNIFF_LENGTH];
+        int length = 0;
+        int read;
+        while (length < head.length && (read = body.read(head, length, head.length - length)) != -1)
+            length += read;
+        body.reset();
+
+        if (length >= 3 && (head[0] & 0xFF) == 0xEF && (head[1] & 0xFF) == 0xBB && (head[2] & 0xFF) == 0xBF)
+            return StandardCharsets.UTF_8;
+        if (length >= 2 && (head[0] & 0xFF) == 0xFE && (head[1] & 0xFF) == 0xFF)
+            return StandardCharsets.UTF_16BE;
+        if (length >= 2 && (head[0] & 0xFF) == 0xFF && (head[1] & 0xFF) == 0xFE)
+            return StandardCharsets.UTF_16LE;
+
+        charset = charsetOf(new String(head, 0, length, StandardCharsets.ISO_8859_1));
+        return charset != null ? charset : StandardCharsets.UTF_8;
+    }
+
+    /**
+     * Finds the first charset="..." or encoding="..." declaration of a text.
+     */
+    private static Charset charsetOf(String text) {
+        String lowerText = text.toLowerCase(Locale.ROOT);
+
+        for (String key : new String[]{"charset=", "encoding="}) {
+            int index = lowerText.indexOf(key);
+            if (index < 0) continue;
+
+            int start = index + key.length();
+            while (start < text.length() && (text.charAt(start) == '"' || text.charAt(start) == '\'')) start++;
+            int end = start;
+            while (end < text.length() && isCharsetNameChar(text.charAt(end))) end++;
+
+            try {
+                if (end > start) return Charset.forName(text.substring(start, end));
+            } catch (IllegalArgumentException e) {
+                //An unknown charset is ignored.
+            }
+        }
+
+        return null;
+    }
+
+    private static boolean isCharsetNameChar(char c) {
+        return (c >= 'A' && c <= 'Z') || (c >= 'a' && c <= 'z') || (c >= '0' && c <= '9')
+                || c == '-' || c == '_' || c == '.' || c == ':';
+    }
+
+    private static byte[] readAll(InputStream body, long contentLength) throws IOException {
+        byte[] bytes = new byte[contentLength > 0 && contentLength < Integer.MAX_VALUE - 8 ? (int) contentLength : 8192];
+        int length = 0;
+        int read;
+
+        while ((read = body.read(bytes, length, bytes.length - length)) != -1) {
+            length += read;
+            if (length == bytes.length) {
+                int next = body.read();
+                if (next == -1) break;
+                bytes = Arrays.copyOf(bytes, length * 2);
+                bytes[length++] = (byte) next;
+            }
+        }
+
+        return length == bytes.length ? bytes : Arrays.copyOf(bytes, length);
+    }
+
+    /**
+     * Stops the threads of this fetcher, the fetches that did not start are failed with a
+     * {@link CancellationException}, as are the fetches made after it.
+     *
+     * @throws IllegalStateException If this fetcher is the {@link #getDefault() shared fetcher}.
+     */
+    @Override
+    public void close() {
+        if (shared)
+            throw new IllegalStateException("The shared fetcher can not be closed");
+
+        ArrayList<FetchTask<?>> cancelled = new ArrayList<>();
+        synchronized (hosts) {
+            if (closed) return;
+            closed = true;
+            for (HostQueue host : hosts.values()) cancelled.addAll(host.waiting);
+            hosts.clear();
+        }
+
+        for (Runnable task : executor.shutdownNow()) cancelled.add((FetchTask<?>) task);
+        for (FetchTask<?> task : cancelled) task.future.completeExceptionally(closedException());
+    }
+
+    private static ScheduledThreadPoolExecutor createTimer() {
+        ScheduledThreadPoolExecutor timer = new ScheduledThreadPoolExecutor(1, daemonThreads("page-fetcher-timer-"));
+        timer.setRemoveOnCancelPolicy(true);
+        return timer;
+    }
+
+    private static ThreadFactory daemonThreads(String prefix) {
+        AtomicInteger count = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(runnable, prefix + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    /**
+     * Handles the response of a fetch in the fetching thread.
+     */
+    interface ResponseHandler<T> {
+        /**
+         * @param connection The connection, its headers are already read.
+         * @param statusCode The HTTP status code, or -1 for urls that are not HTTP urls.
+         * @param charset    The charset of the body.
+         * @param body       The body, it is closed after the handler.
+         */
+        T handle(URLConnection connection, int statusCode, Charset charset, InputStream body) throws IOException;
+    }
+
+    private final class FetchTask<T> implements Runnable {
+        final URL url;
+        final Map<String, String> requestHeaders;
+        final ResponseHandler<T> handler;
+        final CompletableFuture<T> future = new CompletableFuture<>();
+        HostQueue host;
+        volatile URLConnection connection;
+
+        FetchTask(URL url, Map<String, String> requestHeaders, ResponseHandler<T> handler) {
+            this.url = url;
+            this.requestHeaders = requestHeaders;
+            this.handler = handler;
+        }
+
+        @Override
+        public void run() {
+            try {
+                if (!future.isDone()) future.complete(execute(this));
+            } catch (Throwable e) {
+                future.completeExceptionally(e);
+            } finally {
+                host.release();
+            }
+        }
+
+        void abort() {
+            URLConnection connection = this.connection;
+            if (connection instanceof HttpURLConnection) ((HttpURLConnection) connection).disconnect();
+        }
+    }
+
+    /**
+     * The fetches of one host, the fetches over the connection limit wait here without holding a thread.
+     * The queues are guarded by the map of the hosts, an idle queue is removed from it.
+     */
+    private final class HostQueue {
+        private final String key;
+        private final ArrayDeque<FetchTask<?>> waiting = new ArrayDeque<>();
+        private int active;
+
+        HostQueue(String key) {
+            this.key = key;
+        }
+
+        /**
+         * Counts a task as running, or makes it wait when the host has no free connection. It is called with the
+         * lock of the hosts held.
+         *
+         * @return true if the task can run now.
+         */
+        boolean start(FetchTask<?> task) {
+            if (active >= maxConnectionsPerHost) {
+                waiting.add(task);
+                return false;
+            }
+            active++;
+            return true;
+        }
+
+        void release() {
+            FetchTask<?> next;
+            synchronized (hosts) {
+                // The waiting tasks of a closed fetcher are failed by close
+                if (closed) return;
+                next = waiting.poll();
+                if (next == null && --active == 0) hosts.remove(key, this);
+            }
+            if (next != null) dispatch(next);
+        }
+    }
+}
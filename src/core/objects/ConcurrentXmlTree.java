@@ -0,0 +1,376 @@
+package core.objects;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * A XmlObject tree that many threads can change at once, for example threads that enrich different records of
+ * one document. Each object of the tree is guarded by one of a fixed set of locks chosen by its identity, so the
+ * changes of different objects rarely wait for each other, and the tree has no lock that all the changes take.
+ * <p>
+ * The objects of the tree are read and changed through this class only. {@link #read} and {@link #update} give
+ * an object to a function while its lock is held, the function may use and change that object but not the
+ * objects it holds, which have their own locks. The changes that move nodes between objects lock all the
+ * objects they change, in a fixed order so they never deadlock, and the moves of attached nodes are also made
+ * one at a time so concurrent moves can not build a cycle. The functions should not call this class for
+ * other objects, since holding a lock while waiting for another one is what the fixed order prevents.
+ * <p>
+ * {@link #readTree} and {@link #updateTree} hold all the locks, for the operations on the whole tree like
+ * writing the script, hashing, copying or freezing it. The subtree hashes are cleared by the changes without
+ * the locks of the parents, the only race of the tree, which is harmless since a hash is only kept while all
+ * the locks are held: the hashes computed by the functions of {@link #read} and {@link #update} are not kept.
+ * Indexed trees can not be changed concurrently since all their objects share the index.
+ */
+public class ConcurrentXmlTree {
+
+    private static final int DEFAULT_STRIPES = 64;
+
+    private final XmlObject root;
+    private final ReentrantLock[] locks;
+    private final int mask;
+
+    //Only taken by the moves, before the locks of the objects, so two moves never cross each other's subtrees.
+    private final ReentrantLock moveLock = new ReentrantLock();
+
+    /**
+     * A global constructor
+     *
+     * @param root The root of the tree, owned by this tree from now on.
+     */
+    public ConcurrentXmlTree(XmlObject root) {
+        this(root, DEFAULT_STRIPES);
+    }
+
+    /**
+     * A global constructor
+     *
+     * @param root        The root of the tree, owned by this tree from now on.
+     * @param stripeCount The count of locks of the tree, rounded up to a power of two.
+     */
+    public ConcurrentXmlTree(XmlObject root, int stripeCount) {
+        if (stripeCount < 1 || stripeCount > 1 << 16)
+            throw new IllegalArgumentException("The count of locks must be between 1 and 65536 : " + stripeCount);
+        if (root.isFrozen())
+            throw new IllegalArgumentException("A frozen tree can not be changed");
+        if (root.getIndex() != null)
+            throw new IllegalArgumentException("An indexed tree can not be changed concurrently");
+
+        int size = Integer.highestOneBit(stripeCount);
+        if (size < stripeCount) size <<= 1;
+
+        this.root = root;
+        this.locks = new ReentrantLock[size];
+        this.mask = size - 1;
+        for (int i = 0; i < size; i++) locks[i] = new ReentrantLock();
+    }
+
+    /**
+     * @return The root of the tree, read and changed through this tree only.
+     */
+    public XmlObject getRoot() {
+        return root;
+    }
+
+    /**
+     * Reads an object while its lock is held.
+     *
+     * @param object The object.
+     * @param reader The function reading the object, it must not change it.
+     * @return The result of the function.
+     */
+    public <T> T read(XmlObject object, Function<XmlObject, T> reader) {
+        return withLock(object, reader);
+    }
+
+    /**
+     * Changes an object while its lock is held, the change may add new nodes to the object but must not change
+     * the nodes the object already holds.
+     *
+     * @param object The object.
+     * @param change The change of the object.
+     */
+    public void update(XmlObject object, Consumer<XmlObject> change) {
+        withLock(object, target -> {
+            change.accept(target);
+            return null;
+        });
+    }
+
+    private <T> T withLock(XmlObject object, Function<XmlObject, T> function) {
+        ReentrantLock lock = locks[stripeOf(object)];
+        lock.lock();
+        XmlObject.enterSingleLock();
+        try {
+            return function.apply(object);
+        } finally {
+            XmlObject.exitSingleLock();
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Gets a node of an object.
+     *
+     * @param parent   The object.
+     * @param position The position of the node.
+     * @return The node.
+     */
+    public XmlObject getNode(XmlObject parent, int position) {
+        return read(parent, object -> object.getNode(position));
+    }
+
+    /**
+     * @param parent The object.
+     * @return The count of nodes of the object.
+     */
+    public int getNodesCount(XmlObject parent) {
+        return read(parent, XmlObject::getNodesCount);
+    }
+
+    /**
+     * @param parent The object.
+     * @return A copy of the list of nodes of the object.
+     */
+    public ArrayList<XmlObject> getNodes(XmlObject parent) {
+        return read(parent, object -> new ArrayList<>(object.getXmlNodesList()));
+    }
+
+    /**
+     * Gets the value of an attribute of an object.
+     *
+     * @param object        The object.
+     * @param attributeName The name of the attribute.
+     * @return The value, or null if the object has no such attribute.
+     */
+    public String getAttributeValue(XmlObject object, String attributeName) {
+        return read(object, target -> target.getAttributeValue(attributeName));
+    }
+
+    /**
+     * Sets an attribute of an object, the attribute is added if it does not exist.
+     *
+     * @param object        The object.
+     * @param attributeName The name of the attribute.
+     * @param value         The new value.
+     */
+    public void setAttribute(XmlObject object, String attributeName, String value) {
+        update(object, target -> target.setAttribute(attributeName, value));
+    }
+
+    /**
+     * Removes an attribute of an object.
+     *
+     * @param object        The object.
+     * @param attributeName The name of the attribute.
+     * @return The removed attribute or null if it does not exist.
+     */
+    public XmlObject.ObjectAttribute removeAttribute(XmlObject object, String attributeName) {
+        return withLock(object, target -> target.removeAttribute(attributeName));
+    }
+
+    /**
+     * Adds a text at the end of an object.
+     *
+     * @param object The object.
+     * @param text   The text.
+     */
+    public void addText(XmlObject object, String text) {
+        update(object, target -> target.addText(text));
+    }
+
+    /**
+     * Adds a node at the end of an object, the node and its parent are locked together.
+     *
+     * @param parent The object.
+     * @param node   The new node, it must not be in another object.
+     */
+    public void addNode(XmlObject parent, XmlObject node) {
+        int[] held = lock(parent, node);
+        try {
+            checkDetached(node);
+            parent.addNode(node);
+        } finally {
+            unlock(held);
+        }
+    }
+
+    /**
+     * Inserts a node in an object, the node and its parent are locked together.
+     *
+     * @param parent   The object.
+     * @param position The position of the new node.
+     * @param node     The new node, it must not be in another object.
+     */
+    public void insertNode(XmlObject parent, int position, XmlObject node) {
+        int[] held = lock(parent, node);
+        try {
+            checkDetached(node);
+            parent.insertNode(position, node);
+        } finally {
+            unlock(held);
+        }
+    }
+
+    /**
+     * Removes a node from an object, the node and its parent are locked together.
+     *
+     * @param parent   The object.
+     * @param position The position of the node.
+     * @return The removed node.
+     */
+    public XmlObject removeNode(XmlObject parent, int position) {
+        while (true) {
+            XmlObject node = getNode(parent, position);
+
+            int[] held = lock(parent, node);
+            try {
+                //Another thread may have changed the nodes of the parent before both locks were taken.
+                if (position < parent.getNodesCount() && parent.getNode(position) == node) {
+                    parent.removeNode(position);
+                    return node;
+                }
+            } finally {
+                unlock(held);
+            }
+        }
+    }
+
+    /**
+     * Moves a node from its parent to another object, the node and both objects are locked together so no
+     * thread sees the node in both objects or in none. The moves of the tree are made one at a time, so the new
+     * parent checked not to be in the subtree of the node stays out of it until the node is moved.
+     *
+     * @param node     The node.
+     * @param parent   The new parent of the node.
+     * @param position The position of the node in its new parent.
+     */
+    public void moveNode(XmlObject node, XmlObject parent, int position) {
+        moveLock.lock();
+        try {
+            for (XmlObject ancestor = parent; ancestor != null; ancestor = read(ancestor, XmlObject::getParentObject))
+                if (ancestor == node) throw new IllegalArgumentException("A node can not be moved into its own subtree");
+
+            while (true) {
+                XmlObject oldParent = read(node, XmlObject::getParentObject);
+                if (oldParent == null) throw new IllegalArgumentException("The node is not in a tree");
+
+                int[] held = lock(node, oldParent, parent);
+                try {
+                    if (node.getParentObject() == oldParent) {
+                        oldParent.removeNode(indexOf(oldParent, node));
+                        parent.insertNode(Math.min(position, parent.getNodesCount()), node);
+                        return;
+                    }
+                } finally {
+                    unlock(held);
+                }
+            }
+        } finally {
+            moveLock.unlock();
+        }
+    }
+
+    /**
+     * Reads the whole tree while all the locks are held.
+     *
+     * @param reader The function reading the tree from its root, it must not change it.
+     * @return The result of the function.
+     */
+    public <T> T readTree(Function<XmlObject, T> reader) {
+        lockAll();
+        try {
+            return reader.apply(root);
+        } finally {
+            unlockAll();
+        }
+    }
+
+    /**
+     * Changes the whole tree while all the locks are held.
+     *
+     * @param change The change of the tree from its root.
+     */
+    public void updateTree(Consumer<XmlObject> change) {
+        lockAll();
+        try {
+            change.accept(root);
+        } finally {
+            unlockAll();
+        }
+    }
+
+    /**
+     * @return The script of the tree.
+     */
+    public String buildScript() {
+        return readTree(object -> object.buildScript(0));
+    }
+
+    /**
+     * Gets the subtree hash of an object while all the locks are held, so the computed hashes are kept.
+     *
+     * @param object The object.
+     * @return The hash, see {@link XmlObject#getSubtreeHash()}.
+     */
+    public long getSubtreeHash(XmlObject object) {
+        return readTree(root -> object.getSubtreeHash());
+    }
+
+    /**
+     * @return A frozen copy of the tree, see {@link XmlObject#freeze()}.
+     */
+    public XmlObject freeze() {
+        return readTree(XmlObject::freeze);
+    }
+
+    private int stripeOf(XmlObject object) {
+        //The identity hash codes are spread so that the low bits used as the stripe depend on all of them.
+        int hash = System.identityHashCode(object) * 0x9E3779B9;
+        return (hash ^ (hash >>> 16)) & mask;
+    }
+
+    /**
+     * Takes the locks of some objects in the order of their stripes, a stripe shared by objects is taken once.
+     *
+     * @return The taken stripes.
+     */
+    private int[] lock(XmlObject... objects) {
+        int[] stripes = new int[objects.length];
+        for (int i = 0; i < objects.length; i++) stripes[i] = stripeOf(objects[i]);
+        Arrays.sort(stripes);
+
+        int count = 0;
+        for (int i = 0; i < stripes.length; i++)
+            if (i == 0 || stripes[i] != stripes[i - 1]) stripes[count++] = stripes[i];
+        stripes = Arrays.copyOf(stripes, count);
+
+        for (int i = 0; i < count; i++) locks[stripes[i]].lock();
+        return stripes;
+    }
+
+    private void unlock(int[] stripes) {
+        for (int i = stripes.length - 1; i >= 0; i--) locks[stripes[i]].unlock();
+    }
+
+    private void lockAll() {
+        for (ReentrantLock lock : locks) lock.lock();
+    }
+
+    private void unlockAll() {
+        for (int i = locks.length - 1; i >= 0; i--) locks[i].unlock();
+    }
+
+    private static void checkDetached(XmlObject node) {
+        if (node.getParentObject() != null)
+            throw new IllegalArgumentException("The node is in another object, it is moved by moveNode");
+    }
+
+    private static int indexOf(XmlObject parent, XmlObject node) {
+        for (int i = 0; i < parent.getNodesCount(); i++)
+            if (parent.getNode(i) == node) return i;
+        throw new IllegalStateException("The node is not in its parent");
+    }
+}
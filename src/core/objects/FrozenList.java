@@ -0,0 +1,100 @@
+package core.objects;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.function.Predicate;
+import java.util.function.UnaryOperator;
+
+/**
+ * A list of a frozen XmlObject, every change of the list throws UnsupportedOperationException. The list is an
+ * ArrayList so it can still be returned by the getters of the object, and it is never changed after it was
+ * created so it can be read by any count of threads.
+ */
+final class FrozenList<E> extends ArrayList<E> {
+
+    FrozenList(Collection<? extends E> elements) {
+        super(elements);
+    }
+
+    static UnsupportedOperationException frozen() {
+        return new UnsupportedOperationException("The object is frozen");
+    }
+
+    @Override
+    public boolean add(E element) {
+        throw frozen();
+    }
+
+    @Override
+    public void add(int index, E element) {
+        throw frozen();
+    }
+
+    @Override
+    public boolean addAll(Collection<? extends E> elements) {
+        throw frozen();
+    }
+
+    @Override
+    public boolean addAll(int index, Collection<? extends E> elements) {
+        throw frozen();
+    }
+
+    @Override
+    public E set(int index, E element) {
+        throw frozen();
+    }
+
+    @Override
+    public E remove(int index) {
+        throw frozen();
+    }
+
+    @Override
+    public boolean remove(Object element) {
+        throw frozen();
+    }
+
+    @Override
+    public boolean removeAll(Collection<?> elements) {
+        throw frozen();
+    }
+
+    @Override
+    public boolean retainAll(Collection<?> elements) {
+        throw frozen();
+    }
+
+    @Override
+    public boolean removeIf(Predicate<? super E> filter) {
+        throw frozen();
+    }
+
+    @Override
+    public void replaceAll(UnaryOperator<E> operator) {
+        throw frozen();
+    }
+
+    @Override
+    public void sort(Comparator<? super E> comparator) {
+        throw frozen();
+    }
+
+    @Override
+    public void clear() {
+        throw frozen();
+    }
+
+    @Override
+    protected void removeRange(int fromIndex, int toIndex) {
+        throw frozen();
+    }
+
+    @Override
+    public List<E> subList(int fromIndex, int toIndex) {
+        return Collections.unmodifiableList(super.subList(fromIndex, toIndex));
+    }
+}
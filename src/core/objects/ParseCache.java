@@ -0,0 +1,272 @@
+package core.objects;
+
+import core.parsers.XmlParseOptions;
+import flags.VisitResult;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A cache of parsed scripts for scripts that are parsed again and again, like templates and configurations.
+ * <p>
+ * The scripts are looked up by their hash code and compared with the cached script, so two scripts never share
+ * a tree by a hash collision. Each parse returns a copy of the cached tree that the caller owns, the copy shares
+ * the strings of the cached tree so it is much cheaper than parsing. The cache evicts the least recently used
+ * scripts when it holds more scripts or more estimated bytes than its limits. Readers that never change the
+ * tree can share one frozen tree with {@link #parseFrozen(String)} instead of copying it.
+ * <p>
+ * The cache is safe for concurrent use, the scripts are parsed and copied outside its lock. The rules of the
+ * options run when a script is parsed, not when its cached tree is returned again.
+ */
+public class ParseCache {
+
+    //Rough sizes of the objects of a tree on a 64 bit JVM, for the estimate of the retained bytes.
+    private static final int OBJECT_BYTES = 160;
+    private static final int STRING_BYTES = 40;
+    private static final int ATTRIBUTE_BYTES = 48;
+
+    private final int maxEntries;
+    private final long maxBytes;
+    private final XmlParseOptions options;
+
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long estimatedBytes;
+
+    private final AtomicLong hitCount = new AtomicLong();
+    private final AtomicLong missCount = new AtomicLong();
+    private final AtomicLong evictionCount = new AtomicLong();
+    private final AtomicLong totalLoadTime = new AtomicLong();
+
+    /**
+     * A global constructor
+     *
+     * @param maxEntries The count of scripts the cache holds at most.
+     * @param maxBytes   The estimated count of bytes the cached scripts and trees retain at most.
+     */
+    public ParseCache(int maxEntries, long maxBytes) {
+        this(maxEntries, maxBytes, new XmlParseOptions());
+    }
+
+    /**
+     * A global constructor
+     *
+     * @param maxEntries The count of scripts the cache holds at most.
+     * @param maxBytes   The estimated count of bytes the cached scripts and trees retain at most.
+     * @param options    The options the scripts are parsed with.
+     */
+    public ParseCache(int maxEntries, long maxBytes, XmlParseOptions options) {
+        if (maxEntries < 1)
+            throw new IllegalArgumentException("The count of entries must be positive : " + maxEntries);
+        if (maxBytes < 1)
+            throw new IllegalArgumentException("The size of the cache must be positive : " + maxBytes);
+
+        this.maxEntries = maxEntries;
+        this.maxBytes = maxBytes;
+        this.options = options;
+    }
+
+    /**
+     * Parses a script, or copies its cached tree.
+     *
+     * @param xmlScript The script required for parsing into a new object.
+     * @return An object that was created from the script, owned by the caller.
+     */
+    public XmlObject parse(String xmlScript) {
+        return getTree(xmlScript).copy();
+    }
+
+    /**
+     * Parses a script, or returns its cached frozen tree. The frozen tree is shared by all the callers and never
+     * copied, it is created from the cached tree when it is required first.
+     *
+     * @param xmlScript The script required for parsing into a new object.
+     * @return A frozen object that was created from the script, see {@link XmlObject#freeze()}.
+     */
+    public XmlObject parseFrozen(String xmlScript) {
+        Entry entry = getEntry(xmlScript);
+        XmlObject frozenTree = entry.frozenTree;
+        if (frozenTree != null) return frozenTree;
+
+        frozenTree = entry.tree.freeze();
+        synchronized (this) {
+            //A tree frozen by two threads at once is kept once.
+            if (entry.frozenTree != null) return entry.frozenTree;
+            entry.frozenTree = frozenTree;
+
+            //The frozen tree is counted while its entry is cached, an evicted entry keeps it for its callers only.
+            if (entries.get(xmlScript) == entry) {
+                entry.bytes += entry.treeBytes;
+                estimatedBytes += entry.treeBytes;
+                evict();
+            }
+        }
+        return frozenTree;
+    }
+
+    /**
+     * Gets the cached tree of a script, parsing the script when it is not cached.
+     */
+    XmlObject getTree(String xmlScript) {
+        return getEntry(xmlScript).tree;
+    }
+
+    private Entry getEntry(String xmlScript) {
+        Entry entry;
+        synchronized (this) {
+            entry = entries.get(xmlScript);
+        }
+
+        if (entry != null) {
+            hitCount.incrementAndGet();
+            return entry;
+        }
+
+        missCount.incrementAndGet();
+        long start = System.nanoTime();
+        XmlObject tree = XmlObject.parseXml(xmlScript, options);
+        totalLoadTime.addAndGet(System.nanoTime() - start);
+
+        long scriptBytes = STRING_BYTES + 2L * xmlScript.length();
+        entry = new Entry(tree, scriptBytes, estimateBytes(tree));
+        synchronized (this) {
+            //A script parsed by two threads at once is cached once.
+            Entry cached = entries.get(xmlScript);
+            if (cached != null) return cached;
+
+            entries.put(xmlScript, entry);
+            estimatedBytes += entry.bytes;
+            evict();
+        }
+
+        return entry;
+    }
+
+    private void evict() {
+        Iterator<Entry> iterator = entries.values().iterator();
+
+        //The last added entry is kept even if it is larger than the limit alone.
+        while ((entries.size() > maxEntries || estimatedBytes > maxBytes) && entries.size() > 1) {
+            Entry eldest = iterator.next();
+            iterator.remove();
+            estimatedBytes -= eldest.bytes;
+            evictionCount.incrementAndGet();
+        }
+    }
+
+    /**
+     * Removes a script from the cache.
+     *
+     * @param xmlScript The script.
+     * @return true if the script was cached.
+     */
+    public synchronized boolean invalidate(String xmlScript) {
+        Entry entry = entries.remove(xmlScript);
+        if (entry == null) return false;
+
+        estimatedBytes -= entry.bytes;
+        return true;
+    }
+
+    /**
+     * Removes all the scripts from the cache, the metrics are kept.
+     */
+    public synchronized void clear() {
+        entries.clear();
+        estimatedBytes = 0;
+    }
+
+    /**
+     * @return The count of cached scripts.
+     */
+    public synchronized int getEntryCount() {
+        return entries.size();
+    }
+
+    /**
+     * @return The estimated count of bytes the cached scripts and trees retain.
+     */
+    public synchronized long getEstimatedBytes() {
+        return estimatedBytes;
+    }
+
+    /**
+     * @return The count of parses served from the cache.
+     */
+    public long getHitCount() {
+        return hitCount.get();
+    }
+
+    /**
+     * @return The count of parses that parsed their script.
+     */
+    public long getMissCount() {
+        return missCount.get();
+    }
+
+    /**
+     * @return The ratio of the parses served from the cache, 0 before the first parse.
+     */
+    public double getHitRate() {
+        long hits = hitCount.get();
+        long total = hits + missCount.get();
+        return total == 0 ? 0 : (double) hits / total;
+    }
+
+    /**
+     * @return The count of scripts evicted from the cache by its limits.
+     */
+    public long getEvictionCount() {
+        return evictionCount.get();
+    }
+
+    /**
+     * @return The time spent parsing the scripts that were not cached, in nanoseconds.
+     */
+    public long getTotalLoadTime() {
+        return totalLoadTime.get();
+    }
+
+    /**
+     * @return The average time of parsing a script that was not cached, in nanoseconds.
+     */
+    public double getAverageLoadTime() {
+        long misses = missCount.get();
+        return misses == 0 ? 0 : (double) totalLoadTime.get() / misses;
+    }
+
+    /**
+     * Estimates the bytes retained by a tree, the names are shared by the trees so they are not counted.
+     */
+    private static long estimateBytes(XmlObject tree) {
+        long[] bytes = {0};
+
+        tree.walk((object, depth) -> {
+            bytes[0] += OBJECT_BYTES;
+            for (int i = 0; i <= object.getNodesCount(); i++)
+                bytes[0] += STRING_BYTES + 2L * object.getTextPart(i).length();
+
+            XmlAttributeList attributes = object.attributes();
+            for (int i = 0; i < attributes.size(); i++) {
+                String value = attributes.get(i).getValue();
+                bytes[0] += ATTRIBUTE_BYTES + (value == null ? 0 : STRING_BYTES + 2L * value.length());
+            }
+            return VisitResult.CONTINUE;
+        });
+
+        return bytes[0];
+    }
+
+    private static final class Entry {
+        final XmlObject tree;
+        final long treeBytes;
+        long bytes;
+        volatile XmlObject frozenTree;
+
+        Entry(XmlObject tree, long scriptBytes, long treeBytes) {
+            this.tree = tree;
+            this.treeBytes = treeBytes;
+            this.bytes = scriptBytes + treeBytes;
+        }
+    }
+}
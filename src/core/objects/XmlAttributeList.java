@@ -0,0 +1,311 @@
+package core.objects;
+
+import core.objects.XmlObject.ObjectAttribute;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Objects;
+import java.util.function.Predicate;
+import java.util.function.UnaryOperator;
+
+/**
+ * The attributes list of a XmlObject.
+ * <p>
+ * The attributes are kept in their insertion order, like any ArrayList. Small lists are searched directly,
+ * once the list holds more than {@link #INDEX_THRESHOLD} attributes a hash index by name is built so
+ * the lookups by name are done in constant time.
+ * <p>
+ * Adding and removing attributes keeps the index up to date, any other change to the list rebuilds the
+ * index on the next lookup. Attributes should not be replaced through {@link #subList(int, int)}
+ * since ArrayList does not report those changes.
+ * <p>
+ * The list of a XmlObject reports every change of its attributes to its object, so the indexes and the hashes
+ * of its tree stay up to date.
+ */
+public class XmlAttributeList extends ArrayList<ObjectAttribute> {
+
+    public static final int INDEX_THRESHOLD = 8;
+
+    private XmlObject owner;
+    private HashMap<String, ObjectAttribute> index;
+    private int indexedModCount;
+    private boolean hasDuplicates;
+    private boolean frozen;
+
+    /**
+     * A global constructor
+     */
+    public XmlAttributeList() {
+        super();
+    }
+
+    /**
+     * A global constructor
+     *
+     * @param initialCapacity The initial capacity of the list.
+     */
+    public XmlAttributeList(int initialCapacity) {
+        super(initialCapacity);
+    }
+
+    /**
+     * A constructor that copies an existing list of attributes.
+     *
+     * @param attributes The attributes to be added to the list.
+     */
+    public XmlAttributeList(Collection<? extends ObjectAttribute> attributes) {
+        super(attributes);
+    }
+
+    /**
+     * Gets an attribute by name, if the name is repeated the first attribute is returned.
+     *
+     * @param name The name of the attribute.
+     * @return The attribute or null if there is no attribute with that name.
+     */
+    public ObjectAttribute get(String name) {
+        if (size() <= INDEX_THRESHOLD) {
+            for (int i = 0; i < size(); i++) {
+                ObjectAttribute attribute = get(i);
+                if (attribute.getName().equals(name)) return attribute;
+            }
+            return null;
+        }
+
+        return getIndex().get(name);
+    }
+
+    /**
+     * Checks if an attribute exists.
+     *
+     * @param name The name of the attribute.
+     * @return true if an attribute with that name exists.
+     */
+    public boolean containsName(String name) {
+        return get(name) != null;
+    }
+
+    /**
+     * Gets the position of an attribute.
+     *
+     * @param name The name of the attribute.
+     * @return The position of the first attribute with that name or -1 if it does not exist.
+     */
+    public int indexOfName(String name) {
+        ObjectAttribute attribute = get(name);
+        if (attribute == null) return -1;
+
+        for (int i = 0; i < size(); i++)
+            if (get(i) == attribute) return i;
+
+        return -1;
+    }
+
+    /**
+     * Sets the object the list belongs to, the attributes already in the list are given the same owner.
+     */
+    void setOwner(XmlObject owner) {
+        //A frozen list can be shared by the versions of a frozen tree, it keeps its first owner.
+        if (frozen) return;
+        this.owner = owner;
+        for (int i = 0; i < size(); i++) get(i).owner = owner;
+    }
+
+    /**
+     * Freezes the list of a frozen object, the index by name is built first so reading the list never changes it.
+     */
+    void freeze() {
+        if (size() > INDEX_THRESHOLD) getIndex();
+        frozen = true;
+    }
+
+    /**
+     * @return true if the list belongs to a frozen object and can not be changed.
+     */
+    public boolean isFrozen() {
+        return frozen;
+    }
+
+    private void checkNotFrozen() {
+        if (frozen) throw FrozenList.frozen();
+    }
+
+    private void attributeChanged(String name) {
+        if (owner != null) owner.attributeChanged(name);
+    }
+
+    private boolean isIndexed() {
+        return index != null && indexedModCount == modCount;
+    }
+
+    private HashMap<String, ObjectAttribute> getIndex() {
+        if (!isIndexed()) {
+            index = new HashMap<>(size() * 2);
+            hasDuplicates = false;
+
+            for (int i = 0; i < size(); i++) {
+                ObjectAttribute attribute = get(i);
+                if (index.putIfAbsent(attribute.getName(), attribute) != null) hasDuplicates = true;
+            }
+
+            indexedModCount = modCount;
+        }
+        return index;
+    }
+
+    @Override
+    public boolean add(ObjectAttribute attribute) {
+        checkNotFrozen();
+        boolean indexed = isIndexed();
+        super.add(attribute);
+
+        if (indexed) {
+            if (index.putIfAbsent(attribute.getName(), attribute) != null) hasDuplicates = true;
+            indexedModCount = modCount;
+        }
+
+        attribute.owner = owner;
+        attributeChanged(attribute.getName());
+        return true;
+    }
+
+    @Override
+    public void add(int position, ObjectAttribute attribute) {
+        checkNotFrozen();
+        super.add(position, attribute);
+        index = null;
+        attribute.owner = owner;
+        attributeChanged(attribute.getName());
+    }
+
+    @Override
+    public ObjectAttribute remove(int position) {
+        checkNotFrozen();
+        //With repeated names another attribute may take the place of the removed one, so the index is rebuilt.
+        boolean indexed = isIndexed() && !hasDuplicates;
+        ObjectAttribute attribute = super.remove(position);
+
+        if (indexed) {
+            index.remove(attribute.getName());
+            indexedModCount = modCount;
+        }
+
+        attribute.owner = null;
+        attributeChanged(attribute.getName());
+        return attribute;
+    }
+
+    @Override
+    public ObjectAttribute set(int position, ObjectAttribute attribute) {
+        checkNotFrozen();
+        ObjectAttribute oldAttribute = super.set(position, attribute);
+        index = null;
+
+        oldAttribute.owner = null;
+        attribute.owner = owner;
+        attributeChanged(oldAttribute.getName());
+        attributeChanged(attribute.getName());
+        return oldAttribute;
+    }
+
+    @Override
+    public void clear() {
+        checkNotFrozen();
+        for (int i = 0; i < size(); i++) get(i).owner = null;
+        super.clear();
+        index = null;
+        attributeChanged(null);
+    }
+
+    @Override
+    public boolean addAll(Collection<? extends ObjectAttribute> attributes) {
+        checkNotFrozen();
+        boolean changed = super.addAll(attributes);
+        if (changed) attributesChanged();
+        return changed;
+    }
+
+    @Override
+    public boolean addAll(int position, Collection<? extends ObjectAttribute> attributes) {
+        checkNotFrozen();
+        boolean changed = super.addAll(position, attributes);
+        if (changed) attributesChanged();
+        return changed;
+    }
+
+    @Override
+    public boolean remove(Object attribute) {
+        checkNotFrozen();
+        int position = indexOf(attribute);
+        if (position < 0) return false;
+
+        remove(position);
+        return true;
+    }
+
+    @Override
+    public boolean removeAll(Collection<?> attributes) {
+        Objects.requireNonNull(attributes);
+        return removeIf(attributes::contains);
+    }
+
+    @Override
+    public boolean retainAll(Collection<?> attributes) {
+        Objects.requireNonNull(attributes);
+        return removeIf(attribute -> !attributes.contains(attribute));
+    }
+
+    @Override
+    public boolean removeIf(Predicate<? super ObjectAttribute> filter) {
+        checkNotFrozen();
+        ArrayList<ObjectAttribute> removed = new ArrayList<>();
+        boolean changed = super.removeIf(attribute -> filter.test(attribute) && removed.add(attribute));
+
+        for (ObjectAttribute attribute : removed) attribute.owner = null;
+        if (changed) attributesChanged();
+        return changed;
+    }
+
+    @Override
+    public void replaceAll(UnaryOperator<ObjectAttribute> operator) {
+        checkNotFrozen();
+        for (int i = 0; i < size(); i++) get(i).owner = null;
+        super.replaceAll(operator);
+        attributesChanged();
+    }
+
+    @Override
+    public void sort(Comparator<? super ObjectAttribute> comparator) {
+        checkNotFrozen();
+        super.sort(comparator);
+        //The order decides which of the repeated names is found and how the object is written.
+        attributesChanged();
+    }
+
+    @Override
+    protected void removeRange(int fromIndex, int toIndex) {
+        checkNotFrozen();
+        for (int i = fromIndex; i < toIndex; i++) get(i).owner = null;
+        super.removeRange(fromIndex, toIndex);
+        if (fromIndex < toIndex) attributesChanged();
+    }
+
+    /**
+     * Reports a change of any count of attributes, the attributes left in the list are given its owner.
+     */
+    private void attributesChanged() {
+        index = null;
+        for (int i = 0; i < size(); i++) get(i).owner = owner;
+        attributeChanged(null);
+    }
+
+    @Override
+    public List<ObjectAttribute> subList(int fromIndex, int toIndex) {
+        List<ObjectAttribute> subList = super.subList(fromIndex, toIndex);
+        return frozen ? Collections.unmodifiableList(subList) : subList;
+    }
+}
@@ -0,0 +1,66 @@
+package core.objects;
+
+import java.util.ArrayList;
+
+/**
+ * The nodes changed by an edit of an {@link XmlIncrementalParser}. The nodes of a part of the content of one
+ * object are replaced by the nodes parsed again from that part, all the other nodes of the tree are kept as
+ * they were, only the texts around the replaced nodes can change.
+ */
+public class XmlChange {
+
+    private final XmlObject parent;
+    private final int position;
+    private final ArrayList<XmlObject> removedNodes;
+    private final ArrayList<XmlObject> addedNodes;
+
+    /**
+     * A global constructor
+     *
+     * @param parent       The object whose content was parsed again, or null when the whole script was.
+     * @param position     The position of the first added node in the parent.
+     * @param removedNodes The nodes that were removed from the parent.
+     * @param addedNodes   The nodes that were added to the parent.
+     */
+    public XmlChange(XmlObject parent, int position, ArrayList<XmlObject> removedNodes, ArrayList<XmlObject> addedNodes) {
+        this.parent = parent;
+        this.position = position;
+        this.removedNodes = removedNodes;
+        this.addedNodes = addedNodes;
+    }
+
+    /**
+     * @return The object whose content was parsed again, or null when the whole script was parsed again.
+     */
+    public XmlObject getParent() {
+        return parent;
+    }
+
+    /**
+     * @return The position of the first added node in the parent.
+     */
+    public int getPosition() {
+        return position;
+    }
+
+    /**
+     * @return The nodes that were removed with their subtrees, the old root when the whole script was parsed again.
+     */
+    public ArrayList<XmlObject> getRemovedNodes() {
+        return removedNodes;
+    }
+
+    /**
+     * @return The nodes that were added with their subtrees, the new root when the whole script was parsed again.
+     */
+    public ArrayList<XmlObject> getAddedNodes() {
+        return addedNodes;
+    }
+
+    /**
+     * @return true if the whole script was parsed again and the tree has a new root.
+     */
+    public boolean isFullParse() {
+        return parent == null;
+    }
+}
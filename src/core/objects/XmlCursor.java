@@ -0,0 +1,180 @@
+package core.objects;
+
+import core.objects.XmlObject.ObjectAttribute;
+import interfaces.XmlTreeCursor;
+
+/**
+ * A light view over an element of a {@link XmlDocument}.
+ * <p>
+ * The cursor reads its element like a XmlObject is read, and it can be moved through the document
+ * without creating new objects, a moved cursor reads the element it stands on.
+ */
+public class XmlCursor implements XmlTreeCursor {
+
+    private final XmlDocument document;
+    private int node;
+
+    /**
+     * A global constructor
+     *
+     * @param document The document of the cursor.
+     * @param node     The element the cursor stands on.
+     */
+    public XmlCursor(XmlDocument document, int node) {
+        if (node < 0 || node >= document.getNodeCount())
+            throw new IndexOutOfBoundsException("Index: " + node + ", Size: " + document.getNodeCount());
+
+        this.document = document;
+        this.node = node;
+    }
+
+    /**
+     * @return The document of the cursor.
+     */
+    public XmlDocument getDocument() {
+        return document;
+    }
+
+    /**
+     * @return The index of the element the cursor stands on.
+     */
+    public int getIndex() {
+        return node;
+    }
+
+    /**
+     * Gets the tag name.
+     *
+     * @return the tag name.
+     */
+    @Override
+    public String getTagName() {
+        return document.getTagName(node);
+    }
+
+    /**
+     * Gets the parent of the current element.
+     *
+     * @return A new cursor on the parent element or null for the root.
+     */
+    public XmlCursor getParentObject() {
+        int parent = document.getParent(node);
+        return parent == XmlDocument.NO_NODE ? null : new XmlCursor(document, parent);
+    }
+
+    /**
+     * Gets the nodes count
+     *
+     * @return the number of tags within this tag
+     */
+    public int getNodesCount() {
+        return document.getNodesCount(node);
+    }
+
+    /**
+     * Gets a node at a known position.
+     *
+     * @param position The position of the required element.
+     * @return A new cursor on the element in the given position.
+     */
+    public XmlCursor getNode(int position) {
+        return new XmlCursor(document, document.getNode(node, position));
+    }
+
+    /**
+     * @return The count of attributes of the current element.
+     */
+    public int getAttributeCount() {
+        return document.getAttributeCount(node);
+    }
+
+    /**
+     * Gets an attribute using its name.
+     *
+     * @param attributeName The name of the attribute.
+     * @return The attribute or null if it does not exist.
+     */
+    public ObjectAttribute getAttribute(String attributeName) {
+        return document.getAttribute(node, attributeName);
+    }
+
+    /**
+     * Gets an attribute value using its name.
+     *
+     * @param attributeName The name of the attribute.
+     * @return The value of the attribute or null if it does not exist.
+     */
+    @Override
+    public String getAttributeValue(String attributeName) {
+        return document.getAttributeValue(node, attributeName);
+    }
+
+    /**
+     * Gets the xml text.
+     *
+     * @return the xml inner text with {TAG} replacing the child elements.
+     */
+    public String getText() {
+        return document.getText(node);
+    }
+
+    /**
+     * Gets a text part of the element, the text parts are the texts between the child elements.
+     *
+     * @param position The position of the element that follows the text, or the nodes count for the text after the last element.
+     * @return The text part.
+     */
+    public String getTextPart(int position) {
+        return document.getTextPart(node, position);
+    }
+
+    /**
+     * Converts the current element and its subtree into a mutable XmlObject.
+     *
+     * @return The new object.
+     */
+    public XmlObject toXmlObject() {
+        return document.toXmlObject(node);
+    }
+
+    /**
+     * Moves the cursor to an element of the document.
+     *
+     * @param node The index of the element.
+     */
+    public void moveTo(int node) {
+        if (node < 0 || node >= document.getNodeCount())
+            throw new IndexOutOfBoundsException("Index: " + node + ", Size: " + document.getNodeCount());
+        this.node = node;
+    }
+
+    /**
+     * @return true if the cursor moved to the parent, false if it stands on the root.
+     */
+    @Override
+    public boolean toParent() {
+        return move(document.getParent(node));
+    }
+
+    /**
+     * @return true if the cursor moved to the first child, false if the element has no children.
+     */
+    @Override
+    public boolean toFirstChild() {
+        return move(document.getFirstChild(node));
+    }
+
+    /**
+     * @return true if the cursor moved to the next sibling, false if the element is the last child.
+     */
+    @Override
+    public boolean toNextSibling() {
+        return move(document.getNextSibling(node));
+    }
+
+    private boolean move(int target) {
+        if (target == XmlDocument.NO_NODE) return false;
+        node = target;
+        return true;
+    }
+}
@@ -0,0 +1,305 @@
+package core.objects;
+
+import flags.DiffType;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Objects;
+
+/**
+ * Finds the node level changes between two trees, like two versions of the same feed.
+ * <p>
+ * Two objects with the same subtree hash are taken as the same and are not looked into, so once the hashes of
+ * the trees are computed the diff of two trees that are mostly the same only visits the changed objects, their
+ * parents and the siblings around them. The nodes of two matched objects are matched in this order :
+ * <ul>
+ * <li>The nodes at the start and at the end of both objects with the same hashes.</li>
+ * <li>The other nodes with the same hashes, they did not change.</li>
+ * <li>The nodes with the same tag name and id attribute.</li>
+ * <li>The nodes with the same tag name between the same two nodes that kept their order, in their order.</li>
+ * </ul>
+ * The matched nodes that are not in the longest run of nodes that kept their order are reported as moved, the
+ * old nodes that were not matched as deleted and the new nodes as inserted.
+ */
+public final class XmlDiff {
+
+    //The count of nodes looked ahead for the next node that did not change.
+    private static final int LOOK_AHEAD = 32;
+
+    private XmlDiff() {
+    }
+
+    /**
+     * Finds the changes that turn a tree into another.
+     *
+     * @param oldObject The root of the old tree.
+     * @param newObject The root of the new tree.
+     * @return The operations, the operations of an object come before the operations of its nodes.
+     */
+    public static ArrayList<XmlDiffOperation> diff(XmlObject oldObject, XmlObject newObject) {
+        ArrayList<XmlDiffOperation> operations = new ArrayList<>();
+        ArrayDeque<XmlDiffOperation> pending = new ArrayDeque<>();
+        pending.push(new XmlDiffOperation(DiffType.UPDATE, oldObject, newObject, -1, -1));
+
+        //The matched pairs are kept on a stack instead of recursing, trees can be deeper than the call stack.
+        while (!pending.isEmpty()) {
+            XmlDiffOperation pair = pending.pop();
+            XmlObject oldNode = pair.getOldNode();
+            XmlObject newNode = pair.getNewNode();
+            if (oldNode.getSubtreeHash() == newNode.getSubtreeHash()) continue;
+
+            if (!sameObject(oldNode, newNode)) operations.add(pair);
+            diffNodes(oldNode, newNode, operations, pending);
+        }
+
+        return operations;
+    }
+
+    /**
+     * Matches the nodes of two matched objects, adds the operations of the nodes and pushes the matched nodes
+     * that changed.
+     */
+    private static void diffNodes(XmlObject oldParent, XmlObject newParent,
+                                  ArrayList<XmlDiffOperation> operations, ArrayDeque<XmlDiffOperation> pending) {
+        int oldCount = oldParent.getNodesCount();
+        int newCount = newParent.getNodesCount();
+        int[] newOfOld = new int[oldCount];
+        int[] oldOfNew = new int[newCount];
+        Arrays.fill(newOfOld, -1);
+        Arrays.fill(oldOfNew, -1);
+
+        int start = 0;
+        while (start < oldCount && start < newCount && sameHash(oldParent, start, newParent, start)) {
+            newOfOld[start] = start;
+            oldOfNew[start] = start;
+            start++;
+        }
+
+        int oldEnd = oldCount;
+        int newEnd = newCount;
+        while (oldEnd > start && newEnd > start && sameHash(oldParent, oldEnd - 1, newParent, newEnd - 1)) {
+            newOfOld[--oldEnd] = --newEnd;
+            oldOfNew[newEnd] = oldEnd;
+        }
+
+        if (start < oldEnd && start < newEnd) {
+            alignInOrder(oldParent, newParent, start, oldEnd, newEnd, newOfOld, oldOfNew);
+
+            HashMap<Long, ArrayDeque<Integer>> byHash = new HashMap<>();
+            for (int i = start; i < oldEnd; i++) {
+                if (newOfOld[i] == -1)
+                    byHash.computeIfAbsent(oldParent.getNode(i).getSubtreeHash(), key -> new ArrayDeque<>()).add(i);
+            }
+            for (int j = start; j < newEnd && !byHash.isEmpty(); j++) {
+                if (oldOfNew[j] != -1) continue;
+                ArrayDeque<Integer> candidates = byHash.get(newParent.getNode(j).getSubtreeHash());
+                if (candidates != null && !candidates.isEmpty()) {
+                    int i = candidates.poll();
+                    newOfOld[i] = j;
+                    oldOfNew[j] = i;
+                }
+            }
+
+            matchById(oldParent, newParent, start, oldEnd, newEnd, newOfOld, oldOfNew);
+            matchInGaps(oldParent, newParent, start, oldEnd, newEnd, newOfOld, oldOfNew);
+        }
+
+        for (int i = 0; i < oldCount; i++) {
+            if (newOfOld[i] == -1)
+                operations.add(new XmlDiffOperation(DiffType.DELETE, oldParent.getNode(i), null, i, -1));
+        }
+
+        boolean[] kept = keptOrder(oldOfNew, start, newEnd);
+        ArrayList<XmlDiffOperation> changed = new ArrayList<>();
+        for (int j = 0; j < newCount; j++) {
+            int i = oldOfNew[j];
+            if (i == -1) {
+                operations.add(new XmlDiffOperation(DiffType.INSERT, null, newParent.getNode(j), -1, j));
+                continue;
+            }
+
+            XmlObject oldNode = oldParent.getNode(i);
+            XmlObject newNode = newParent.getNode(j);
+            if (j >= start && j < newEnd && !kept[j - start])
+                operations.add(new XmlDiffOperation(DiffType.MOVE, oldNode, newNode, i, j));
+            if (oldNode.getSubtreeHash() != newNode.getSubtreeHash())
+                changed.add(new XmlDiffOperation(DiffType.UPDATE, oldNode, newNode, i, j));
+        }
+
+        //Pushed backwards so the nodes are visited in their order.
+        for (int k = changed.size() - 1; k >= 0; k--) pending.push(changed.get(k));
+    }
+
+    /**
+     * Matches the nodes of the middle parts with the same hashes that kept their order, the nodes inserted or
+     * deleted between them are skipped by looking a few nodes ahead. The nodes that moved further are matched
+     * by their hashes afterwards.
+     */
+    private static void alignInOrder(XmlObject oldParent, XmlObject newParent, int start, int oldEnd, int newEnd,
+                                     int[] newOfOld, int[] oldOfNew) {
+        int i = start;
+        int j = start;
+
+        while (i < oldEnd && j < newEnd) {
+            if (sameHash(oldParent, i, newParent, j)) {
+                newOfOld[i] = j;
+                oldOfNew[j++] = i++;
+                continue;
+            }
+
+            int skip = 1;
+            while (skip <= LOOK_AHEAD) {
+                if (i + skip < oldEnd && sameHash(oldParent, i + skip, newParent, j)) {
+                    i += skip;
+                    break;
+                }
+                if (j + skip < newEnd && sameHash(oldParent, i, newParent, j + skip)) {
+                    j += skip;
+                    break;
+                }
+                skip++;
+            }
+
+            //A node changed in place, or the nodes around it changed too much to be aligned here.
+            if (skip > LOOK_AHEAD) {
+                i++;
+                j++;
+            }
+        }
+    }
+
+    /**
+     * Matches the nodes left in the middle parts with the same tag name and id attribute, wherever they are.
+     */
+    private static void matchById(XmlObject oldParent, XmlObject newParent, int start, int oldEnd, int newEnd,
+                                  int[] newOfOld, int[] oldOfNew) {
+        HashMap<String, ArrayDeque<Integer>> byId = new HashMap<>();
+        for (int i = start; i < oldEnd; i++) {
+            String key = newOfOld[i] == -1 ? idKey(oldParent.getNode(i)) : null;
+            if (key != null) byId.computeIfAbsent(key, id -> new ArrayDeque<>()).add(i);
+        }
+        if (byId.isEmpty()) return;
+
+        for (int j = start; j < newEnd; j++) {
+            String key = oldOfNew[j] == -1 ? idKey(newParent.getNode(j)) : null;
+            ArrayDeque<Integer> candidates = key == null ? null : byId.get(key);
+            if (candidates != null && !candidates.isEmpty()) {
+                int i = candidates.poll();
+                newOfOld[i] = j;
+                oldOfNew[j] = i;
+            }
+        }
+    }
+
+    private static String idKey(XmlObject node) {
+        String id = node.getAttributeValue("id");
+        return id == null ? null : node.getTagName() + '\u0000' + id;
+    }
+
+    /**
+     * Matches the nodes left between two nodes that kept their order with the nodes left between the same two
+     * nodes of the other object, by their tag names in their order.
+     */
+    private static void matchInGaps(XmlObject oldParent, XmlObject newParent, int start, int oldEnd, int newEnd,
+                                    int[] newOfOld, int[] oldOfNew) {
+        boolean[] kept = keptOrder(oldOfNew, start, newEnd);
+        int oldGapStart = start;
+        int newGapStart = start;
+
+        for (int j = start; j <= newEnd; j++) {
+            if (j < newEnd && !kept[j - start]) continue;
+
+            int oldGapEnd = j < newEnd ? oldOfNew[j] : oldEnd;
+            if (oldGapEnd > oldGapStart && j > newGapStart)
+                matchByName(oldParent, newParent, oldGapStart, oldGapEnd, newGapStart, j, newOfOld, oldOfNew);
+
+            oldGapStart = oldGapEnd + 1;
+            newGapStart = j + 1;
+        }
+    }
+
+    private static void matchByName(XmlObject oldParent, XmlObject newParent, int oldStart, int oldEnd,
+                                    int newStart, int newEnd, int[] newOfOld, int[] oldOfNew) {
+        HashMap<String, ArrayDeque<Integer>> byName = new HashMap<>();
+        for (int i = oldStart; i < oldEnd; i++) {
+            if (newOfOld[i] == -1)
+                byName.computeIfAbsent(oldParent.getNode(i).getTagName(), name -> new ArrayDeque<>()).add(i);
+        }
+
+        for (int j = newStart; j < newEnd && !byName.isEmpty(); j++) {
+            ArrayDeque<Integer> candidates = oldOfNew[j] == -1 ? byName.get(newParent.getNode(j).getTagName()) : null;
+            if (candidates != null && !candidates.isEmpty()) {
+                int i = candidates.poll();
+                newOfOld[i] = j;
+                oldOfNew[j] = i;
+            }
+        }
+    }
+
+    /**
+     * Finds the longest run of matched new nodes of the middle part whose old nodes are in the same order.
+     *
+     * @return For each node of the middle part, true if it is in that run.
+     */
+    private static boolean[] keptOrder(int[] oldOfNew, int start, int newEnd) {
+        int count = Math.max(newEnd - start, 0);
+        int[] tails = new int[count];
+        int[] previous = new int[count];
+        int length = 0;
+
+        for (int j = 0; j < count; j++) {
+            int i = oldOfNew[start + j];
+            if (i == -1) continue;
+
+            int low = 0, high = length;
+            while (low < high) {
+                int middle = (low + high) >>> 1;
+                if (oldOfNew[start + tails[middle]] < i) low = middle + 1;
+                else high = middle;
+            }
+            previous[j] = low > 0 ? tails[low - 1] : -1;
+            tails[low] = j;
+            if (low == length) length++;
+        }
+
+        boolean[] kept = new boolean[count];
+        for (int j = length > 0 ? tails[length - 1] : -1; j != -1; j = previous[j]) kept[j] = true;
+        return kept;
+    }
+
+    private static boolean sameHash(XmlObject oldParent, int oldPosition, XmlObject newParent, int newPosition) {
+        return oldParent.getNode(oldPosition).getSubtreeHash() == newParent.getNode(newPosition).getSubtreeHash();
+    }
+
+    /**
+     * Checks if two objects have the same tag name, attributes and text, without their nodes. The texts are
+     * compared joined, so a node added or removed without text does not change the text of its parent.
+     */
+    private static boolean sameObject(XmlObject oldNode, XmlObject newNode) {
+        if (!Objects.equals(oldNode.getTagName(), newNode.getTagName())) return false;
+
+        XmlAttributeList oldAttributes = oldNode.attributes();
+        XmlAttributeList newAttributes = newNode.attributes();
+        if (oldAttributes.size() != newAttributes.size()) return false;
+        for (int i = 0; i < oldAttributes.size(); i++) {
+            XmlObject.ObjectAttribute oldAttribute = oldAttributes.get(i);
+            XmlObject.ObjectAttribute newAttribute = newAttributes.get(i);
+            if (!oldAttribute.getName().equals(newAttribute.getName())) return false;
+            String oldValue = oldAttribute.getValue();
+            if (oldValue == null ? newAttribute.getValue() != null : !oldValue.equals(newAttribute.getValue()))
+                return false;
+        }
+
+        return joinedText(oldNode).equals(joinedText(newNode));
+    }
+
+    private static String joinedText(XmlObject node) {
+        if (node.getNodesCount() == 0) return node.getTextPart(0);
+
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i <= node.getNodesCount(); i++) builder.append(node.getTextPart(i));
+        return builder.toString();
+    }
+}
@@ -0,0 +1,79 @@
+package core.objects;
+
+import flags.DiffType;
+
+/**
+ * An operation of the diff of two trees, see {@link XmlDiff}.
+ * <ul>
+ * <li>INSERT : the new node was added to its parent, it has no old node.</li>
+ * <li>DELETE : the old node was removed from its parent, it has no new node.</li>
+ * <li>UPDATE : the tag name, attributes or texts of the old node changed into those of the new node.</li>
+ * <li>MOVE : the old node was moved to another position among the nodes of its parent.</li>
+ * </ul>
+ */
+public class XmlDiffOperation {
+
+    private final DiffType type;
+    private final XmlObject oldNode;
+    private final XmlObject newNode;
+    private final int oldPosition;
+    private final int newPosition;
+
+    /**
+     * A global constructor
+     *
+     * @param type        The type of the operation.
+     * @param oldNode     The node of the old tree, or null for an insert.
+     * @param newNode     The node of the new tree, or null for a delete.
+     * @param oldPosition The position of the old node in its parent, or -1.
+     * @param newPosition The position of the new node in its parent, or -1.
+     */
+    public XmlDiffOperation(DiffType type, XmlObject oldNode, XmlObject newNode, int oldPosition, int newPosition) {
+        this.type = type;
+        this.oldNode = oldNode;
+        this.newNode = newNode;
+        this.oldPosition = oldPosition;
+        this.newPosition = newPosition;
+    }
+
+    /**
+     * @return The type of the operation.
+     */
+    public DiffType getType() {
+        return type;
+    }
+
+    /**
+     * @return The node of the old tree, or null for an insert.
+     */
+    public XmlObject getOldNode() {
+        return oldNode;
+    }
+
+    /**
+     * @return The node of the new tree, or null for a delete.
+     */
+    public XmlObject getNewNode() {
+        return newNode;
+    }
+
+    /**
+     * @return The position of the old node in its parent, or -1 for an insert and for the roots.
+     */
+    public int getOldPosition() {
+        return oldPosition;
+    }
+
+    /**
+     * @return The position of the new node in its parent, or -1 for a delete and for the roots.
+     */
+    public int getNewPosition() {
+        return newPosition;
+    }
+
+    @Override
+    public String toString() {
+        XmlObject node = newNode != null ? newNode : oldNode;
+        return type + " " + node.getTagName() + " " + oldPosition + " -> " + newPosition;
+    }
+}
@@ -0,0 +1,593 @@
+package core.objects;
+
+import core.objects.XmlObject.ObjectAttribute;
+import core.parsers.MappedFileReader;
+import core.parsers.XmlPullParser;
+import core.selectors.XmlSelector;
+import flags.XmlEvent;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * A compact read-only form of a parsed xml script.
+ * <p>
+ * The elements are not objects of their own, each element is an index and its structure is kept in
+ * arrays : the parent, the end of the subtree and the count of children. The elements are stored in the
+ * order of the script, so the first child of an element is the element after it and the elements of a
+ * subtree are one range of indices.
+ * <p>
+ * The tag and attribute names are interned strings, the attribute values and the texts are offsets into
+ * the parsed script, they are only created when they are read.
+ * <p>
+ * The document follows the same parsing rules as XmlObject.parseXml, {@link #toXmlObject(int)} converts an
+ * element into an equal XmlObject tree when it has to be modified. Elements can also be read through a
+ * {@link XmlCursor}.
+ */
+public class XmlDocument {
+
+    public static final int NO_NODE = -1;
+
+    private static final String TAG_MARK = "{TAG}\n";
+
+    private final char[] source;
+    private final int nodeCount;
+
+    private final String[] tagNames;
+    private final int[] parents;
+    private final int[] ends;
+    private final int[] childCounts;
+
+    //The texts before each element and the texts after the last child of each element.
+    private final int[] leadingTextStarts;
+    private final int[] leadingTextEnds;
+    private final int[] trailingTextStarts;
+    private final int[] trailingTextEnds;
+    private final String[] joinedTexts;
+
+    //The attributes of element i are the attributes from attributeStarts[i] to attributeStarts[i + 1].
+    private final int[] attributeStarts;
+    private final String[] attributeNames;
+    private final int[] attributeValueStarts;
+    private final int[] attributeValueEnds;
+
+    private XmlDocument(Builder builder) {
+        this.source = builder.source;
+        this.nodeCount = builder.nodeCount;
+        this.tagNames = Arrays.copyOf(builder.tagNames, nodeCount);
+        this.parents = Arrays.copyOf(builder.parents, nodeCount);
+        this.ends = Arrays.copyOf(builder.ends, nodeCount);
+        this.childCounts = Arrays.copyOf(builder.childCounts, nodeCount);
+        this.leadingTextStarts = Arrays.copyOf(builder.leadingTextStarts, nodeCount);
+        this.leadingTextEnds = Arrays.copyOf(builder.leadingTextEnds, nodeCount);
+        this.trailingTextStarts = Arrays.copyOf(builder.trailingTextStarts, nodeCount);
+        this.trailingTextEnds = Arrays.copyOf(builder.trailingTextEnds, nodeCount);
+        this.joinedTexts = builder.joinedTexts.toArray(new String[0]);
+        this.attributeStarts = Arrays.copyOf(builder.attributeStarts, nodeCount + 1);
+        this.attributeNames = Arrays.copyOf(builder.attributeNames, builder.attributeCount);
+        this.attributeValueStarts = Arrays.copyOf(builder.attributeValueStarts, builder.attributeCount);
+        this.attributeValueEnds = Arrays.copyOf(builder.attributeValueEnds, builder.attributeCount);
+    }
+
+    /**
+     * Parses a script into a compact document.
+     *
+     * @param xmlScript The script required for parsing.
+     * @return The document of the script.
+     */
+    public static XmlDocument parse(String xmlScript) {
+        try {
+            return parse(new XmlPullParser(xmlScript));
+        } catch (IOException e) {
+            //A script in memory is never read from a stream.
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Parses a script into a compact document, the document keeps the given array as its source
+     * so it should not be modified afterwards.
+     *
+     * @param script The characters of the script required for parsing.
+     * @return The document of the script.
+     */
+    public static XmlDocument parse(char[] script) {
+        try {
+            return parse(new XmlPullParser(script));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Reads a whole script and parses it into a compact document.
+     *
+     * @param reader The reader of the script.
+     * @return The document of the script.
+     * @throws IOException if reading the script failed.
+     */
+    public static XmlDocument parse(Reader reader) throws IOException {
+        char[] buffer = new char[8192];
+        int length = 0;
+        int read;
+
+        while ((read = reader.read(buffer, length, buffer.length - length)) != -1) {
+            length += read;
+            if (length == buffer.length) buffer = Arrays.copyOf(buffer, buffer.length * 2);
+        }
+
+        return parse(Arrays.copyOf(buffer, length));
+    }
+
+    /**
+     * Parses a local file into a compact document.
+     *
+     * @param path    The path of the file.
+     * @param charset The charset of the file.
+     * @return The document of the file.
+     * @throws IOException if reading the file failed.
+     */
+    public static XmlDocument parseFile(Path path, Charset charset) throws IOException {
+        try (MappedFileReader reader = new MappedFileReader(path, charset)) {
+            return parse(reader);
+        }
+    }
+
+    /**
+     * Parses a local UTF-8 file into a compact document.
+     *
+     * @param path The path of the file.
+     * @return The document of the file.
+     * @throws IOException if reading the file failed.
+     */
+    public static XmlDocument parseFile(Path path) throws IOException {
+        return parseFile(path, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Builds a compact document out of the events of a pull parser.
+     *
+     * @param parser The parser standing before the first tag of the script, it must hold the whole script.
+     * @return The document of the script.
+     * @throws IOException if reading the script failed.
+     */
+    public static XmlDocument parse(XmlPullParser parser) throws IOException {
+        if (!parser.isWholeScript())
+            throw new IllegalArgumentException("The parser should hold the whole script");
+
+        if (parser.next() == XmlEvent.END_DOCUMENT)
+            throw new IllegalStateException("No match found");
+
+        Builder builder = new Builder(parser.getBuffer());
+        builder.startNode(parser);
+
+        XmlEvent event;
+
+        while ((event = parser.next()) != XmlEvent.END_DOCUMENT) {
+            switch (event) {
+                case TEXT:
+                    builder.addText(parser.getTextStart(), parser.getTextEnd());
+                    break;
+
+                case START_TAG:
+                    builder.startNode(parser);
+                    break;
+
+                case END_TAG:
+                    builder.endNode();
+                    break;
+
+                case COMMENT:
+                    builder.startNode(parser);
+                    builder.addText(parser.getTextStart(), parser.getTextEnd());
+                    builder.endNode();
+                    break;
+            }
+        }
+
+        while (builder.depth > 0) builder.endNode();
+
+        return new XmlDocument(builder);
+    }
+
+    /**
+     * @return The root element, it is always the first element.
+     */
+    public int getRoot() {
+        return 0;
+    }
+
+    /**
+     * @return The count of elements in the document.
+     */
+    public int getNodeCount() {
+        return nodeCount;
+    }
+
+    /**
+     * @return A cursor standing on the root element.
+     */
+    public XmlCursor getCursor() {
+        return new XmlCursor(this, 0);
+    }
+
+    /**
+     * Finds the elements matching a query, see {@link XmlSelector} for the supported CSS selectors and XPath paths.
+     *
+     * @param query The query.
+     * @return Cursors on the matching elements in the order of the script.
+     */
+    public ArrayList<XmlCursor> select(String query) {
+        return XmlSelector.compile(query).select(this);
+    }
+
+    /**
+     * Finds the first element matching a query.
+     *
+     * @param query The query.
+     * @return A cursor on the first matching element or null if there is no match.
+     */
+    public XmlCursor selectFirst(String query) {
+        return XmlSelector.compile(query).selectFirst(this);
+    }
+
+    /**
+     * @return The characters of the parsed script.
+     */
+    public char[] getSource() {
+        return source;
+    }
+
+    /**
+     * @param node The element.
+     * @return The interned tag name of the element.
+     */
+    public String getTagName(int node) {
+        return tagNames[node];
+    }
+
+    /**
+     * @param node The element.
+     * @return The parent of the element or NO_NODE for the root.
+     */
+    public int getParent(int node) {
+        return parents[node];
+    }
+
+    /**
+     * @param node The element.
+     * @return The first child of the element or NO_NODE if it has no children.
+     */
+    public int getFirstChild(int node) {
+        return ends[node] > node + 1 ? node + 1 : NO_NODE;
+    }
+
+    /**
+     * @param node The element.
+     * @return The next sibling of the element or NO_NODE if it is the last child.
+     */
+    public int getNextSibling(int node) {
+        int parent = parents[node];
+        if (parent == NO_NODE || ends[node] == ends[parent]) return NO_NODE;
+        return ends[node];
+    }
+
+    /**
+     * Gets the end of the subtree of an element, the descendants of the element are the elements
+     * after it and before its end.
+     *
+     * @param node The element.
+     * @return The index after the last descendant of the element.
+     */
+    public int getSubtreeEnd(int node) {
+        return ends[node];
+    }
+
+    /**
+     * @param node The element.
+     * @return The count of children of the element.
+     */
+    public int getNodesCount(int node) {
+        return childCounts[node];
+    }
+
+    /**
+     * Gets a child at a known position, the children are walked from the first one.
+     *
+     * @param node     The element.
+     * @param position The position of the child.
+     * @return The child element.
+     */
+    public int getNode(int node, int position) {
+        if (position < 0 || position >= childCounts[node])
+            throw new IndexOutOfBoundsException("Index: " + position + ", Size: " + childCounts[node]);
+
+        int child = node + 1;
+        for (int i = 0; i < position; i++) child = ends[child];
+        return child;
+    }
+
+    /**
+     * @param node The element.
+     * @return The count of attributes of the element.
+     */
+    public int getAttributeCount(int node) {
+        return attributeStarts[node + 1] - attributeStarts[node];
+    }
+
+    /**
+     * @param node     The element.
+     * @param position The position of the attribute.
+     * @return The interned name of the attribute.
+     */
+    public String getAttributeName(int node, int position) {
+        return attributeNames[attributeIndex(node, position)];
+    }
+
+    /**
+     * @param node     The element.
+     * @param position The position of the attribute.
+     * @return The value of the attribute, attributes without values have an empty value.
+     */
+    public String getAttributeValue(int node, int position) {
+        int index = attributeIndex(node, position);
+        int start = attributeValueStarts[index];
+        if (start == -1) return "";
+        return new String(source, start, attributeValueEnds[index] - start);
+    }
+
+    /**
+     * Gets an attribute value by name, if the name is repeated the first attribute is used.
+     *
+     * @param node          The element.
+     * @param attributeName The name of the attribute.
+     * @return The value of the attribute or null if it does not exist.
+     */
+    public String getAttributeValue(int node, String attributeName) {
+        int index = findAttribute(node, attributeName);
+        if (index == -1) return null;
+        return getAttributeValue(node, index - attributeStarts[node]);
+    }
+
+    /**
+     * Gets an attribute by name, the value of the attribute is created when it is read.
+     *
+     * @param node          The element.
+     * @param attributeName The name of the attribute.
+     * @return The attribute or null if it does not exist.
+     */
+    public ObjectAttribute getAttribute(int node, String attributeName) {
+        int index = findAttribute(node, attributeName);
+        if (index == -1) return null;
+        return newAttribute(index);
+    }
+
+    private int findAttribute(int node, String attributeName) {
+        for (int i = attributeStarts[node]; i < attributeStarts[node + 1]; i++)
+            if (attributeNames[i] == attributeName || attributeNames[i].equals(attributeName)) return i;
+        return -1;
+    }
+
+    private int attributeIndex(int node, int position) {
+        if (position < 0 || position >= getAttributeCount(node))
+            throw new IndexOutOfBoundsException("Index: " + position + ", Size: " + getAttributeCount(node));
+        return attributeStarts[node] + position;
+    }
+
+    private ObjectAttribute newAttribute(int index) {
+        return new ObjectAttribute(attributeNames[index], source, attributeValueStarts[index], attributeValueEnds[index]);
+    }
+
+    /**
+     * Gets the text of an element, like XmlObject.getText the children are replaced with {TAG} marks.
+     *
+     * @param node The element.
+     * @return The inner text of the element.
+     */
+    public String getText(int node) {
+        if (childCounts[node] == 0) return getTextPart(node, 0);
+
+        StringBuilder builder = new StringBuilder();
+        for (int child = node + 1; child != NO_NODE; child = getNextSibling(child))
+            appendText(builder, leadingTextStarts[child], leadingTextEnds[child]).append(TAG_MARK);
+        return appendText(builder, trailingTextStarts[node], trailingTextEnds[node]).toString();
+    }
+
+    /**
+     * Gets a text part of an element, the text parts are the texts between the children.
+     *
+     * @param node     The element.
+     * @param position The position of the child that follows the text, or the count of children for the text after the last child.
+     * @return The text part.
+     */
+    public String getTextPart(int node, int position) {
+        if (position > childCounts[node]) return "";
+        if (position == childCounts[node]) return text(trailingTextStarts[node], trailingTextEnds[node]);
+
+        int child = getNode(node, position);
+        return text(leadingTextStarts[child], leadingTextEnds[child]);
+    }
+
+    /**
+     * Creates a text out of its offsets, texts that were joined while parsing have the negative
+     * position of their string as both offsets.
+     */
+    private String text(int start, int end) {
+        if (start < 0) return joinedTexts[-start - 1];
+        return new String(source, start, end - start);
+    }
+
+    private StringBuilder appendText(StringBuilder builder, int start, int end) {
+        if (start < 0) return builder.append(joinedTexts[-start - 1]);
+        return builder.append(source, start, end - start);
+    }
+
+    /**
+     * Converts an element and its subtree into a mutable XmlObject, the new object has no parent.
+     *
+     * @param node The element.
+     * @return The new object.
+     */
+    public XmlObject toXmlObject(int node) {
+        XmlObject[] objects = new XmlObject[16];
+        int[] nodes = new int[16];
+        int depth = 0;
+
+        XmlObject root = newObject(node);
+        objects[depth] = root;
+        nodes[depth++] = node;
+
+        for (int child = node + 1; child < ends[node]; child++) {
+            //Finish the objects whose subtrees ended before this element.
+            while (nodes[depth - 1] != parents[child]) {
+                depth--;
+                addText(objects[depth], trailingTextStarts[nodes[depth]], trailingTextEnds[nodes[depth]]);
+            }
+
+            XmlObject parent = objects[depth - 1];
+            addText(parent, leadingTextStarts[child], leadingTextEnds[child]);
+            XmlObject object = newObject(child);
+            parent.addNode(object);
+
+            if (depth == objects.length) {
+                objects = Arrays.copyOf(objects, depth * 2);
+                nodes = Arrays.copyOf(nodes, depth * 2);
+            }
+            objects[depth] = object;
+            nodes[depth++] = child;
+        }
+
+        while (depth > 0) {
+            depth--;
+            addText(objects[depth], trailingTextStarts[nodes[depth]], trailingTextEnds[nodes[depth]]);
+        }
+
+        return root;
+    }
+
+    private XmlObject newObject(int node) {
+        XmlAttributeList attributes = new XmlAttributeList(getAttributeCount(node));
+        for (int i = attributeStarts[node]; i < attributeStarts[node + 1]; i++)
+            attributes.add(newAttribute(i));
+
+        return new XmlObject(tagNames[node], "", null, attributes);
+    }
+
+    private void addText(XmlObject object, int start, int end) {
+        if (start == end && start >= 0) return;
+        object.addText(text(start, end));
+    }
+
+    /**
+     * Collects the arrays of a document while its script is parsed.
+     */
+    private static final class Builder {
+        private final char[] source;
+
+        private int nodeCount;
+        private String[] tagNames = new String[64];
+        private int[] parents = new int[64];
+        private int[] ends = new int[64];
+        private int[] childCounts = new int[64];
+        private int[] leadingTextStarts = new int[64];
+        private int[] leadingTextEnds = new int[64];
+        private int[] trailingTextStarts = new int[64];
+        private int[] trailingTextEnds = new int[64];
+        private final ArrayList<String> joinedTexts = new ArrayList<>();
+
+        private int attributeCount;
+        private int[] attributeStarts = new int[65];
+        private String[] attributeNames = new String[64];
+        private int[] attributeValueStarts = new int[64];
+        private int[] attributeValueEnds = new int[64];
+
+        private int[] openNodes = new int[16];
+        private int depth;
+
+        //The text collected since the last tag, it belongs to the next element or to the end of the current one.
+        private int textStart;
+        private int textEnd;
+
+        Builder(char[] source) {
+            this.source = source;
+        }
+
+        void startNode(XmlPullParser parser) {
+            if (nodeCount == parents.length) grow();
+
+            int node = nodeCount++;
+            int parent = depth == 0 ? NO_NODE : openNodes[depth - 1];
+            tagNames[node] = parser.getName();
+            parents[node] = parent;
+            if (parent != NO_NODE) childCounts[parent]++;
+            leadingTextStarts[node] = textStart;
+            leadingTextEnds[node] = textEnd;
+            textStart = textEnd = 0;
+
+            int count = parser.getAttributeCount();
+            if (attributeCount + count > attributeNames.length) {
+                int capacity = Math.max(attributeNames.length * 2, attributeCount + count);
+                attributeNames = Arrays.copyOf(attributeNames, capacity);
+                attributeValueStarts = Arrays.copyOf(attributeValueStarts, capacity);
+                attributeValueEnds = Arrays.copyOf(attributeValueEnds, capacity);
+            }
+            for (int i = 0; i < count; i++) {
+                attributeNames[attributeCount] = parser.getAttributeName(i);
+                attributeValueStarts[attributeCount] = parser.getAttributeValueStart(i);
+                attributeValueEnds[attributeCount] = parser.getAttributeValueEnd(i);
+                attributeCount++;
+            }
+            attributeStarts[node + 1] = attributeCount;
+
+            if (depth == openNodes.length) openNodes = Arrays.copyOf(openNodes, depth * 2);
+            openNodes[depth++] = node;
+        }
+
+        void endNode() {
+            int node = openNodes[--depth];
+            ends[node] = nodeCount;
+            trailingTextStarts[node] = textStart;
+            trailingTextEnds[node] = textEnd;
+            textStart = textEnd = 0;
+        }
+
+        /**
+         * Adds a part of the script to the collected text, texts that are not next to each other
+         * are joined into a new string.
+         */
+        void addText(int start, int end) {
+            if (start == end) return;
+
+            if (textStart == textEnd && textStart >= 0) {
+                textStart = start;
+                textEnd = end;
+            } else if (textStart >= 0 && textEnd == start) {
+                textEnd = end;
+            } else {
+                String joined = (textStart < 0 ? joinedTexts.get(-textStart - 1) : new String(source, textStart, textEnd - textStart))
+                        + new String(source, start, end - start);
+                joinedTexts.add(joined);
+                textStart = textEnd = -joinedTexts.size();
+            }
+        }
+
+        private void grow() {
+            int capacity = parents.length * 2;
+            tagNames = Arrays.copyOf(tagNames, capacity);
+            parents = Arrays.copyOf(parents, capacity);
+            ends = Arrays.copyOf(ends, capacity);
+            childCounts = Arrays.copyOf(childCounts, capacity);
+            leadingTextStarts = Arrays.copyOf(leadingTextStarts, capacity);
+            leadingTextEnds = Arrays.copyOf(leadingTextEnds, capacity);
+            trailingTextStarts = Arrays.copyOf(trailingTextStarts, capacity);
+            trailingTextEnds = Arrays.copyOf(trailingTextEnds, capacity);
+            attributeStarts = Arrays.copyOf(attributeStarts, capacity + 1);
+        }
+    }
+}
@@ -0,0 +1,665 @@
+package core.objects;
+
+import core.parsers.XmlNameTable;
+import core.parsers.XmlPullParser;
+import core.parsers.XmlTokenizer;
+import flags.VisitResult;
+import flags.XmlEvent;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+
+/**
+ * Keeps the tree of a script up to date while the script is edited, like a script open in an editor.
+ * <p>
+ * The parser remembers where the tags of each object are in the script. An edit only parses again the nodes
+ * of the deepest object around the edit that overlap it, and its other nodes, its parents and the rest of the
+ * tree are kept. The part is trusted only when the tokenizer did not look into the edit before the part and
+ * did not look past the part, and the part ended with the same elements open it started with, so the tree is
+ * always the tree a parse of the whole edited script builds. When the part can not be trusted the content of
+ * the parent object is parsed again, and when that part can not be trusted either, or a part would be a large
+ * share of the script, the whole script is parsed again.
+ * <p>
+ * The script is kept in blocks of a few thousand characters, so an edit only changes the blocks it overlaps, and
+ * a part is copied out of the blocks to be parsed again. The positions of an object are kept relative to the end of the node before it, or to the start of the
+ * content of its parent, and the sums of the lengths of the nodes of an object are kept in a Fenwick tree. An
+ * edit then only changes the objects around it and their parents, the positions of the rest of the tree follow.
+ * <p>
+ * The attributes are parsed eagerly and the tree should only be changed through the edits of its parser.
+ */
+public class XmlIncrementalParser {
+
+    /**
+     * The share of the script a part is at most, a larger part is parsed with the whole script since a part
+     * that can not be trusted is parsed twice. Parts that are shorter than the limited length are always
+     * parsed on their own.
+     */
+    private static final int MAX_PART_SHARE = 4;
+    private static final int LIMITED_PART_LENGTH = 8192;
+
+    private final XmlNameTable nameTable = new XmlNameTable();
+    private final ScriptBlocks script;
+    private XmlObject root;
+    private IdentityHashMap<XmlObject, Span> spans = new IdentityHashMap<>();
+
+    /**
+     * A global constructor
+     *
+     * @param xmlScript The script required for parsing.
+     */
+    public XmlIncrementalParser(String xmlScript) {
+        this.script = new ScriptBlocks(xmlScript);
+        this.root = parseAll(spans);
+    }
+
+    /**
+     * @return The tree of the current script.
+     */
+    public XmlObject getRoot() {
+        return root;
+    }
+
+    /**
+     * @return The current script.
+     */
+    public String getScript() {
+        return script.toString();
+    }
+
+    /**
+     * @return The count of characters of the current script.
+     */
+    public int getLength() {
+        return script.length();
+    }
+
+    /**
+     * Edits the script and updates the tree.
+     *
+     * @param offset        The index of the first edited character.
+     * @param removedLength The count of characters removed at the offset.
+     * @param insertedText  The text inserted at the offset.
+     * @return The nodes changed by the edit.
+     * @throws IllegalStateException if the edited script has no tags, the script is left unchanged then.
+     */
+    public XmlChange edit(int offset, int removedLength, String insertedText) {
+        if (offset < 0 || removedLength < 0 || offset + removedLength > script.length())
+            throw new IndexOutOfBoundsException("Range [" + offset + ", " + (offset + removedLength) + ") out of " + script.length());
+
+        int delta = insertedText.length() - removedLength;
+        String removedText = script.substring(offset, offset + removedLength);
+
+        //The path is found with the positions from before the edit.
+        ArrayList<Level> path = findPath(offset, removedLength);
+        script.replace(offset, removedLength, insertedText);
+
+        //The parts of the objects above the parent of the deepest object grow towards the whole script.
+        for (int i = path.size() - 1; i >= Math.max(0, path.size() - 2); i--) {
+            XmlChange change = parsePart(path, i, offset, removedLength, delta);
+            if (change != null) return change;
+        }
+
+        IdentityHashMap<XmlObject, Span> newSpans = new IdentityHashMap<>();
+        XmlObject newRoot;
+        try {
+            newRoot = parseAll(newSpans);
+        } catch (IllegalStateException e) {
+            script.replace(offset, insertedText.length(), removedText);
+            throw e;
+        }
+        ArrayList<XmlObject> removed = new ArrayList<>();
+        removed.add(root);
+        ArrayList<XmlObject> added = new ArrayList<>();
+        added.add(newRoot);
+
+        root = newRoot;
+        spans = newSpans;
+        return new XmlChange(null, 0, removed, added);
+    }
+
+    /**
+     * Finds the objects from the root down to the deepest element whose content holds the edit, the open tags of
+     * the elements must not have been looked into the edit while they were found.
+     */
+    private ArrayList<Level> findPath(int offset, int removedLength) {
+        ArrayList<Level> path = new ArrayList<>();
+        Span rootSpan = spans.get(root);
+        Level level = new Level(root, rootSpan, rootSpan.lead, -1);
+        path.add(level);
+
+        while (true) {
+            int position = lastStartingAtOrBefore(level, offset);
+            if (position < 0) break;
+
+            XmlObject child = level.object.getNode(position);
+            Span span = spans.get(child);
+            int start = startOf(level, position);
+            if (!span.element || span.selfClosing || start + span.innerStart > offset
+                    || offset + removedLength > start + span.closeStart || start + span.openFrontier >= offset) break;
+
+            level = new Level(child, span, start, position);
+            path.add(level);
+        }
+        return path;
+    }
+
+    /**
+     * Parses again the nodes of an object of the path that overlap the edit, from the end of the last node before
+     * the edit to the start of the first element after it. The positions of the path are the positions from
+     * before the edit, the script is already edited.
+     *
+     * @return The change, or null if the part could not be trusted and the parent should be parsed again.
+     */
+    private XmlChange parsePart(ArrayList<Level> path, int level, int offset, int removedLength, int delta) {
+        Level parentLevel = path.get(level);
+        XmlObject parent = parentLevel.object;
+        Span parentSpan = parentLevel.span;
+        int count = parent.getNodesCount();
+
+        //The part starts after a node whose tags were found without looking into the edit.
+        int first = lastEndingAtOrBefore(parentLevel, offset);
+        Span firstSpan = null;
+        int firstStart = 0;
+        for (; first >= 0; first--) {
+            firstSpan = spans.get(parent.getNode(first));
+            firstStart = startOf(parentLevel, first);
+            if (firstStart + firstSpan.closeFrontier < offset && !firstSpan.closedAtEnd) break;
+        }
+
+        int start;
+        int frontier;
+        if (first >= 0) {
+            start = firstStart + firstSpan.closeEnd;
+            frontier = firstStart + firstSpan.closeFrontier;
+        } else {
+            if (parentLevel.start + parentSpan.openFrontier >= offset) return null;
+            start = parentLevel.start + parentSpan.innerStart;
+            frontier = parentLevel.start + parentSpan.openFrontier;
+        }
+
+        //The part ends where an element after the edit starts, comments are parsed again with the part.
+        int last = lastStartingAtOrBefore(parentLevel, offset + removedLength - 1) + 1;
+        while (last < count && !spans.get(parent.getNode(last)).element) last++;
+
+        int end;
+        if (last < count) end = startOf(parentLevel, last) + delta;
+        else if (parentSpan.closedAtEnd) end = script.length();
+        else end = parentLevel.start + parentSpan.closeStart + delta;
+
+        if (end - start > Math.max(LIMITED_PART_LENGTH, script.length() / MAX_PART_SHARE)) return null;
+
+        String[] openNames = new String[level + 1];
+        for (int i = 0; i <= level; i++) openNames[i] = path.get(i).object.getTagName();
+
+        //The part is copied with the character after it, so its parser knows it does not end with the script.
+        char[] part = new char[end - start + (end < script.length() ? 1 : 0)];
+        script.getChars(start, start + part.length, part, 0);
+        XmlPullParser parser = XmlPullParser.forContent(part, 0, end - start, openNames, nameTable);
+        XmlObject content = new XmlObject(parent.getTagName(), "", null);
+        IdentityHashMap<XmlObject, Span> newSpans = new IdentityHashMap<>();
+        int contentEnd;
+        try {
+            contentEnd = parseContent(parser, content, start, frontier, start, newSpans, script.length());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        if (contentEnd < 0 || (end < script.length() && !parser.endsAtTopLevel())) return null;
+
+        ArrayList<XmlObject> added = new ArrayList<>();
+        int[] addedLengths = new int[content.getNodesCount()];
+        for (int i = 0; i < addedLengths.length; i++) {
+            added.add(content.getNode(i));
+            addedLengths[i] = newSpans.get(content.getNode(i)).length();
+        }
+        int[] removedLengths = new int[last - first - 1];
+        for (int i = 0; i < removedLengths.length; i++) removedLengths[i] = spans.get(parent.getNode(first + 1 + i)).length();
+
+        ArrayList<XmlObject> removed = parent.replaceContent(first + 1, last, content);
+        for (XmlObject node : removed) {
+            node.walk((object, depth) -> {
+                spans.remove(object);
+                return VisitResult.CONTINUE;
+            });
+        }
+        spans.putAll(newSpans);
+
+        //The element after the part keeps its tags, only the text before it changed.
+        int lastPosition = first + 1 + added.size();
+        int lastLengthDelta = 0;
+        if (last < count) {
+            Span lastSpan = spans.get(parent.getNode(lastPosition));
+            lastLengthDelta = end - contentEnd - lastSpan.lead;
+            lastSpan.lead = end - contentEnd;
+        }
+
+        if (parentSpan.sums != null) {
+            if (removedLengths.length == addedLengths.length) {
+                for (int i = 0; i < addedLengths.length; i++)
+                    add(parentSpan.sums, first + 1 + i, addedLengths[i] - removedLengths[i]);
+            } else parentSpan.sums = replace(parentSpan.sums, first + 1, removedLengths.length, addedLengths);
+            if (last < count) add(parentSpan.sums, lastPosition, lastLengthDelta);
+        }
+
+        //The parents around the edit grow with it, the sums of their own parents follow.
+        for (int i = level; i >= 0; i--) {
+            Level around = path.get(i);
+            int lengthDelta = around.span.shift(offset - around.start, offset + removedLength - around.start, delta);
+            if (i > 0 && path.get(i - 1).span.sums != null) add(path.get(i - 1).span.sums, around.position, lengthDelta);
+        }
+
+        return new XmlChange(parent, first + 1, removed, added);
+    }
+
+    /**
+     * Parses the whole script, keeping the spans of its objects.
+     */
+    private XmlObject parseAll(IdentityHashMap<XmlObject, Span> spans) {
+        int length = script.length();
+        XmlPullParser parser = new XmlPullParser(script.substring(0, length).toCharArray());
+        parser.setNameTable(nameTable);
+
+        try {
+            if (parser.next() == XmlEvent.END_DOCUMENT)
+                throw new IllegalStateException("No match found");
+
+            //The root is only ended by the end of the script.
+            XmlObject rootXmlObject = XmlObject.createNewObject(parser, null, false);
+            Span span = new Span(true);
+            int openStart = parser.getTagStart();
+            span.lead = openStart;
+            span.innerStart = parser.getTagEnd() - openStart;
+            span.openFrontier = parser.getTokenizer().getFurthestIndex() - openStart;
+            span.closedAtEnd = true;
+            span.closeStart = length - openStart;
+            span.closeEnd = length - openStart;
+            span.closeFrontier = length - 1 - openStart;
+            spans.put(rootXmlObject, span);
+
+            parseContent(parser, rootXmlObject, openStart + span.innerStart, -1, 0, spans, length);
+            return rootXmlObject;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Adds the events of a parser to an object like XmlObject.parseContent, keeping the spans of the new objects.
+     *
+     * @param start    The index where the events start.
+     * @param frontier The highest index looked at before the first event.
+     * @param base     The index in the script of the first character of the buffer of the parser.
+     * @return The index where the last node ends, or -1 if a close tag ended the object the events started in.
+     */
+    private static int parseContent(XmlPullParser parser, XmlObject content, int start, int frontier, int base
+            , IdentityHashMap<XmlObject, Span> spans, int length) throws IOException {
+        XmlTokenizer tokenizer = parser.getTokenizer();
+        XmlObject currentXmlObject = content;
+        XmlEvent event;
+
+        //The end of the last node of each open object, the positions of the next node are relative to it.
+        int[] ends = new int[16];
+        int depth = 0;
+        ends[0] = start;
+
+        while ((event = parser.next()) != XmlEvent.END_DOCUMENT) {
+            Span span;
+            int openStart;
+            switch (event) {
+                case TEXT:
+                    currentXmlObject.addText(parser.getText());
+                    break;
+
+                case START_TAG:
+                    XmlObject node = XmlObject.createNewObject(parser, currentXmlObject, false);
+                    currentXmlObject.addNode(node);
+                    currentXmlObject = node;
+
+                    span = new Span(true);
+                    openStart = parser.getTagStart() + base;
+                    span.lead = openStart - ends[depth];
+                    span.innerStart = parser.getTagEnd() + base - openStart;
+                    span.openFrontier = Math.max(frontier, tokenizer.getFurthestIndex() + base) - openStart;
+                    span.selfClosing = parser.isEmptyElementTag();
+                    spans.put(node, span);
+
+                    if (++depth == ends.length) ends = Arrays.copyOf(ends, depth * 2);
+                    ends[depth] = openStart + span.innerStart;
+                    break;
+
+                case END_TAG:
+                    //The elements are ended without a tag at the end of the script.
+                    if (currentXmlObject == content) {
+                        if (tokenizer.getTokenType() != null) return -1;
+                        break;
+                    }
+
+                    span = spans.get(currentXmlObject);
+                    openStart = ends[depth - 1] + span.lead;
+                    if (span.selfClosing) {
+                        span.closeStart = span.innerStart;
+                        span.closeEnd = span.innerStart;
+                    } else if (tokenizer.getTokenType() == null) {
+                        span.closedAtEnd = true;
+                        span.closeStart = length - openStart;
+                        span.closeEnd = length - openStart;
+                    } else {
+                        span.closeStart = parser.getTagStart() + base - openStart;
+                        span.closeEnd = parser.getTagEnd() + base - openStart;
+                    }
+                    span.closeFrontier = Math.max(frontier, tokenizer.getFurthestIndex() + base) - openStart;
+                    currentXmlObject = currentXmlObject.getParentObject();
+                    ends[--depth] = openStart + span.closeEnd;
+                    break;
+
+                case COMMENT:
+                    XmlObject comment = XmlObject.createNewObject(parser, currentXmlObject, false);
+                    comment.addText(parser.getText());
+                    currentXmlObject.addNode(comment);
+
+                    //Comments are only ordered by their bodies, a part never starts at their open tags.
+                    span = new Span(false);
+                    if (tokenizer.getTokenType() == null) {
+                        span.closedAtEnd = true;
+                        openStart = length;
+                    } else {
+                        openStart = parser.getTextStart() + base;
+                        span.closeStart = parser.getTagStart() + base - openStart;
+                        span.closeEnd = parser.getTagEnd() + base - openStart;
+                    }
+                    span.lead = openStart - ends[depth];
+                    span.openFrontier = Math.max(frontier, tokenizer.getFurthestIndex() + base) - openStart;
+                    span.closeFrontier = span.openFrontier;
+                    spans.put(comment, span);
+
+                    ends[depth] = openStart + span.closeEnd;
+                    break;
+            }
+        }
+        return ends[0];
+    }
+
+    private int lastStartingAtOrBefore(Level level, int offset) {
+        int base = level.start + level.span.innerStart;
+        if (offset < base) return -1;
+
+        int count = level.object.getNodesCount();
+        int[] sums = sumsOf(level);
+        int position = countWithin(sums, offset - base);
+        if (position == count) return count - 1;
+
+        //The node after the nodes that end before the offset may start before it.
+        int nodeStart = base + prefix(sums, position) + spans.get(level.object.getNode(position)).lead;
+        return nodeStart <= offset ? position : position - 1;
+    }
+
+    private int lastEndingAtOrBefore(Level level, int offset) {
+        int base = level.start + level.span.innerStart;
+        if (offset < base) return -1;
+        return countWithin(sumsOf(level), offset - base) - 1;
+    }
+
+    /**
+     * Gets the index where a node of an object of the path starts.
+     */
+    private int startOf(Level level, int position) {
+        return level.start + level.span.innerStart + prefix(sumsOf(level), position)
+                + spans.get(level.object.getNode(position)).lead;
+    }
+
+    /**
+     * Gets the Fenwick tree of the lengths of the nodes of an object, it is built the first time it is needed
+     * after the object was parsed.
+     */
+    private int[] sumsOf(Level level) {
+        Span span = level.span;
+        if (span.sums == null) {
+            int count = level.object.getNodesCount();
+            int[] sums = new int[count + 1];
+            for (int i = 1; i <= count; i++) {
+                sums[i] += spans.get(level.object.getNode(i - 1)).length();
+                int next = i + (i & -i);
+                if (next <= count) sums[next] += sums[i];
+            }
+            span.sums = sums;
+        }
+        return span.sums;
+    }
+
+    /**
+     * Replaces nodes of a Fenwick tree with a different count of nodes. The tree is turned back into the lengths
+     * of its nodes, which are moved and built into a new tree, so the lengths of the kept nodes are not looked up.
+     *
+     * @param sums    The tree, it is not used anymore.
+     * @param from    The position of the first replaced node.
+     * @param count   The count of replaced nodes.
+     * @param lengths The lengths of the new nodes.
+     * @return The new tree.
+     */
+    private static int[] replace(int[] sums, int from, int count, int[] lengths) {
+        for (int i = sums.length - 1; i > 0; i--) {
+            int next = i + (i & -i);
+            if (next < sums.length) sums[next] -= sums[i];
+        }
+
+        int[] replaced = new int[sums.length - count + lengths.length];
+        System.arraycopy(sums, 1, replaced, 1, from);
+        System.arraycopy(lengths, 0, replaced, from + 1, lengths.length);
+        System.arraycopy(sums, from + count + 1, replaced, from + lengths.length + 1, sums.length - from - count - 1);
+
+        for (int i = 1; i < replaced.length; i++) {
+            int next = i + (i & -i);
+            if (next < replaced.length) replaced[next] += replaced[i];
+        }
+        return replaced;
+    }
+
+    /**
+     * Adds to the length of a node in a Fenwick tree.
+     */
+    private static void add(int[] sums, int position, int delta) {
+        if (delta == 0) return;
+        for (int i = position + 1; i < sums.length; i += i & -i) sums[i] += delta;
+    }
+
+    /**
+     * Gets the sum of the lengths of the nodes before a position in a Fenwick tree.
+     */
+    private static int prefix(int[] sums, int position) {
+        int sum = 0;
+        for (int i = position; i > 0; i -= i & -i) sum += sums[i];
+        return sum;
+    }
+
+    /**
+     * Gets the highest count of first nodes whose lengths sum to at most a length in a Fenwick tree.
+     */
+    private static int countWithin(int[] sums, int length) {
+        int count = 0;
+        for (int step = Integer.highestOneBit(sums.length); step > 0; step >>= 1) {
+            if (count + step < sums.length && sums[count + step] <= length) {
+                count += step;
+                length -= sums[count];
+            }
+        }
+        return count;
+    }
+
+    /**
+     * An object of the path to an edit, with the index where it starts and its position in its parent.
+     */
+    private static final class Level {
+        final XmlObject object;
+        final Span span;
+        final int start;
+        final int position;
+
+        Level(XmlObject object, Span span, int start, int position) {
+            this.object = object;
+            this.span = span;
+            this.start = start;
+            this.position = position;
+        }
+    }
+
+    /**
+     * The positions of the tags of an object in the script, and the highest index the tokenizer looked at when
+     * each tag was found. The positions are relative to the start of the object, which is relative to the end of
+     * the node before it or to the start of the content of its parent.
+     */
+    private static final class Span {
+        final boolean element;
+        int lead;
+
+        int innerStart;
+        int openFrontier;
+        boolean selfClosing;
+
+        int closeStart;
+        int closeEnd;
+        int closeFrontier;
+        boolean closedAtEnd;
+
+        //The Fenwick tree of the lengths of the nodes, null until it is needed.
+        int[] sums;
+
+        Span(boolean element) {
+            this.element = element;
+        }
+
+        /**
+         * @return The count of characters from the end of the node before the object to its end.
+         */
+        int length() {
+            return lead + closeEnd;
+        }
+
+        /**
+         * Shifts the positions after an edit that starts after the start of the object. A text inserted at the
+         * start of the content of an element or before its close tag is a part of its content, and a text
+         * inserted right after an object is not.
+         *
+         * @return The change of the length of the object.
+         */
+        int shift(int offset, int editEnd, int delta) {
+            int oldEnd = closeEnd;
+            if (innerStart > offset) innerStart += delta;
+            if (openFrontier > offset) openFrontier += delta;
+            if (closeStart > offset || (closeStart == editEnd && !selfClosing)) closeStart += delta;
+            if (closeEnd > offset) closeEnd += delta;
+            if (closeFrontier > offset) closeFrontier += delta;
+            return closeEnd - oldEnd;
+        }
+    }
+
+    /**
+     * The characters of the script in blocks of a few thousand characters, with a Fenwick tree of the lengths of
+     * the blocks. An edit only changes the blocks it overlaps.
+     */
+    private static final class ScriptBlocks {
+        private static final int BLOCK_SIZE = 4096;
+
+        private final ArrayList<StringBuilder> blocks = new ArrayList<>();
+        private int[] sums;
+        private int length;
+
+        ScriptBlocks(String text) {
+            for (int i = 0; i < text.length(); i += BLOCK_SIZE)
+                blocks.add(newBlock().append(text, i, Math.min(i + BLOCK_SIZE, text.length())));
+            if (blocks.isEmpty()) blocks.add(newBlock());
+            length = text.length();
+            sumBlocks();
+        }
+
+        int length() {
+            return length;
+        }
+
+        void replace(int offset, int removedLength, String text) {
+            int first = blockOf(offset);
+            int at = offset - prefix(sums, first);
+
+            //The removed characters may span many blocks, the blocks left empty are removed after the insert.
+            int last = first;
+            for (int remaining = removedLength; remaining > 0; at = 0) {
+                StringBuilder block = blocks.get(last);
+                int count = Math.min(remaining, block.length() - at);
+                block.delete(at, at + count);
+                add(sums, last, -count);
+                remaining -= count;
+                if (remaining > 0) last++;
+            }
+
+            at = offset - prefix(sums, first);
+            StringBuilder block = blocks.get(first);
+            block.insert(at, text);
+            add(sums, first, text.length());
+            length += text.length() - removedLength;
+
+            boolean resized = false;
+            for (int i = last; i >= first; i--) {
+                if (blocks.get(i).length() == 0 && blocks.size() > 1) {
+                    blocks.remove(i);
+                    resized = true;
+                }
+            }
+            if (block.length() > 2 * BLOCK_SIZE) {
+                int position = blocks.indexOf(block);
+                blocks.remove(position);
+                for (int i = 0; i < block.length(); i += BLOCK_SIZE)
+                    blocks.add(position++, newBlock().append(block, i, Math.min(i + BLOCK_SIZE, block.length())));
+                resized = true;
+            }
+            if (resized) sumBlocks();
+        }
+
+        /**
+         * Copies the characters of a part of the script.
+         */
+        void getChars(int from, int to, char[] target, int targetOffset) {
+            int index = blockOf(from);
+            int at = from - prefix(sums, index);
+            while (from < to) {
+                StringBuilder block = blocks.get(index++);
+                int count = Math.min(to - from, block.length() - at);
+                block.getChars(at, at + count, target, targetOffset);
+                from += count;
+                targetOffset += count;
+                at = 0;
+            }
+        }
+
+        String substring(int from, int to) {
+            char[] chars = new char[to - from];
+            getChars(from, to, chars, 0);
+            return new String(chars);
+        }
+
+        @Override
+        public String toString() {
+            return substring(0, length);
+        }
+
+        /**
+         * Gets the block of an index, the last block for the end of the script.
+         */
+        private int blockOf(int offset) {
+            return Math.min(countWithin(sums, offset), blocks.size() - 1);
+        }
+
+        private void sumBlocks() {
+            sums = new int[blocks.size() + 1];
+            for (int i = 1; i < sums.length; i++) {
+                sums[i] += blocks.get(i - 1).length();
+                int next = i + (i & -i);
+                if (next < sums.length) sums[next] += sums[i];
+            }
+        }
+
+        private static StringBuilder newBlock() {
+            return new StringBuilder(2 * BLOCK_SIZE);
+        }
+    }
+}
@@ -0,0 +1,179 @@
+package core.objects;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+
+/**
+ * An index of the elements of a XmlObject tree by tag name and by attribute value.
+ * <p>
+ * The index is created by {@link XmlObject#enableIndex()} on the root of the tree and it is kept up to date
+ * by the changes made to the tree : adding and removing nodes, and adding, changing and removing attributes.
+ * The tag names are indexed at once, each attribute name is indexed the first time it is looked up.
+ * <p>
+ * An object belongs to one index at most, adding an object to an indexed tree moves it out of its previous index.
+ * The elements of a lookup are in the order they were indexed, which is the order of the script for the elements
+ * that were in the tree when it was indexed.
+ */
+public class XmlIndex {
+
+    private final XmlObject root;
+    private final HashMap<String, LinkedHashSet<XmlObject>> tagNames = new HashMap<>();
+    private final HashMap<String, AttributeIndex> attributes = new HashMap<>();
+
+    XmlIndex(XmlObject root) {
+        this.root = root;
+        addSubtree(root);
+    }
+
+    /**
+     * @return The root of the indexed tree.
+     */
+    public XmlObject getRoot() {
+        return root;
+    }
+
+    /**
+     * Gets an element by its id attribute.
+     *
+     * @param id The id.
+     * @return The first indexed element with that id or null if there is none.
+     */
+    public XmlObject getElementById(String id) {
+        LinkedHashSet<XmlObject> elements = attributeIndex("id").get(id);
+        return elements == null ? null : elements.iterator().next();
+    }
+
+    /**
+     * @param tagName The tag name.
+     * @return The elements with that tag name.
+     */
+    public ArrayList<XmlObject> getElementsByTagName(String tagName) {
+        LinkedHashSet<XmlObject> elements = tagNames.get(tagName);
+        return elements == null ? new ArrayList<>() : new ArrayList<>(elements);
+    }
+
+    /**
+     * Gets the elements whose attribute has a value, if the attribute name is repeated in an element
+     * its first attribute is used.
+     *
+     * @param attributeName The name of the attribute.
+     * @param value         The value of the attribute.
+     * @return The elements with that attribute value.
+     */
+    public ArrayList<XmlObject> getElementsByAttribute(String attributeName, String value) {
+        LinkedHashSet<XmlObject> elements = attributeIndex(attributeName).get(value);
+        return elements == null ? new ArrayList<>() : new ArrayList<>(elements);
+    }
+
+    /**
+     * Indexes an object and all its descendants.
+     */
+    void addSubtree(XmlObject node) {
+        XmlObjectCursor cursor = new XmlObjectCursor(node);
+
+        do {
+            XmlObject object = cursor.getCurrent();
+            if (object.index != null) object.index.remove(object);
+            object.index = this;
+
+            tagNames.computeIfAbsent(object.getTagName(), name -> new LinkedHashSet<>()).add(object);
+            for (AttributeIndex attributeIndex : attributes.values())
+                attributeIndex.put(object);
+        } while (cursor.toNext());
+    }
+
+    /**
+     * Removes an object and all its descendants from the index.
+     */
+    void removeSubtree(XmlObject node) {
+        XmlObjectCursor cursor = new XmlObjectCursor(node);
+
+        do {
+            XmlObject object = cursor.getCurrent();
+            if (object.index == this) remove(object);
+        } while (cursor.toNext());
+    }
+
+    private void remove(XmlObject object) {
+        LinkedHashSet<XmlObject> elements = tagNames.get(object.getTagName());
+        if (elements != null && elements.remove(object) && elements.isEmpty())
+            tagNames.remove(object.getTagName());
+
+        for (AttributeIndex attributeIndex : attributes.values())
+            attributeIndex.remove(object);
+
+        object.index = null;
+    }
+
+    /**
+     * Indexes the attributes of an object again after they changed.
+     *
+     * @param object        The object.
+     * @param attributeName The name of the changed attribute, or null if any attribute may have changed.
+     */
+    void attributeChanged(XmlObject object, String attributeName) {
+        if (attributeName == null) {
+            for (AttributeIndex attributeIndex : attributes.values()) {
+                attributeIndex.remove(object);
+                attributeIndex.put(object);
+            }
+            return;
+        }
+
+        AttributeIndex attributeIndex = attributes.get(attributeName);
+        if (attributeIndex != null) {
+            attributeIndex.remove(object);
+            attributeIndex.put(object);
+        }
+    }
+
+    private AttributeIndex attributeIndex(String attributeName) {
+        AttributeIndex attributeIndex = attributes.get(attributeName);
+
+        if (attributeIndex == null) {
+            attributeIndex = new AttributeIndex(attributeName);
+            XmlObjectCursor cursor = new XmlObjectCursor(root);
+            do {
+                attributeIndex.put(cursor.getCurrent());
+            } while (cursor.toNext());
+            attributes.put(attributeName, attributeIndex);
+        }
+
+        return attributeIndex;
+    }
+
+    /**
+     * The index of the values of one attribute name.
+     */
+    private static final class AttributeIndex {
+        private final String attributeName;
+        private final HashMap<String, LinkedHashSet<XmlObject>> elements = new HashMap<>();
+        private final HashMap<XmlObject, String> values = new HashMap<>();
+
+        AttributeIndex(String attributeName) {
+            this.attributeName = attributeName;
+        }
+
+        LinkedHashSet<XmlObject> get(String value) {
+            return elements.get(value);
+        }
+
+        void put(XmlObject object) {
+            String value = object.getAttributeValue(attributeName);
+            if (value == null) return;
+
+            values.put(object, value);
+            elements.computeIfAbsent(value, key -> new LinkedHashSet<>()).add(object);
+        }
+
+        void remove(XmlObject object) {
+            String value = values.remove(object);
+            if (value == null) return;
+
+            LinkedHashSet<XmlObject> valueElements = elements.get(value);
+            if (valueElements.remove(object) && valueElements.isEmpty())
+                elements.remove(value);
+        }
+    }
+}
@@ -1,19 +1,40 @@
 package core.objects;
 
 import abstraction.BaseTreeObject;
+import core.net.FetchedPage;
+import core.net.PageFetcher;
+import core.parsers.MappedFileReader;
+import core.parsers.XmlNameTable;
+import core.parsers.XmlParseOptions;
+import core.parsers.XmlPullParser;
+import core.parsers.XmlTokenizer;
+import core.selectors.XmlSelector;
 import exceptions.AttributeExistsException;
+import exceptions.SnapshotVersionException;
 import flags.TagFlag;
+import flags.VisitResult;
+import flags.XmlEvent;
 import interfaces.ParserInterface;
 import interfaces.XmlObjectInterface;
-import sun.net.www.protocol.file.FileURLConnection;
+import interfaces.XmlVisitor;
 
-import java.io.BufferedReader;
+import java.io.BufferedWriter;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.net.HttpURLConnection;
-import java.net.URL;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.concurrent.*;
+import java.util.function.Consumer;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -31,13 +52,49 @@ public class XmlObject extends BaseTreeObject implements XmlObjectInterface, Par
     /**
      * Section 1: Variables
      */
-    private String text;
+    private ArrayList<String> textList;
     private String tagName;
     private TagFlag tagType;
     private XmlObject parentObject;
-    private ArrayList<ObjectAttribute> attributeList;
+    private XmlAttributeList attributeList;
     private ArrayList<XmlObject> nodesList;
 
+    /**
+     * The open tag the object was parsed from when its attributes are parsed lazily,
+     * it is dropped once the attributes are handed out or changed.
+     */
+    private RawTag rawTag;
+
+    /**
+     * The snapshot the object was read from while its attributes or its texts were not read out of it yet,
+     * it is dropped once both are read.
+     */
+    private XmlSnapshot.Source snapshot;
+    private int snapshotPosition;
+
+    /**
+     * The index of the tree this object belongs to, or null if the tree is not indexed.
+     */
+    XmlIndex index;
+
+    /**
+     * The hash of the content of the subtree of this object, it is valid while hashValid is set. Changing an
+     * object clears hashValid for it and its parents, so a valid hash means the hashes of its subtree are valid.
+     */
+    private long subtreeHash;
+    private boolean hashValid;
+
+    /**
+     * The count of the functions of a ConcurrentXmlTree the thread runs with the lock of one object only. The
+     * other objects may change meanwhile, so the hashes computed then are not kept.
+     */
+    private static final ThreadLocal<int[]> SINGLE_LOCK_DEPTH = ThreadLocal.withInitial(() -> new int[1]);
+
+    /**
+     * A frozen object and its subtree never change, see {@link #freeze()}.
+     */
+    private boolean frozen;
+
     /**
      * Section 2: Constructors
      */
@@ -51,8 +108,9 @@ public class XmlObject extends BaseTreeObject implements XmlObjectInterface, Par
     public XmlObject(String tagName, XmlObject parentObject) {
         this.tagName = tagName;
         this.parentObject = parentObject;
-        this.text = "";
-        this.attributeList = new ArrayList<>();
+        this.textList = newTextList("");
+        this.attributeList = new XmlAttributeList();
+        this.attributeList.setOwner(this);
         this.nodesList = new ArrayList<>();
         tagType = TagFlag.Open_Close;
     }
@@ -66,9 +124,10 @@ public class XmlObject extends BaseTreeObject implements XmlObjectInterface, Par
      */
     public XmlObject(String tagName, String text, XmlObject parentObject) {
         this.tagName = tagName;
-        this.text = text;
+        this.textList = newTextList(text);
         this.parentObject = parentObject;
-        this.attributeList = new ArrayList<>();
+        this.attributeList = new XmlAttributeList();
+        this.attributeList.setOwner(this);
         this.nodesList = new ArrayList<>();
         tagType = TagFlag.Open_Close;
     }
@@ -83,13 +142,44 @@ public class XmlObject extends BaseTreeObject implements XmlObjectInterface, Par
      */
     public XmlObject(String tagName, String text, XmlObject parentObject, ArrayList<ObjectAttribute> attributeList) {
         this.tagName = tagName;
-        this.text = text;
+        this.textList = newTextList(text);
         this.parentObject = parentObject;
-        this.attributeList = attributeList;
+        this.attributeList = attributeList instanceof XmlAttributeList
+                ? (XmlAttributeList) attributeList
+                : new XmlAttributeList(attributeList);
+        this.attributeList.setOwner(this);
         this.nodesList = new ArrayList<>();
         tagType = TagFlag.Open_Close;
     }
 
+    /**
+     * A constructor for the objects that are copied, the lists are used as they are.
+     */
+    XmlObject(String tagName, TagFlag tagType, XmlObject parentObject, ArrayList<String> textList,
+              XmlAttributeList attributeList, ArrayList<XmlObject> nodesList) {
+        this.tagName = tagName;
+        this.tagType = tagType;
+        this.parentObject = parentObject;
+        this.textList = textList;
+        this.attributeList = attributeList;
+        this.attributeList.setOwner(this);
+        this.nodesList = nodesList;
+    }
+
+    /**
+     * A constructor for the objects read from a snapshot, their attributes and texts stay in the snapshot
+     * until they are first used.
+     */
+    XmlObject(String tagName, TagFlag tagType, XmlObject parentObject, ArrayList<XmlObject> nodesList,
+              XmlSnapshot.Source snapshot, int snapshotPosition) {
+        this.tagName = tagName;
+        this.tagType = tagType;
+        this.parentObject = parentObject;
+        this.nodesList = nodesList;
+        this.snapshot = snapshot;
+        this.snapshotPosition = snapshotPosition;
+    }
+
     /**
      * Section 3: Methods
      */
@@ -117,7 +207,7 @@ public class XmlObject extends BaseTreeObject implements XmlObjectInterface, Par
     /**
      * Gets the parent of the current object.
      *
-     * @return A XML object referencing the parent object.
+     * @return A XML object referencing the parent object, null for the objects of a frozen tree.
      */
     public XmlObject getParentObject() {
         return parentObject;
@@ -144,7 +234,38 @@ public class XmlObject extends BaseTreeObject implements XmlObjectInterface, Par
      * @return the xml inner text with {TAG} replacing the node objects of the current object
      */
     public String getText() {
-        return text;
+        ArrayList<String> texts = texts();
+        if (texts.size() == 1) return texts.get(0);
+
+        StringBuilder builder = new StringBuilder(texts.get(0));
+        for (int i = 1; i < texts.size(); i++)
+            builder.append("{TAG}\n").append(texts.get(i));
+
+        return builder.toString();
+    }
+
+    /**
+     * Gets a text part of the object, the text parts are the texts between the child nodes.
+     *
+     * @param position The position of the node that follows the text, or the nodes count for the text after the last node.
+     * @return The text part.
+     */
+    public String getTextPart(int position) {
+        ArrayList<String> texts = texts();
+        if (position >= texts.size()) return "";
+        return texts.get(position);
+    }
+
+    /**
+     * Replaces a text part of the object.
+     *
+     * @param position The position of the node that follows the text, or the nodes count for the text after the last node.
+     * @param text     The new text.
+     */
+    public void setTextPart(int position, String text) {
+        checkNotFrozen();
+        contentChanged();
+        texts().set(position, text);
     }
 
     /**
@@ -153,9 +274,44 @@ public class XmlObject extends BaseTreeObject implements XmlObjectInterface, Par
      * @return An ArrayList of ObjectAttribute that contains the attributes of the object.
      */
     public ArrayList<ObjectAttribute> getAttributeList() {
+        return editableAttributes();
+    }
+
+    /**
+     * Gets the list of attributes, parsing them first if they were not parsed yet.
+     */
+    XmlAttributeList attributes() {
+        if (attributeList == null) {
+            if (rawTag != null) attributeList = rawTag.parseAttributes();
+            else if (snapshot != null) attributeList = snapshot.readAttributes(snapshotPosition);
+            else attributeList = new XmlAttributeList();
+            attributeList.setOwner(this);
+            if (textList != null) snapshot = null;
+        }
         return attributeList;
     }
 
+    /**
+     * Gets the list of texts, reading them out of the snapshot first if they were not read yet.
+     */
+    private ArrayList<String> texts() {
+        if (textList == null) {
+            textList = snapshot.readTexts(snapshotPosition);
+            if (attributeList != null) snapshot = null;
+        }
+        return textList;
+    }
+
+    /**
+     * Gets the list of attributes for a use that may change them, so the raw open tag can not be
+     * written anymore.
+     */
+    private XmlAttributeList editableAttributes() {
+        XmlAttributeList attributes = attributes();
+        if (rawTag != null) rawTag = null;
+        return attributes;
+    }
+
     /**
      * Gets the list of child objects.
      *
@@ -202,66 +358,151 @@ public class XmlObject extends BaseTreeObject implements XmlObjectInterface, Par
      * @param node The new XmlObject to be added to this object.
      */
     public void addNode(XmlObject node) {
-        addNode(node, true);
+        checkNotFrozen();
+        adopt(node);
+        nodesList.add(node);
+        tagType = TagFlag.Open;
+        texts().add("");
+        nodeAdded(node);
     }
 
     /**
-     * Private method for adding an object as the current node's child.
+     * Inserts a new node at a known position, the text before that position stays before the new node.
      *
-     * @param node The new XmlObject to be added to this object.
-     * @param addTag A boolean indicating if a {TAG} mark should be added or not.
+     * @param position The position of the new node.
+     * @param node     The new XmlObject to be added to this object.
      */
-    private void addNode(XmlObject node, boolean addTag) {
-        node.parentObject = this;
-        nodesList.add(node);
+    public void insertNode(int position, XmlObject node) {
+        checkNotFrozen();
+        adopt(node);
+        nodesList.add(position, node);
+        ArrayList<String> texts = texts();
+        texts.add(Math.min(position + 1, texts.size()), "");
         tagType = TagFlag.Open;
-        if (addTag)
-            this.text = this.text + "{TAG}\n";
+        nodeAdded(node);
+    }
+
+    /**
+     * Makes this object the parent of a node, the nodes of frozen trees have no parent since they can be shared.
+     */
+    private void adopt(XmlObject node) {
+        if (!node.frozen) node.parentObject = this;
+    }
+
+    private void release(XmlObject node) {
+        if (!node.frozen) node.parentObject = null;
+    }
+
+    private void checkNotFrozen() {
+        if (frozen) throw new IllegalStateException("The object is frozen");
+    }
+
+    /**
+     * Moves a new node into the index of this tree, or out of the index of its previous tree.
+     */
+    private void nodeAdded(XmlObject node) {
+        contentChanged();
+        if (index != null) index.addSubtree(node);
+        else if (node.index != null && node.index.getRoot() != node) node.index.removeSubtree(node);
     }
 
     /**
-     * Removes a node from the current object and deletes the {TAG} from the text.
+     * Removes a node from the current object and joins the texts that were around it.
      *
      * @param position The position of the desired XmlObject.
      */
     @Override
     public void removeNode(int position) {
-        nodesList.remove(position);
-
-        String[] textParts = text.split("\\{TAG\\}");
-        StringBuilder textTmp = new StringBuilder(textParts[0]);
-        //The deleted node place should be less than the text parts.
-
-        if (position <= textParts.length) {
-            for (int i = 1; i < textParts.length; i++) {
-                if (i - 1 != position) textTmp.append("{TAG}\n");
-                textTmp.append(textParts[i]);
-            }
+        checkNotFrozen();
+        XmlObject node = nodesList.remove(position);
+        release(node);
+        contentChanged();
+        if (index != null) index.removeSubtree(node);
+
+        ArrayList<String> texts = texts();
+        if (position + 1 < texts.size()) {
+            String after = texts.remove(position + 1);
+            if (!after.isEmpty()) texts.set(position, texts.get(position) + after);
         }
 
-        text = textTmp.toString();
-
         if (nodesList.size() == 0) tagType = TagFlag.Open_Close;
         else tagType = TagFlag.Open;
     }
 
     /**
-     * Clears all the nodes in the current object.
+     * Clears all the nodes in the current object, the texts between them are joined.
      */
     @Override
     public void clearNodes() {
-        for (XmlObject object : nodesList) object.parentObject = null;
+        checkNotFrozen();
+        contentChanged();
+        for (XmlObject object : nodesList) {
+            release(object);
+            if (index != null) index.removeSubtree(object);
+        }
         nodesList.clear();
+
+        StringBuilder builder = new StringBuilder();
+        for (String textPart : texts()) builder.append(textPart);
+        textList = newTextList(builder.toString());
+
         tagType = TagFlag.Open_Close;
     }
 
+    /**
+     * Replaces the nodes from a position up to another position and the texts around them with the nodes and
+     * texts of another object, for a part of the content that was parsed again.
+     *
+     * @param from    The position of the first replaced node.
+     * @param to      The position after the last replaced node.
+     * @param content The object holding the new nodes and texts, it is left empty.
+     * @return The replaced nodes.
+     */
+    ArrayList<XmlObject> replaceContent(int from, int to, XmlObject content) {
+        checkNotFrozen();
+        ArrayList<XmlObject> replaced = new ArrayList<>(nodesList.subList(from, to));
+        contentChanged();
+        for (XmlObject node : replaced) {
+            release(node);
+            if (index != null) index.removeSubtree(node);
+        }
+
+        //The texts before the first and after the last replaced node are replaced too.
+        nodesList.subList(from, to).clear();
+        nodesList.addAll(from, content.nodesList);
+        ArrayList<String> texts = texts();
+        texts.subList(from, to + 1).clear();
+        texts.addAll(from, content.texts());
+
+        for (XmlObject node : content.nodesList) {
+            adopt(node);
+            nodeAdded(node);
+        }
+        content.nodesList = new ArrayList<>();
+        content.textList = newTextList("");
+
+        tagType = nodesList.isEmpty() ? TagFlag.Open_Close : TagFlag.Open;
+        return replaced;
+    }
+
     /**
      * Adds a new text part for the current object.
      *
      * @param text The text part required for adding.
      */
     public void addText(String text) {
-        this.text = this.text + text;
+        checkNotFrozen();
+        contentChanged();
+        ArrayList<String> texts = texts();
+        int last = texts.size() - 1;
+        String lastText = texts.get(last);
+        texts.set(last, lastText.isEmpty() ? text : lastText + text);
+    }
+
+    private static ArrayList<String> newTextList(String text) {
+        ArrayList<String> textList = new ArrayList<>(1);
+        textList.add(text == null ? "" : text);
+        return textList;
     }
 
     /**
@@ -270,11 +511,25 @@ public class XmlObject extends BaseTreeObject implements XmlObjectInterface, Par
      * @param attribute The new attribute to be added.
      */
     public void addAttribute(ObjectAttribute attribute) {
-        for (ObjectAttribute objectAttribute : attributeList)
-            if (objectAttribute.getName().equals(attribute.getName())) {
-                throw new AttributeExistsException();
-            }
-        this.attributeList.add(attribute);
+        checkNotFrozen();
+        XmlAttributeList attributes = editableAttributes();
+        if (attributes.containsName(attribute.getName()))
+            throw new AttributeExistsException();
+        attributes.add(attribute);
+    }
+
+    /**
+     * Sets the value of an attribute, the attribute is added if it does not exist.
+     *
+     * @param attributeName The name of the attribute.
+     * @param value         The new value of that attribute.
+     */
+    public void setAttribute(String attributeName, String value) {
+        checkNotFrozen();
+        XmlAttributeList attributes = editableAttributes();
+        ObjectAttribute attribute = attributes.get(attributeName);
+        if (attribute != null) attribute.setValue(value);
+        else attributes.add(new ObjectAttribute(attributeName, value));
     }
 
     /**
@@ -283,7 +538,22 @@ public class XmlObject extends BaseTreeObject implements XmlObjectInterface, Par
      * @param position The position of the attribute to be removed.
      */
     public void removeAttribute(int position) {
-        this.attributeList.remove(position);
+        checkNotFrozen();
+        editableAttributes().remove(position);
+    }
+
+    /**
+     * Removes an attribute by name.
+     *
+     * @param attributeName The name of the attribute to be removed.
+     * @return The removed attribute or null if it does not exist.
+     */
+    public ObjectAttribute removeAttribute(String attributeName) {
+        checkNotFrozen();
+        XmlAttributeList attributes = editableAttributes();
+        int position = attributes.indexOfName(attributeName);
+        if (position == -1) return null;
+        return attributes.remove(position);
     }
 
     /**
@@ -293,7 +563,8 @@ public class XmlObject extends BaseTreeObject implements XmlObjectInterface, Par
      * @param value    The new value of that attribute.
      */
     public void modifyAttribute(int position, String value) {
-        this.attributeList.get(position).setValue(value);
+        checkNotFrozen();
+        editableAttributes().get(position).setValue(value);
     }
 
     /**
@@ -303,7 +574,7 @@ public class XmlObject extends BaseTreeObject implements XmlObjectInterface, Par
      * @return The ObjectAttribute required.
      */
     public ObjectAttribute getAttribute(int position) {
-        return attributeList.get(position);
+        return editableAttributes().get(position);
     }
 
     /**
@@ -313,18 +584,302 @@ public class XmlObject extends BaseTreeObject implements XmlObjectInterface, Par
      * @return The ObjectAttribute required.
      */
     public ObjectAttribute getAttribute(String attributeName) {
-        for (ObjectAttribute attribute : attributeList) {
-            if (attribute.getName().equals(attributeName)) return attribute;
-        }
+        return editableAttributes().get(attributeName);
+    }
 
-        return null;
+    /**
+     * Gets the value of an attribute by name, unlike getAttribute it keeps the raw open tag of
+     * objects parsed with lazy attributes.
+     *
+     * @param attributeName The name of the acquired attribute.
+     * @return The value of the attribute or null if it does not exist.
+     */
+    public String getAttributeValue(String attributeName) {
+        ObjectAttribute attribute = attributes().get(attributeName);
+        return attribute == null ? null : attribute.getValue();
     }
 
     /**
      * Clears all the attributes in the object.
      */
     public void clearAttributes() {
-        this.attributeList.clear();
+        checkNotFrozen();
+        editableAttributes().clear();
+    }
+
+    /**
+     * Called by the attributes list and the attributes of this object when an attribute was added, changed or removed.
+     *
+     * @param attributeName The name of the attribute, or null if any attribute may have changed.
+     */
+    void attributeChanged(String attributeName) {
+        contentChanged();
+        if (index != null) index.attributeChanged(this, attributeName);
+    }
+
+    /**
+     * Indexes the tree of this object by tag name and attribute values, the index is kept up to date while
+     * the tree changes. Trees that are not indexed do not pay for it.
+     *
+     * @return The index of the tree.
+     */
+    public XmlIndex enableIndex() {
+        checkNotFrozen();
+        if (index == null || index.getRoot() != this) new XmlIndex(this);
+        return index;
+    }
+
+    /**
+     * Removes the index of the tree of this object.
+     */
+    public void disableIndex() {
+        if (index != null && index.getRoot() == this) index.removeSubtree(this);
+    }
+
+    /**
+     * @return The index of the tree of this object, or null if it is not indexed.
+     */
+    public XmlIndex getIndex() {
+        return index;
+    }
+
+    /**
+     * Gets an element by its id attribute in the subtree of this object, it is looked up in the index when this
+     * object is the root of an indexed tree.
+     *
+     * @param id The id.
+     * @return The first element with that id or null if there is none.
+     */
+    public XmlObject getElementById(String id) {
+        if (isIndexRoot()) return index.getElementById(id);
+
+        XmlObjectCursor cursor = new XmlObjectCursor(this);
+        do {
+            if (id.equals(cursor.getAttributeValue("id"))) return cursor.getCurrent();
+        } while (cursor.toNext());
+        return null;
+    }
+
+    /**
+     * Gets the elements with a tag name in the subtree of this object, they are looked up in the index when this
+     * object is the root of an indexed tree.
+     *
+     * @param tagName The tag name.
+     * @return The elements with that tag name.
+     */
+    public ArrayList<XmlObject> getElementsByTagName(String tagName) {
+        if (isIndexRoot()) return index.getElementsByTagName(tagName);
+
+        ArrayList<XmlObject> elements = new ArrayList<>();
+        XmlObjectCursor cursor = new XmlObjectCursor(this);
+        do {
+            if (tagName.equals(cursor.getTagName())) elements.add(cursor.getCurrent());
+        } while (cursor.toNext());
+        return elements;
+    }
+
+    /**
+     * Gets the elements whose attribute has a value in the subtree of this object, they are looked up in the index
+     * when this object is the root of an indexed tree.
+     *
+     * @param attributeName The name of the attribute.
+     * @param value         The value of the attribute.
+     * @return The elements with that attribute value.
+     */
+    public ArrayList<XmlObject> getElementsByAttribute(String attributeName, String value) {
+        if (isIndexRoot()) return index.getElementsByAttribute(attributeName, value);
+
+        ArrayList<XmlObject> elements = new ArrayList<>();
+        XmlObjectCursor cursor = new XmlObjectCursor(this);
+        do {
+            if (value.equals(cursor.getAttributeValue(attributeName))) elements.add(cursor.getCurrent());
+        } while (cursor.toNext());
+        return elements;
+    }
+
+    private boolean isIndexRoot() {
+        return index != null && index.getRoot() == this;
+    }
+
+    /**
+     * Gets a hash of the content of the subtree of this object, its tag names, attributes, texts and the order
+     * of its nodes. The hashes of the subtree are kept until an object of it is changed, so only the changed
+     * objects and their parents are hashed again. Changes made directly to the lists returned by
+     * getXmlNodesList are not tracked.
+     *
+     * @return The 64 bit hash of the subtree.
+     */
+    public long getSubtreeHash() {
+        if (!hashValid) {
+            if (SINGLE_LOCK_DEPTH.get()[0] > 0) return computeSubtreeHash();
+
+            walk(new XmlVisitor() {
+                @Override
+                public VisitResult enter(XmlObject object, int depth) {
+                    return object.hashValid ? VisitResult.SKIP_SUBTREE : VisitResult.CONTINUE;
+                }
+
+                @Override
+                public VisitResult exit(XmlObject object, int depth) {
+                    if (!object.hashValid) {
+                        object.subtreeHash = object.computeHash();
+                        object.hashValid = true;
+                    }
+                    return VisitResult.CONTINUE;
+                }
+            });
+        }
+        return subtreeHash;
+    }
+
+    /**
+     * Hashes the subtree without keeping the hashes of its objects, the valid hashes are used as they are.
+     */
+    private long computeSubtreeHash() {
+        //The hashes of the walked objects are stacked, an object takes the hashes stacked since it was entered.
+        long[][] hashes = {new long[16]};
+        int[][] starts = {new int[16]};
+        int[] count = {0};
+
+        walk(new XmlVisitor() {
+            @Override
+            public VisitResult enter(XmlObject object, int depth) {
+                if (depth == starts[0].length) starts[0] = Arrays.copyOf(starts[0], depth * 2);
+                if (!object.hashValid) {
+                    starts[0][depth] = count[0];
+                    return VisitResult.CONTINUE;
+                }
+
+                starts[0][depth] = -1;
+                push(object.subtreeHash);
+                return VisitResult.SKIP_SUBTREE;
+            }
+
+            @Override
+            public VisitResult exit(XmlObject object, int depth) {
+                int start = starts[0][depth];
+                if (start < 0) return VisitResult.CONTINUE;
+
+                long hash = object.hashContent(count[0] - start);
+                for (int i = start; i < count[0]; i++) hash = mixHash(hash, hashes[0][i]);
+                count[0] = start;
+                push(finishHash(hash));
+                return VisitResult.CONTINUE;
+            }
+
+            private void push(long hash) {
+                if (count[0] == hashes[0].length) hashes[0] = Arrays.copyOf(hashes[0], count[0] * 2);
+                hashes[0][count[0]++] = hash;
+            }
+        });
+
+        return hashes[0][0];
+    }
+
+    /**
+     * Marks the thread as running a function with the lock of one object of a ConcurrentXmlTree.
+     */
+    static void enterSingleLock() {
+        SINGLE_LOCK_DEPTH.get()[0]++;
+    }
+
+    static void exitSingleLock() {
+        SINGLE_LOCK_DEPTH.get()[0]--;
+    }
+
+    /**
+     * Checks if the subtree of another object has the same content as the subtree of this object by their
+     * subtree hashes, two different subtrees have the same 64 bit hash by chance only.
+     *
+     * @param other The other object.
+     * @return true if both subtrees have the same content.
+     */
+    public boolean contentEquals(XmlObject other) {
+        return other != null && getSubtreeHash() == other.getSubtreeHash();
+    }
+
+    /**
+     * Hashes the content of the object itself with the hashes of its nodes, which must be valid.
+     */
+    private long computeHash() {
+        long hash = hashContent(nodesList.size());
+        for (XmlObject node : nodesList) hash = mixHash(hash, node.subtreeHash);
+        return finishHash(hash);
+    }
+
+    /**
+     * Hashes the content of the object itself, the hashes of its nodes are mixed in after it.
+     */
+    private long hashContent(int nodesCount) {
+        long hash = hashString(0x2545F4914F6CDD1DL, tagName);
+        hash = mixHash(hash, tagType == null ? -1 : tagType.ordinal());
+
+        XmlAttributeList attributes = attributes();
+        hash = mixHash(hash, attributes.size());
+        for (int i = 0; i < attributes.size(); i++) {
+            ObjectAttribute attribute = attributes.get(i);
+            hash = hashString(hash, attribute.getName());
+            String value = attribute.getValue();
+            hash = value == null ? mixHash(hash, -1) : hashString(hash, value);
+        }
+
+        hash = mixHash(hash, nodesCount);
+        for (String textPart : texts()) hash = hashString(hash, textPart);
+        return hash;
+    }
+
+    private static long finishHash(long hash) {
+        //The final mix spreads the changes of any part over all the bits.
+        hash ^= hash >>> 33;
+        hash *= 0xFF51AFD7ED558CCDL;
+        hash ^= hash >>> 33;
+        hash *= 0xC4CEB9FE1A85EC53L;
+        return hash ^ (hash >>> 33);
+    }
+
+    private static long hashString(long hash, String text) {
+        if (text == null) return mixHash(hash, -2);
+
+        hash = mixHash(hash, text.length());
+        for (int i = 0; i < text.length(); i++) {
+            hash = (hash ^ text.charAt(i)) * 0x9E3779B97F4A7C15L;
+            hash ^= hash >>> 29;
+        }
+        return hash;
+    }
+
+    private static long mixHash(long hash, long value) {
+        hash = (hash ^ value) * 0x9E3779B97F4A7C15L;
+        return hash ^ (hash >>> 29);
+    }
+
+    /**
+     * Clears the hashes of this object and its parents after a change of its content.
+     */
+    private void contentChanged() {
+        for (XmlObject object = this; object != null && object.hashValid; object = object.parentObject)
+            object.hashValid = false;
+    }
+
+    /**
+     * Finds the objects matching a query in the subtree of this object, see {@link XmlSelector} for the
+     * supported CSS selectors and XPath paths.
+     *
+     * @param query The query, for example "div.item &gt; a[href]" or "//item[@id='x']/name".
+     * @return The matching objects in the order of the script.
+     */
+    public ArrayList<XmlObject> select(String query) {
+        return XmlSelector.compile(query).select(this);
+    }
+
+    /**
+     * Finds the first object matching a query in the subtree of this object.
+     *
+     * @param query The query.
+     * @return The first matching object or null if there is no match.
+     */
+    public XmlObject selectFirst(String query) {
+        return XmlSelector.compile(query).selectFirst(this);
     }
 
     /**
@@ -354,14 +909,20 @@ public class XmlObject extends BaseTreeObject implements XmlObjectInterface, Par
     protected void showTreeHierarchy(BaseTreeObject startNode, BaseTreeObject currentNode, int startSpacing) {
         if (startNode == null) startNode = getRootObject();
         if (currentNode == null) currentNode = startNode;
-        System.out.println(makeSpaces(startSpacing) + currentNode.toString());
-        //if (currentNode.getNodesCount() == 0) return;
 
-        for (int i = 0; i < currentNode.getNodesCount(); i++) {
-            showTreeHierarchy(startNode, ((XmlObject) currentNode).getNode(i), startSpacing + 1);
-        }
+        ((XmlObject) currentNode).walk(new XmlVisitor() {
+            @Override
+            public VisitResult enter(XmlObject object, int depth) {
+                System.out.println(makeSpaces(startSpacing + depth) + object.toString());
+                return VisitResult.CONTINUE;
+            }
 
-        System.out.println(makeSpaces(startSpacing) + "</" + ((XmlObject) currentNode).getTagName() + ">");
+            @Override
+            public VisitResult exit(XmlObject object, int depth) {
+                System.out.println(makeSpaces(startSpacing + depth) + "</" + object.getTagName() + ">");
+                return VisitResult.CONTINUE;
+            }
+        });
     }
 
     /**
@@ -376,12 +937,227 @@ public class XmlObject extends BaseTreeObject implements XmlObjectInterface, Par
     protected void showTreeHierarchy(BaseTreeObject startNode, BaseTreeObject currentNode, int startSpacing, BaseTreeObject.OnTreeNodeShowingListener onTreeNodeShowingListener) {
         if (startNode == null) startNode = getRootObject();
         if (currentNode == null) currentNode = startNode;
-        if (onTreeNodeShowingListener != null) onTreeNodeShowingListener.showTreeNode(currentNode);
-        if (currentNode.getNodesCount() == 0) return;
+        if (onTreeNodeShowingListener == null) return;
+
+        ((XmlObject) currentNode).walk((object, depth) -> {
+            onTreeNodeShowingListener.showTreeNode(object);
+            return VisitResult.CONTINUE;
+        });
+    }
+
+    /**
+     * Walks the subtree of the current object in the order of the script, calling the visitor when the walk
+     * enters and exits each object. The walk keeps its own stack, so it walks trees of any depth, and it
+     * allocates nothing for each object.
+     *
+     * @param visitor The visitor.
+     * @return true if the whole subtree was walked, false if the visitor stopped the walk.
+     */
+    public boolean walk(XmlVisitor visitor) {
+        XmlObject[] objects = new XmlObject[16];
+        int[] positions = new int[16];
+        int depth = 0;
+
+        objects[0] = this;
+        VisitResult result = visitor.enter(this, 0);
+        if (result == VisitResult.STOP) return false;
+        //A skipped object is walked as if it had no children.
+        positions[0] = result == VisitResult.SKIP_SUBTREE ? Integer.MAX_VALUE : 0;
+
+        while (depth >= 0) {
+            XmlObject current = objects[depth];
+            int position = positions[depth];
+
+            if (position < current.getNodesCount()) {
+                positions[depth] = position + 1;
+                XmlObject child = current.getNode(position);
+
+                result = visitor.enter(child, depth + 1);
+                if (result == VisitResult.STOP) return false;
+
+                if (++depth == objects.length) {
+                    objects = Arrays.copyOf(objects, depth * 2);
+                    positions = Arrays.copyOf(positions, depth * 2);
+                }
+                objects[depth] = child;
+                positions[depth] = result == VisitResult.SKIP_SUBTREE ? Integer.MAX_VALUE : 0;
+                continue;
+            }
+
+            if (visitor.exit(current, depth) == VisitResult.STOP) return false;
+            objects[depth--] = null;
+        }
+
+        return true;
+    }
 
-        for (int i = 0; i < currentNode.getNodesCount(); i++) {
-            showTreeHierarchy(startNode, ((XmlObject) currentNode).getNode(i), startSpacing + 1);
+    /**
+     * Creates a deep copy of the subtree of the current object, the copy has no parent. The strings of the
+     * tree are shared, and the objects whose attributes were parsed lazily and never changed share their raw
+     * open tag.
+     *
+     * @return The copy.
+     */
+    public XmlObject copy() {
+        ArrayList<XmlObject> copies = new ArrayList<>();
+
+        walk(new XmlVisitor() {
+            @Override
+            public VisitResult enter(XmlObject object, int depth) {
+                XmlObject parent = depth == 0 ? null : copies.get(depth - 1);
+                XmlObject copy = object.copyObject(parent);
+                if (parent != null) parent.nodesList.add(copy);
+
+                if (depth == copies.size()) copies.add(copy);
+                else copies.set(depth, copy);
+                return VisitResult.CONTINUE;
+            }
+        });
+
+        return copies.get(0);
+    }
+
+    /**
+     * Copies the object without its children.
+     */
+    private XmlObject copyObject(XmlObject parent) {
+        //An unchanged raw open tag is shared, the copy parses its attributes again when they are used.
+        XmlAttributeList attributes = new XmlAttributeList(rawTag != null || attributeList == null ? 0 : attributeList.size());
+        if (rawTag == null && attributeList != null) {
+            for (int i = 0; i < attributeList.size(); i++) {
+                ObjectAttribute attribute = attributeList.get(i);
+                attributes.add(new ObjectAttribute(attribute.getName(), attribute.getValue()));
+            }
+        }
+
+        XmlObject copy = new XmlObject(tagName, tagType, parent, textList == null ? null : new ArrayList<>(textList),
+                attributes, new ArrayList<>(nodesList.size()));
+        if (rawTag != null || attributeList == null) {
+            copy.attributeList = null;
+            copy.rawTag = rawTag;
         }
+        //What was not read out of a snapshot yet is read out of it by the copy on its own.
+        copy.snapshot = snapshot;
+        copy.snapshotPosition = snapshotPosition;
+        copy.subtreeHash = subtreeHash;
+        copy.hashValid = hashValid;
+        return copy;
+    }
+
+    /**
+     * Creates a frozen copy of the subtree of the current object, or returns the object itself when it is frozen
+     * already. A frozen tree never changes, so any count of threads can read it without locks while a writer
+     * derives new versions of it with {@link #withChange(int[], Consumer)}. A new version is published to the
+     * readers by a volatile field or an AtomicReference holding its root.
+     * <p>
+     * The versions share their unchanged subtrees, so the objects of a frozen tree have no parent and the tree
+     * is read from its root. The changes of a frozen object throw IllegalStateException and the changes of its
+     * lists throw UnsupportedOperationException.
+     *
+     * @return The frozen tree.
+     */
+    public XmlObject freeze() {
+        if (frozen) return this;
+
+        XmlObject copy = copy();
+        copy.freezeSubtree();
+        return copy;
+    }
+
+    /**
+     * @return true if the object is frozen, see {@link #freeze()}.
+     */
+    public boolean isFrozen() {
+        return frozen;
+    }
+
+    /**
+     * Freezes the subtree of this object in place, the frozen subtrees in it are kept as they are.
+     */
+    void freezeSubtree() {
+        walk(new XmlVisitor() {
+            @Override
+            public VisitResult enter(XmlObject object, int depth) {
+                return object.frozen ? VisitResult.SKIP_SUBTREE : VisitResult.CONTINUE;
+            }
+
+            @Override
+            public VisitResult exit(XmlObject object, int depth) {
+                if (!object.frozen) object.freezeObject();
+                return VisitResult.CONTINUE;
+            }
+        });
+    }
+
+    /**
+     * Freezes this object, its nodes must be frozen already. Everything a reader could fill lazily is filled
+     * here, so reading a frozen object never writes to it.
+     */
+    private void freezeObject() {
+        XmlAttributeList attributes = attributes();
+        for (int i = 0; i < attributes.size(); i++) attributes.get(i).getValue();
+        attributes.freeze();
+        rawTag = null;
+        index = null;
+
+        textList = new FrozenList<>(texts());
+        nodesList = new FrozenList<>(nodesList);
+        parentObject = null;
+
+        if (!hashValid) {
+            subtreeHash = computeHash();
+            hashValid = true;
+        }
+        frozen = true;
+    }
+
+    /**
+     * Derives a new version of this frozen tree with one object changed. Only the changed object and its
+     * ancestors are created again, all the other subtrees are shared with this version, which stays as it was.
+     * <p>
+     * The change is given a mutable copy of the object at the path, whose nodes are the frozen nodes of that
+     * object. So the change can add, remove and reorder the nodes and change the texts and attributes of the
+     * object, but not the content of its nodes, which are changed by their own paths.
+     *
+     * @param path   The positions of the nodes from this object down to the changed object, empty for this object.
+     * @param change The change of the copy of the object at the path.
+     * @return The root of the new frozen version.
+     */
+    public XmlObject withChange(int[] path, Consumer<XmlObject> change) {
+        if (!frozen) throw new IllegalStateException("The object is not frozen");
+
+        XmlObject[] ancestors = new XmlObject[path.length];
+        XmlObject target = this;
+        for (int i = 0; i < path.length; i++) {
+            ancestors[i] = target;
+            if (path[i] < 0 || path[i] >= target.nodesList.size())
+                throw new IllegalArgumentException("The path has no node at depth " + i + " : " + path[i]);
+            target = target.nodesList.get(path[i]);
+        }
+
+        XmlObject copy = target.copyObject(null);
+        copy.nodesList.addAll(target.nodesList);
+        change.accept(copy);
+        //The change may have used the lists of the copy directly, so its hash is computed again.
+        copy.hashValid = false;
+        copy.freezeSubtree();
+
+        //Each ancestor is replaced by an object sharing its texts and attributes, with the new node in its list.
+        XmlObject node = copy;
+        for (int i = path.length - 1; i >= 0; i--) {
+            XmlObject ancestor = ancestors[i];
+            ArrayList<XmlObject> nodes = new ArrayList<>(ancestor.nodesList);
+            nodes.set(path[i], node);
+
+            XmlObject replacement = new XmlObject(ancestor.tagName, ancestor.tagType, null, ancestor.textList,
+                    ancestor.attributeList, new FrozenList<>(nodes));
+            replacement.subtreeHash = replacement.computeHash();
+            replacement.hashValid = true;
+            replacement.frozen = true;
+            node = replacement;
+        }
+
+        return node;
     }
 
     /**
@@ -404,11 +1180,12 @@ public class XmlObject extends BaseTreeObject implements XmlObjectInterface, Par
         if (getTagName().equals("comment")) {
             return "<!--";
         }
-        StringBuilder tag = new StringBuilder("<" + getTagName());
-        for (ObjectAttribute anAttributeList : attributeList) {
-            tag.append(" ").append(anAttributeList.getName()).append("=\"").append(anAttributeList.getValue()).append("\"");
+        StringBuilder tag = new StringBuilder();
+        try {
+            appendTagOpen(tag);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
         }
-        tag.append(">");
         return tag.toString();
     }
 
@@ -432,17 +1209,17 @@ public class XmlObject extends BaseTreeObject implements XmlObjectInterface, Par
      */
     @Override
     public String buildTagOpenClose() {
-
-        StringBuilder tag = new StringBuilder("<" + getTagName());
-        for (ObjectAttribute anAttributeList : attributeList) {
-            tag.append(" ").append(anAttributeList.getName()).append("=\"").append(anAttributeList.getValue()).append("\"");
+        StringBuilder tag = new StringBuilder();
+        try {
+            appendTagOpenClose(tag);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
         }
-        tag.append("/>");
         return tag.toString();
     }
 
     /**
-     * This method is for creating an xml script out of the current tag and all the child nodes recursively
+     * This method is for creating an xml script out of the current tag and all the child nodes
      * and return it in a string.
      *
      * @param depthLevel The starting depth level.
@@ -450,57 +1227,182 @@ public class XmlObject extends BaseTreeObject implements XmlObjectInterface, Par
      */
     @Override
     public String buildScript(int depthLevel) {
+        StringBuilder builder = new StringBuilder();
+        try {
+            writeTo(builder, depthLevel);
+        } catch (IOException e) {
+            //A StringBuilder never throws.
+            throw new UncheckedIOException(e);
+        }
+        return builder.toString();
+    }
 
-        if (text.equals("") && getNodesCount() == 0)
-            return writeTag(buildTagOpenClose(), depthLevel);
+    /**
+     * Writes the xml script of the current tag and all the child nodes to a stream.
+     *
+     * @param outputStream The stream to be written to, it is flushed but not closed.
+     * @param charset      The charset of the script.
+     * @throws IOException if writing to the stream failed.
+     */
+    public void writeTo(OutputStream outputStream, Charset charset) throws IOException {
+        Writer writer = new BufferedWriter(new OutputStreamWriter(outputStream, charset));
+        writeTo(writer, 0);
+        writer.flush();
+    }
 
-        else {
-            StringBuilder builder = new StringBuilder();
+    /**
+     * Writes the xml script of the current tag and all the child nodes.
+     *
+     * @param out The destination of the script.
+     * @throws IOException if writing failed.
+     */
+    public void writeTo(Appendable out) throws IOException {
+        writeTo(out, 0);
+    }
 
-            if (!text.equals("") && getNodesCount() == 0) {
+    /**
+     * Writes the xml script of the current tag and all the child nodes in a single pass.
+     * The tree is walked with an explicit stack so deep trees do not overflow the call stack,
+     * and the tags and texts are written directly without building intermediate strings.
+     *
+     * @param out        The destination of the script.
+     * @param depthLevel The starting depth level.
+     * @throws IOException if writing failed.
+     */
+    public void writeTo(Appendable out, int depthLevel) throws IOException {
+        if (!writeTagOpen(out, depthLevel)) return;
 
-                builder.append(writeTag(buildTagOpen(), depthLevel));
-                builder.append(optimizeText(text, depthLevel + 1));
-                builder.append(writeTag(buildTagClose(), depthLevel));
-            } else {
-                String[] textBlocks = text.split("\\{TAG\\}");
-                builder.append(writeTag(buildTagOpen(), depthLevel));
+        XmlObject[] objects = new XmlObject[16];
+        int[] positions = new int[16];
+        int top = 0;
+        objects[0] = this;
 
-                if (textBlocks.length < getNodesCount()) {
+        while (top >= 0) {
+            XmlObject current = objects[top];
+            int position = positions[top];
+            int level = depthLevel + top;
 
-                    for (int i = 0; i < textBlocks.length; i++) {
-                        builder.append(optimizeText(textBlocks[i], depthLevel + 1));
-                        builder.append(nodesList.get(i).buildScript(depthLevel + 1));
-                    }
+            writeText(out, current.getTextPart(position), level + 1);
 
-                    for (int i = textBlocks.length; i < getNodesCount(); i++) {
-                        builder.append(nodesList.get(i).buildScript(depthLevel + 1));
+            if (position < current.getNodesCount()) {
+                positions[top]++;
+                XmlObject node = current.getNode(position);
+
+                if (node.writeTagOpen(out, level + 1)) {
+                    if (++top == objects.length) {
+                        objects = Arrays.copyOf(objects, top * 2);
+                        positions = Arrays.copyOf(positions, top * 2);
                     }
+                    objects[top] = node;
+                    positions[top] = 0;
+                }
+            } else {
+                writeIndent(out, level);
+                current.appendTagClose(out);
+                out.append('\n');
+                objects[top--] = null;
+            }
+        }
+    }
 
-                } else if (textBlocks.length > getNodesCount()) {
+    /**
+     * Writes the open tag of this object, or its open-close tag when it has neither text nor nodes.
+     *
+     * @return true if an open tag was written and the content and close tag should follow.
+     */
+    private boolean writeTagOpen(Appendable out, int depthLevel) throws IOException {
+        writeIndent(out, depthLevel);
 
-                    for (int i = 0; i < getNodesCount(); i++) {
-                        builder.append(optimizeText(textBlocks[i], depthLevel + 1));
-                        builder.append(nodesList.get(i).buildScript(depthLevel + 1));
-                    }
+        if (getTextPart(0).equals("") && getNodesCount() == 0) {
+            appendTagOpenClose(out);
+            out.append('\n');
+            return false;
+        }
 
-                    for (int i = getNodesCount(); i < textBlocks.length; i++) {
-                        builder.append(optimizeText(textBlocks[i], depthLevel + 1));
-                    }
-                } else {
-                    for (int i = 0; i < getNodesCount(); i++) {
-                        builder.append(optimizeText(textBlocks[i], depthLevel + 1));
-                        builder.append(nodesList.get(i).buildScript(depthLevel + 1));
-                    }
-                }
+        appendTagOpen(out);
+        out.append('\n');
+        return true;
+    }
 
-                builder.append(writeTag(buildTagClose(), depthLevel));
+    private void appendTagOpen(Appendable out) throws IOException {
+        if (getTagName().equals("comment")) {
+            out.append("<!--");
+            return;
+        }
+        appendTagHead(out);
+        out.append('>');
+    }
+
+    private void appendTagOpenClose(Appendable out) throws IOException {
+        appendTagHead(out);
+        out.append("/>");
+    }
+
+    /**
+     * Writes the open tag without its end, the raw tag is written as it is when the object still has it.
+     */
+    private void appendTagHead(Appendable out) throws IOException {
+        if (rawTag != null) {
+            rawTag.appendHead(out);
+            return;
+        }
+        out.append('<').append(getTagName());
+        appendAttributes(out);
+    }
+
+    private void appendTagClose(Appendable out) throws IOException {
+        if (getTagName().equals("comment")) {
+            out.append("-->");
+            return;
+        }
+        out.append("</").append(tagName).append('>');
+    }
 
+    private void appendAttributes(Appendable out) throws IOException {
+        for (ObjectAttribute attribute : attributes()) {
+            out.append(' ').append(attribute.getName()).append("=\"").append(attribute.getValue()).append('"');
+        }
+    }
+
+    static void writeIndent(Appendable out, int depthLevel) throws IOException {
+        for (int i = 0; i < depthLevel; i++)
+            out.append('\t');
+    }
+
+    /**
+     * Writes a text part line by line at the depth level specified, the lines are trimmed and
+     * the empty lines are dropped.
+     */
+    static void writeText(Appendable out, String text, int depthLevel) throws IOException {
+        int length = text.length();
+        int lineStart = 0;
+
+        while (lineStart < length) {
+            int lineEnd = text.indexOf('\n', lineStart);
+            if (lineEnd == -1) lineEnd = length;
+
+            if (!isBlank(text, lineStart, lineEnd)) {
+                int start = lineStart;
+                int end = lineEnd;
+                while (start < end && text.charAt(start) <= ' ') start++;
+                while (end > start && text.charAt(end - 1) <= ' ') end--;
+
+                writeIndent(out, depthLevel);
+                out.append(text, start, end).append('\n');
             }
-            return builder.toString();
+
+            lineStart = lineEnd + 1;
         }
     }
 
+    private static boolean isBlank(String text, int start, int end) {
+        for (int i = start; i < end; i++) {
+            char c = text.charAt(i);
+            if (c != ' ' && c != '\t' && c != '\n' && c != '\r' && c != '\f' && c != '\u000B') return false;
+        }
+        return true;
+    }
+
     /**
      * Adjusts a text part according to the depth level specified and deletes the redundant spaces and new lines.
      *
@@ -510,17 +1412,11 @@ public class XmlObject extends BaseTreeObject implements XmlObjectInterface, Par
      */
     public String optimizeText(String text, int depthLevel) {
         StringBuilder builder = new StringBuilder();
-
-        String[] data = text.split("\\n+?");
-
-        for (String line : data) {
-            if (line.equals("")) continue;
-            else if (line.matches("(\\n|\\s|\\r)+")) continue;
-            for (int i = 0; i < depthLevel; i++)
-                builder.append("\t");
-            builder.append(line.trim()).append("\n");
+        try {
+            writeText(builder, text, depthLevel);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
         }
-
         return builder.toString();
     }
 
@@ -553,91 +1449,250 @@ public class XmlObject extends BaseTreeObject implements XmlObjectInterface, Par
 
     /**
      * The main parsing method for converting xml script into objects.
-     * This method aims to convert xml scripts into XmlObject using regex.
+     * This method aims to convert xml scripts into XmlObject using the events of a pull parser.
      *
      * @param xmlScript The script required for parsing into a new object.
      * @return An object that was created from the script.
      */
     public static XmlObject parseXml(String xmlScript) {
+        try {
+            return parseXml(new XmlPullParser(xmlScript));
+        } catch (IOException e) {
+            //A script in memory is never read from a stream.
+            throw new UncheckedIOException(e);
+        }
+    }
 
-        Matcher matcher = Pattern.compile(REGEX_TAG_ALL, Pattern.DOTALL).matcher(xmlScript);
-        matcher.find();
+    /**
+     * Parses a script interning the tag and attribute names in a shared name table, trees parsed with the same
+     * table share their name strings.
+     *
+     * @param xmlScript The script required for parsing into a new object.
+     * @param nameTable The table the names are interned in.
+     * @return An object that was created from the script.
+     */
+    public static XmlObject parseXml(String xmlScript, XmlNameTable nameTable) {
+        return parseXml(xmlScript, new XmlParseOptions().setNameTable(nameTable));
+    }
 
-        XmlObject currentXmlObject = new XmlObject(
-                XmlObject.HelperMethods.getXmlTagName(matcher.group())
-                , ""
-                , null
-                , XmlObject.HelperMethods.getXmlTagAttributes(matcher.group())); //gets the first tag (<html>) and use it as the root tag.
+    /**
+     * Parses a script with the given options.
+     *
+     * @param xmlScript The script required for parsing into a new object.
+     * @param options   The options of the parsing.
+     * @return An object that was created from the script.
+     */
+    public static XmlObject parseXml(String xmlScript, XmlParseOptions options) {
+        if (options.getParallelism() > 1 && options.getRules().isEmpty())
+            return XmlParallelParser.parse(xmlScript.toCharArray(), options);
+
+        try {
+            return parseXml(new XmlPullParser(xmlScript), options);
+        } catch (IOException e) {
+            //A script in memory is never read from a stream.
+            throw new UncheckedIOException(e);
+        }
+    }
 
-        XmlObject lastXmlObject;
+    /**
+     * Parses a script while reading it, the script is never held as a whole in memory.
+     *
+     * @param reader The reader of the script required for parsing into a new object.
+     * @return An object that was created from the script.
+     * @throws IOException if reading the script failed.
+     */
+    public static XmlObject parseXml(Reader reader) throws IOException {
+        return parseXml(new XmlPullParser(reader));
+    }
 
-        int startIndex = matcher.end();
-        int endIndex;
+    /**
+     * Parses a local UTF-8 file, the file is memory mapped and decoded while parsing.
+     *
+     * @param path The path of the file.
+     * @return An object that was created from the file.
+     * @throws IOException if reading the file failed.
+     */
+    public static XmlObject parseFile(Path path) throws IOException {
+        return parseFile(path, StandardCharsets.UTF_8);
+    }
 
-        TagFlag currentTagState;
+    /**
+     * Parses a local file, the file is memory mapped and decoded while parsing so it is never held
+     * as a whole string in memory. Files larger than 2 GB are mapped window after window.
+     *
+     * @param path    The path of the file.
+     * @param charset The charset of the file.
+     * @return An object that was created from the file.
+     * @throws IOException if reading the file failed.
+     */
+    public static XmlObject parseFile(Path path, Charset charset) throws IOException {
+        return parseFile(path, charset, new XmlParseOptions());
+    }
 
-        boolean isInComment = false;
+    /**
+     * Parses a local file with the given options. A parallel parse decodes the whole file in memory first,
+     * files with more characters than an array can hold are parsed sequentially.
+     *
+     * @param path    The path of the file.
+     * @param charset The charset of the file.
+     * @param options The options of the parsing.
+     * @return An object that was created from the file.
+     * @throws IOException if reading the file failed.
+     */
+    public static XmlObject parseFile(Path path, Charset charset, XmlParseOptions options) throws IOException {
+        try (MappedFileReader reader = new MappedFileReader(path, charset)) {
+            long size = Files.size(path);
+            if (options.getParallelism() > 1 && options.getRules().isEmpty() && size < Integer.MAX_VALUE - 8)
+                return XmlParallelParser.parse(readAll(reader, (int) size), options);
 
-        while (matcher.find()) { //for each tag exists in the html page :
+            return parseXml(new XmlPullParser(reader, XmlTokenizer.DEFAULT_BUFFER_SIZE * 8), options);
+        }
+    }
 
-            String tag = matcher.group(); // store the tag in a string (html tag parsing)
+    /**
+     * Reads all the characters of a file, a file has no more characters than bytes in the usual charsets
+     * but the array grows if it has.
+     */
+    private static char[] readAll(Reader reader, int size) throws IOException {
+        char[] script = new char[Math.max(size, 16)];
+        int length = 0;
+        int read;
+
+        while ((read = reader.read(script, length, script.length - length)) != -1) {
+            length += read;
+            if (length == script.length) {
+                if (length >= Integer.MAX_VALUE / 2)
+                    throw new IllegalArgumentException("The file has too many characters for a parallel parse");
+                script = Arrays.copyOf(script, length * 2);
+            }
+        }
 
-            //Step 1 : tags parsing
-            currentTagState = getTagFlag(tag, currentXmlObject, isInComment);
+        return length == script.length ? script : Arrays.copyOf(script, length);
+    }
 
+    /**
+     * Writes the subtree of the current object as a binary snapshot, which is read back by
+     * {@link #readSnapshot(Path)} much faster than the script is parsed.
+     *
+     * @param outputStream The stream the snapshot is written to, it is not closed.
+     * @throws IOException if writing failed.
+     */
+    public void writeSnapshot(OutputStream outputStream) throws IOException {
+        writeSnapshot(outputStream, false);
+    }
 
-            if (currentTagState != TagFlag.Useless) {
+    /**
+     * Writes the subtree of the current object as a binary snapshot.
+     *
+     * @param outputStream The stream the snapshot is written to, it is not closed.
+     * @param compressed   true for deflating the snapshot, a compressed snapshot is smaller but it can not be
+     *                     read in place from a mapped file.
+     * @throws IOException if writing failed.
+     */
+    public void writeSnapshot(OutputStream outputStream, boolean compressed) throws IOException {
+        XmlSnapshot.write(this, outputStream, compressed);
+    }
 
-                lastXmlObject = currentXmlObject;
+    /**
+     * Reads a snapshot written by {@link #writeSnapshot(OutputStream)}.
+     *
+     * @param inputStream The stream of the snapshot, it is read to its end and not closed.
+     * @return The root object of the snapshot.
+     * @throws IOException               if reading failed or the stream is not a snapshot.
+     * @throws SnapshotVersionException if the snapshot was written with another version of the format.
+     */
+    public static XmlObject readSnapshot(InputStream inputStream) throws IOException {
+        return XmlSnapshot.read(inputStream);
+    }
 
-                if (currentTagState == TagFlag.Open) {
-                    currentXmlObject.addNode(createNewObject(tag, currentXmlObject), false);
-                    currentXmlObject = currentXmlObject.getLastNode();
-                } else if (currentTagState == TagFlag.Open_Close) {
-                    currentXmlObject.addNode(createNewObject(tag, currentXmlObject), false);
-                } else if (currentTagState == TagFlag.Close) {
-                    if (currentXmlObject.getParentObject() != null)
-                        currentXmlObject = currentXmlObject.getParentObject();
-                } else if (currentTagState == TagFlag.Comment_Open) {
-                    isInComment = true;
-                    currentXmlObject.addNode(createNewObject(tag, currentXmlObject), false);
-                    currentXmlObject = currentXmlObject.getLastNode();
-                } else if (currentTagState == TagFlag.Comment_Close) {
-                    isInComment = false;
-                    if (currentXmlObject.getParentObject() != null)
-                        currentXmlObject = currentXmlObject.getParentObject();
-                }
+    /**
+     * Reads a snapshot file written by {@link #writeSnapshot(OutputStream)}, the file is memory mapped.
+     * The attributes and texts of the objects are read out of the file when they are first used, so the file
+     * must not be changed while the objects are in use.
+     *
+     * @param path The path of the snapshot file.
+     * @return The root object of the snapshot.
+     * @throws IOException               if reading failed or the file is not a snapshot.
+     * @throws SnapshotVersionException if the snapshot was written with another version of the format.
+     */
+    public static XmlObject readSnapshot(Path path) throws IOException {
+        return XmlSnapshot.read(path);
+    }
 
-                endIndex = matcher.start();
+    /**
+     * @return The version of the snapshot format written by this library.
+     */
+    public static int getSnapshotVersion() {
+        return XmlSnapshot.VERSION;
+    }
 
-                if (currentTagState == TagFlag.Comment_Close)
-                    currentTagState = TagFlag.Close;
-                else if (currentTagState == TagFlag.Comment_Open)
-                    currentTagState = TagFlag.Open;
+    /**
+     * Builds an object out of the events of a pull parser.
+     *
+     * @param parser The parser standing before the first tag of the script.
+     * @return An object that was created from the script.
+     * @throws IOException if reading the script failed.
+     */
+    public static XmlObject parseXml(XmlPullParser parser) throws IOException {
+        return parseXml(parser, new XmlParseOptions());
+    }
 
-                String text = xmlScript.substring(startIndex, endIndex);
+    /**
+     * Builds an object out of the events of a pull parser with the given options.
+     *
+     * @param parser  The parser standing before the first tag of the script.
+     * @param options The options of the parsing.
+     * @return An object that was created from the script.
+     * @throws IOException if reading the script failed.
+     */
+    public static XmlObject parseXml(XmlPullParser parser, XmlParseOptions options) throws IOException {
+        if (options.getNameTable() != null) parser.setNameTable(options.getNameTable());
+        if (!options.getRules().isEmpty()) return XmlRuleParser.parse(parser, options);
+        boolean lazyAttributes = options.isLazyAttributes();
 
-                if (currentTagState == TagFlag.Open) {
-                    currentXmlObject.getParentObject().text = currentXmlObject.getParentObject().text + text;
-                    currentXmlObject.getParentObject().text = currentXmlObject.getParentObject().text + "{TAG}\n";
-                } else if (currentTagState == TagFlag.Open_Close) {
-                    currentXmlObject.text = currentXmlObject.text + text;
+        if (parser.next() == XmlEvent.END_DOCUMENT)
+            throw new IllegalStateException("No match found");
 
-                    currentXmlObject.text = currentXmlObject.text + "{TAG}\n";
-                } else if (currentTagState == TagFlag.Close) {
-                    lastXmlObject.text = lastXmlObject.text + text;
+        XmlObject rootXmlObject = createNewObject(parser, null, lazyAttributes); //the first tag (<html>) is the root tag.
+        parseContent(parser, rootXmlObject, lazyAttributes);
+        return rootXmlObject;
+    }
 
-                }
+    /**
+     * Adds the texts and elements of the next events of a parser to an object until the end of the script.
+     *
+     * @param parser           The parser standing inside the object.
+     * @param currentXmlObject The object the events belong to.
+     * @param lazyAttributes   true for parsing the attributes on their first use.
+     * @throws IOException if reading the script failed.
+     */
+    static void parseContent(XmlPullParser parser, XmlObject currentXmlObject, boolean lazyAttributes) throws IOException {
+        XmlEvent event;
+
+        while ((event = parser.next()) != XmlEvent.END_DOCUMENT) {
+            switch (event) {
+                case TEXT:
+                    currentXmlObject.addText(parser.getText());
+                    break;
+
+                case START_TAG:
+                    XmlObject node = createNewObject(parser, currentXmlObject, lazyAttributes);
+                    currentXmlObject.addNode(node);
+                    currentXmlObject = node;
+                    break;
+
+                case END_TAG:
+                    if (currentXmlObject.getParentObject() != null)
+                        currentXmlObject = currentXmlObject.getParentObject();
+                    break;
 
-                startIndex = matcher.end();
+                case COMMENT:
+                    XmlObject comment = createNewObject(parser, currentXmlObject, lazyAttributes);
+                    comment.addText(parser.getText());
+                    currentXmlObject.addNode(comment);
+                    break;
             }
-
         }
-
-        while (currentXmlObject.getParentObject() != null)
-            currentXmlObject = currentXmlObject.getParentObject();
-
-        return currentXmlObject;
     }
 
     /**
@@ -654,6 +1709,72 @@ public class XmlObject extends BaseTreeObject implements XmlObjectInterface, Par
                 , XmlObject.HelperMethods.getXmlTagAttributes(tag));
     }
 
+    /**
+     * A method for creating a new XmlObject out of the current event of a pull parser.
+     *
+     * @param parser           The parser standing on the tag of the new object.
+     * @param currentXmlObject The current object that should be the parent of the new tag object.
+     * @return The new xml object.
+     */
+    private static XmlObject createNewObject(XmlPullParser parser, XmlObject currentXmlObject) {
+        return new XmlObject(parser.getName()
+                , ""
+                , currentXmlObject
+                , getParserAttributes(parser));
+    }
+
+    /**
+     * A method for creating a new XmlObject out of the current event of a pull parser, with lazy attributes
+     * the object only keeps its raw open tag.
+     */
+    static XmlObject createNewObject(XmlPullParser parser, XmlObject currentXmlObject, boolean lazyAttributes) {
+        if (!lazyAttributes || parser.getEvent() != XmlEvent.START_TAG)
+            return createNewObject(parser, currentXmlObject);
+
+        XmlObject object = new XmlObject(parser.getName(), "", currentXmlObject);
+        object.attributeList = null;
+
+        int count = parser.getAttributeCount();
+        int tagStart = parser.getTagStart();
+        char[] buffer = parser.getBuffer();
+
+        //Only open tags are kept, a root written as a close tag is written back as an open tag.
+        if (count > 0 && buffer[tagStart + 1] != '/') {
+            int headEnd = parser.getAttributeValueEnd(count - 1) == -1
+                    ? parser.getAttributeNameEnd(count - 1)
+                    : parser.getAttributeValueEnd(count - 1) + 1;
+            object.rawTag = new RawTag(buffer, tagStart, headEnd, parser.getTagEnd()
+                    , parser.isWholeScript(), parser.getNameTable());
+        }
+
+        return object;
+    }
+
+    /**
+     * Creates the attributes of the current event of a pull parser.
+     * The names are interned by the parser, when the parser holds the whole script the values are
+     * only views over it and they are created on the first access.
+     *
+     * @param parser The parser standing on the tag.
+     * @return an ArrayList containing all the tag attributes.
+     */
+    private static XmlAttributeList getParserAttributes(XmlPullParser parser) {
+        int count = parser.getAttributeCount();
+        XmlAttributeList attributes = new XmlAttributeList(count);
+
+        for (int i = 0; i < count; i++) {
+            if (parser.isWholeScript())
+                attributes.add(new ObjectAttribute(parser.getAttributeName(i)
+                        , parser.getBuffer()
+                        , parser.getAttributeValueStart(i)
+                        , parser.getAttributeValueEnd(i)));
+            else
+                attributes.add(new ObjectAttribute(parser.getAttributeName(i), parser.getAttributeValue(i)));
+        }
+
+        return attributes;
+    }
+
     /**
      * A method to handle the current xml tag in the script.
      * This method define the current xml tag whether it is open, close, open-close, comment or useless.
@@ -671,38 +1792,58 @@ public class XmlObject extends BaseTreeObject implements XmlObjectInterface, Par
      * @return An integer indicating the current tag flag.
      */
     public static TagFlag getTagFlag(String tag, XmlObject currentXmlObject, boolean isInComment) {
+        XmlTokenizer tokenizer = new XmlTokenizer(tag);
+        if (!tokenizer.nextToken() || tokenizer.getTokenStart() != 0 || tokenizer.getTokenEnd() != tag.length())
+            return TagFlag.Useless;
+
+        return getTagFlag(tokenizer, currentXmlObject, isInComment);
+    }
+
+    /**
+     * Defines the current token of the tokenizer whether it is open, close, open-close, comment or useless.
+     * The tag name is compared directly from the script so no strings are created for the useless tags.
+     *
+     * @param tokenizer        The tokenizer standing on the tag required for handling.
+     * @param currentXmlObject The current tag object.
+     * @param isInComment      Whether the tag is inside a comment section.
+     * @return The flag of the current tag.
+     */
+    private static TagFlag getTagFlag(XmlTokenizer tokenizer, XmlObject currentXmlObject, boolean isInComment) {
+        TagFlag tokenType = tokenizer.getTokenType();
+
         if (!isInComment) {
 
             //Step 1-A : Opened-Closed tags
-            if (tag.matches(REGEX_TAG_OPEN_CLOSED))
+            if (tokenType == TagFlag.Open_Close)
                 return TagFlag.Open_Close;
 
-            else if (tag.matches(REGEX_TAG_OPEN)) {
+            else if (tokenType == TagFlag.Comment_Open)
+                return TagFlag.Comment_Open;
 
-                if (XmlObject.HelperMethods.getXmlTagName(tag).toLowerCase().equals("comment") || tag.equals("<!--"))
+            else if (tokenType == TagFlag.Open && tokenizer.isWordTag()) {
+
+                if (tokenizer.isTagName("comment", true))
                     return TagFlag.Comment_Open;
 
                 else
                     return TagFlag.Open;
 
-            } else if (tag.matches(REGEX_TAG_CLOSE)) {
+            } else if (tokenType == TagFlag.Close && tokenizer.isPlainClose()) {
 
-                if (!HelperMethods.getXmlTagName(tag).equals(currentXmlObject.getTagName())) {
-                    XmlObject tmp = currentXmlObject;
-                    while (true) {
-                        if (HelperMethods.getXmlTagName(tag).equals(tmp.getTagName())) return TagFlag.Close;
+                XmlObject tmp = currentXmlObject;
+                while (true) {
+                    if (tokenizer.isTagName(tmp.getTagName(), false)) return TagFlag.Close;
 
-                        if (tmp.getParentObject() != null) tmp = tmp.getParentObject();
+                    if (tmp.getParentObject() != null) tmp = tmp.getParentObject();
 
-                        else return TagFlag.Useless;
-                    }
-                } else return TagFlag.Close;
+                    else return TagFlag.Useless;
+                }
             }
 
             return TagFlag.Useless;
 
         } else {
-            if ((XmlObject.HelperMethods.getXmlTagName(tag).equals("comment") || tag.equals("-->")) && XmlObject.HelperMethods.getTagState(tag) == TagFlag.Close) {
+            if (tokenType == TagFlag.Comment_Close || (tokenType == TagFlag.Close && tokenizer.isTagName("comment", false))) {
                 return TagFlag.Comment_Close;
             } else {
                 return TagFlag.Useless;
@@ -711,6 +1852,8 @@ public class XmlObject extends BaseTreeObject implements XmlObjectInterface, Par
     }
 
     public static class HelperMethods {
+        private static final Pattern ATTRIBUTE_PATTERN = Pattern.compile(REGEX_TAG_ATTRIBUTE);
+
         /**
          * @param tag tag string
          * @return integer representing the state of the current tag
@@ -731,55 +1874,10 @@ public class XmlObject extends BaseTreeObject implements XmlObjectInterface, Par
          * @return The html script of the website
          */
         public static String downloadWebPage(String urlString) {
-            ExecutorService executors = Executors.newSingleThreadExecutor();
             try {
-
-                Future<String> stringFuture = executors.submit(new Callable<String>() {
-                    @Override
-                    public String call() throws Exception {
-                        HttpURLConnection httpURLConnection = null;
-                        FileURLConnection fileURLConnection = null;
-                        BufferedReader reader = null;
-                        StringBuilder builder = new StringBuilder();
-
-                        try {
-                            URL url = new URL(urlString);
-                            try {
-                                httpURLConnection = (HttpURLConnection) url.openConnection();
-                                httpURLConnection.setRequestProperty("user-agent", "Mozilla/5.0 (X11; Ubuntu; Linux x86_64; rv:54.0) Gecko/20100101 Firefox/54.0");
-                                reader = new BufferedReader(new InputStreamReader(httpURLConnection.getInputStream()));
-                            } catch (ClassCastException e) {
-                                fileURLConnection = (FileURLConnection) url.openConnection();
-                                reader = new BufferedReader(new InputStreamReader(fileURLConnection.getInputStream()));
-                            }
-                            String line;
-
-                            while ((line = reader.readLine()) != null) {
-                                builder.append(line).append("\n");
-                            }
-
-                            if (httpURLConnection != null)
-                                httpURLConnection.disconnect();
-
-                            if (fileURLConnection != null)
-                                fileURLConnection.close();
-
-                            return builder.toString();
-
-                        } catch (IOException e) {
-                            e.printStackTrace();
-                        } finally {
-                            if (httpURLConnection != null) httpURLConnection.disconnect();
-                        }
-
-                        return "";
-                    }
-                });
-                executors.shutdown();
-                String string = stringFuture.get();
-                stringFuture.cancel(true);
-                return string;
-            } catch (InterruptedException | ExecutionException e) {
+                FetchedPage page = PageFetcher.getDefault().fetch(urlString).join();
+                if (page.isSuccessful()) return page.getText();
+            } catch (CompletionException e) {
                 e.printStackTrace();
             }
 
@@ -811,7 +1909,7 @@ public class XmlObject extends BaseTreeObject implements XmlObjectInterface, Par
          */
         public static ArrayList<ObjectAttribute> getXmlTagAttributes(String htmlTag) {
             ArrayList<ObjectAttribute> attributes = new ArrayList<>();
-            Matcher matcher = Pattern.compile("\\s[^\\s=<>/]+(\\s?=\\s?((\"[\\S\\s]*?\")|('[\\S\\s]*?')))?").matcher(htmlTag);
+            Matcher matcher = ATTRIBUTE_PATTERN.matcher(htmlTag);
             while (matcher.find()) {
                 String[] attr = matcher.group().split("=", 2);
                 try {
@@ -844,25 +1942,122 @@ public class XmlObject extends BaseTreeObject implements XmlObjectInterface, Par
         }
     }
 
+    /**
+     * The raw open tag of an object whose attributes are parsed lazily.
+     */
+    private static final class RawTag {
+        private final char[] source;
+        private final int start;
+        private final int headEnd;
+        private final int end;
+        private final XmlNameTable nameTable;
+
+        /**
+         * @param source      The buffer holding the tag.
+         * @param start       The index of the '&lt;' character of the tag.
+         * @param headEnd     The index after the last attribute of the tag.
+         * @param end         The index after the '&gt;' character of the tag.
+         * @param wholeScript Whether the buffer holds the whole script, otherwise the tag is copied out of it.
+         * @param nameTable   The table the attribute names are interned in.
+         */
+        RawTag(char[] source, int start, int headEnd, int end, boolean wholeScript, XmlNameTable nameTable) {
+            if (wholeScript) {
+                this.source = source;
+                this.start = start;
+                this.headEnd = headEnd;
+                this.end = end;
+            } else {
+                this.source = Arrays.copyOfRange(source, start, end);
+                this.start = 0;
+                this.headEnd = headEnd - start;
+                this.end = end - start;
+            }
+            this.nameTable = nameTable;
+        }
+
+        /**
+         * Writes the tag as it is in the script without its "&gt;" or "/&gt;" end.
+         */
+        void appendHead(Appendable out) throws IOException {
+            if (out instanceof StringBuilder) ((StringBuilder) out).append(source, start, headEnd - start);
+            else if (out instanceof Writer) ((Writer) out).write(source, start, headEnd - start);
+            else out.append(CharBuffer.wrap(source, start, headEnd - start));
+        }
+
+        /**
+         * Tokenizes the tag again for its attributes, the values stay views over the tag.
+         */
+        XmlAttributeList parseAttributes() {
+            XmlTokenizer tokenizer = new XmlTokenizer(source, start, end - start);
+            tokenizer.nextToken();
+
+            int count = tokenizer.getAttributeCount();
+            XmlAttributeList attributes = new XmlAttributeList(count);
+
+            for (int i = 0; i < count; i++)
+                attributes.add(new ObjectAttribute(
+                        nameTable.intern(source, tokenizer.getAttributeNameStart(i), tokenizer.getAttributeNameEnd(i))
+                        , source
+                        , tokenizer.getAttributeValueStart(i)
+                        , tokenizer.getAttributeValueEnd(i)));
+
+            return attributes;
+        }
+    }
+
     public static class ObjectAttribute {
         String name;
         String value;
 
+        /**
+         * The script the attribute was parsed from, the value is kept as offsets into it until it is required.
+         */
+        private char[] source;
+        private int valueStart;
+        private int valueEnd;
+
+        /**
+         * The object the attribute belongs to, it is told about the changes of the value.
+         */
+        XmlObject owner;
+
         public ObjectAttribute(String name, String value) {
             this.name = name;
             this.value = value;
         }
 
+        /**
+         * A constructor for attributes whose values are still parts of the parsed script.
+         *
+         * @param name       The name of the attribute.
+         * @param source     The parsed script.
+         * @param valueStart The index of the first character of the value or -1 if there is no value.
+         * @param valueEnd   The index after the last character of the value or -1 if there is no value.
+         */
+        ObjectAttribute(String name, char[] source, int valueStart, int valueEnd) {
+            this.name = name;
+            this.source = source;
+            this.valueStart = valueStart;
+            this.valueEnd = valueEnd;
+        }
+
         public String getName() {
             return name;
         }
 
         public String getValue() {
+            if (value == null && source != null) {
+                value = valueStart == -1 ? "" : new String(source, valueStart, valueEnd - valueStart);
+                source = null;
+            }
             return value;
         }
 
         public void setValue(String value) {
+            if (owner != null && owner.frozen) throw new IllegalStateException("The object is frozen");
             this.value = value;
+            this.source = null;
+            if (owner != null) owner.attributeChanged(name);
         }
     }
 
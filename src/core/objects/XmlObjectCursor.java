@@ -0,0 +1,89 @@
+package core.objects;
+
+import interfaces.XmlTreeCursor;
+
+import java.util.Arrays;
+
+/**
+ * A cursor that walks the subtree of a XmlObject, the cursor never moves out of that subtree.
+ */
+public class XmlObjectCursor implements XmlTreeCursor {
+
+    private XmlObject[] objects = new XmlObject[16];
+    private int[] positions = new int[16];
+    private int depth;
+
+    /**
+     * A global constructor
+     *
+     * @param root The object whose subtree is walked.
+     */
+    public XmlObjectCursor(XmlObject root) {
+        objects[0] = root;
+    }
+
+    /**
+     * @return The object the cursor stands on.
+     */
+    public XmlObject getCurrent() {
+        return objects[depth];
+    }
+
+    @Override
+    public String getTagName() {
+        return objects[depth].getTagName();
+    }
+
+    @Override
+    public String getAttributeValue(String attributeName) {
+        return objects[depth].getAttributeValue(attributeName);
+    }
+
+    @Override
+    public boolean toFirstChild() {
+        XmlObject current = objects[depth];
+        if (current.getNodesCount() == 0) return false;
+
+        if (++depth == objects.length) {
+            objects = Arrays.copyOf(objects, depth * 2);
+            positions = Arrays.copyOf(positions, depth * 2);
+        }
+        objects[depth] = current.getNode(0);
+        positions[depth] = 0;
+        return true;
+    }
+
+    @Override
+    public boolean toNextSibling() {
+        if (depth == 0) return false;
+
+        XmlObject parent = objects[depth - 1];
+        int position = positions[depth] + 1;
+        if (position >= parent.getNodesCount()) return false;
+
+        objects[depth] = parent.getNode(position);
+        positions[depth] = position;
+        return true;
+    }
+
+    @Override
+    public boolean toParent() {
+        if (depth == 0) return false;
+        objects[depth--] = null;
+        return true;
+    }
+
+    /**
+     * Moves to the next object of the subtree in the order of the script.
+     *
+     * @return true if the cursor moved, false when the whole subtree was walked.
+     */
+    public boolean toNext() {
+        if (toFirstChild()) return true;
+
+        while (!toNextSibling())
+            if (!toParent()) return false;
+
+        return true;
+    }
+}
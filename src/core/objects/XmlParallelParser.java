@@ -0,0 +1,244 @@
+package core.objects;
+
+import core.parsers.XmlNameTable;
+import core.parsers.XmlParseOptions;
+import core.parsers.XmlPullParser;
+import flags.XmlEvent;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Parses a script in parallel parts on a ForkJoinPool.
+ * <p>
+ * The script is split right after the closing tags of the children of the root element, each part is parsed
+ * under a stand-in of the root element and the children of the parts are moved under the real root in order.
+ * A split point is only trusted when the part before it ended at the top level of the root element with the
+ * same tags a parser of the whole script finds there, otherwise the rest of the script is parsed sequentially
+ * from the last trusted point, so the tree is always the tree of a sequential parse.
+ */
+final class XmlParallelParser {
+
+    private final char[] script;
+    private final XmlNameTable nameTable;
+    private final boolean lazyAttributes;
+    private String rootName;
+
+    private XmlParallelParser(char[] script, XmlParseOptions options) {
+        this.script = script;
+        this.nameTable = options.getNameTable() != null ? options.getNameTable() : new XmlNameTable();
+        this.lazyAttributes = options.isLazyAttributes();
+    }
+
+    /**
+     * Parses a script using the parallelism of the options.
+     *
+     * @param script  The characters of the script.
+     * @param options The options of the parsing.
+     * @return An object that was created from the script.
+     */
+    static XmlObject parse(char[] script, XmlParseOptions options) {
+        XmlParallelParser parser = new XmlParallelParser(script, options);
+        int parts = (int) Math.min(options.getParallelism(), script.length / (long) options.getMinChunkSize());
+        if (parts <= 1) return parser.parseSequentially(0, null).root;
+
+        ForkJoinPool pool = options.getPool() != null ? options.getPool() : ForkJoinPool.commonPool();
+        return pool.invoke(new ParseTask(parser, parts));
+    }
+
+    /**
+     * Finds the points the script is split at and the name of the root. The closing tag of the first child of
+     * the root is looked for, as the children of the root of a large script are usually records of the same name.
+     */
+    private int[] findSplitPoints(int parts) {
+        int chunkSize = script.length / parts;
+        char[] closeTag = scanFirstPart(chunkSize);
+
+        int[] points = new int[parts + 1];
+        int count = 1;
+
+        for (int i = 1; i < parts; i++) {
+            int from = Math.max(i * chunkSize, points[count - 1] + 1);
+            int point = closeTag == null ? -1 : indexAfter(closeTag, from);
+            if (point < 0) point = indexAfterCloseTag(from);
+            if (point < 0 || point >= script.length) break;
+            if (point > points[count - 1]) points[count++] = point;
+        }
+
+        points[count++] = script.length;
+        return count == points.length ? points : Arrays.copyOf(points, count);
+    }
+
+    private char[] scanFirstPart(int limit) {
+        try {
+            XmlPullParser parser = XmlPullParser.forFragment(script, 0, Math.min(limit, script.length), null, nameTable);
+            if (parser.next() != XmlEvent.START_TAG) return null;
+            rootName = parser.getName();
+
+            XmlEvent event;
+            while ((event = parser.next()) != XmlEvent.END_DOCUMENT)
+                if (event == XmlEvent.START_TAG) return ("</" + parser.getName() + ">").toCharArray();
+
+            return null;
+        } catch (IOException e) {
+            //A script in memory is never read from a stream.
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private int indexAfter(char[] pattern, int from) {
+        int last = script.length - pattern.length;
+
+        for (int i = from; i <= last; i++) {
+            if (script[i] != pattern[0]) continue;
+
+            int j = 1;
+            while (j < pattern.length && script[i + j] == pattern[j]) j++;
+            if (j == pattern.length) return i + pattern.length;
+        }
+
+        return -1;
+    }
+
+    private int indexAfterCloseTag(int from) {
+        for (int i = from; i < script.length - 1; i++) {
+            if (script[i] != '<' || script[i + 1] != '/') continue;
+
+            for (int j = i + 2; j < script.length; j++)
+                if (script[j] == '>') return j + 1;
+            return -1;
+        }
+
+        return -1;
+    }
+
+    /**
+     * Parses a part of the script under a stand-in of the root, or the first part with its real root.
+     */
+    private Part parsePart(int start, int end, String rootName) {
+        try {
+            XmlPullParser parser = XmlPullParser.forFragment(script, start, end, rootName, nameTable);
+            XmlObject root;
+
+            if (rootName == null) {
+                if (parser.next() == XmlEvent.END_DOCUMENT)
+                    throw new IllegalStateException("No match found");
+                root = XmlObject.createNewObject(parser, null, lazyAttributes);
+            } else {
+                root = new XmlObject(rootName, "", null);
+            }
+
+            XmlObject.parseContent(parser, root, lazyAttributes);
+            return new Part(root, parser.endsAtTopLevel());
+        } catch (IOException e) {
+            //A script in memory is never read from a stream.
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private Part parseSequentially(int start, String rootName) {
+        return parsePart(start, script.length, rootName);
+    }
+
+    /**
+     * Moves the texts and children of a parsed part under the root.
+     */
+    private static void append(XmlObject root, XmlObject part) {
+        ArrayList<XmlObject> nodes = new ArrayList<>(part.getNodesCount());
+        for (int i = 0; i < part.getNodesCount(); i++) nodes.add(part.getNode(i));
+
+        root.addText(part.getTextPart(0));
+        for (int i = 0; i < nodes.size(); i++) {
+            root.addNode(nodes.get(i));
+            root.addText(part.getTextPart(i + 1));
+        }
+    }
+
+    /**
+     * The tree of a part and whether the next part can be trusted.
+     */
+    private static final class Part {
+        final XmlObject root;
+        final boolean endsAtTopLevel;
+
+        Part(XmlObject root, boolean endsAtTopLevel) {
+            this.root = root;
+            this.endsAtTopLevel = endsAtTopLevel;
+        }
+    }
+
+    /**
+     * Parses the first part in the current thread while the other parts are forked, then joins them in order.
+     */
+    private static final class ParseTask extends RecursiveTask<XmlObject> {
+        private final XmlParallelParser parser;
+        private final int parts;
+
+        ParseTask(XmlParallelParser parser, int parts) {
+            this.parser = parser;
+            this.parts = parts;
+        }
+
+        @Override
+        protected XmlObject compute() {
+            int[] points = parser.findSplitPoints(parts);
+            if (points.length <= 2 || parser.rootName == null) return parser.parseSequentially(0, null).root;
+
+            PartTask[] tasks = new PartTask[points.length - 2];
+            for (int i = tasks.length - 1; i >= 0; i--) {
+                tasks[i] = new PartTask(parser, points[i + 1], points[i + 2], parser.rootName);
+                tasks[i].fork();
+            }
+
+            //The first part finds the root again with its attributes.
+            Part first = parser.parsePart(0, points[1], null);
+            XmlObject root = first.root;
+            if (!first.endsAtTopLevel) {
+                cancel(tasks, 0);
+                return parser.parseSequentially(0, null).root;
+            }
+
+            for (int i = 0; i < tasks.length; i++) {
+                Part part = tasks[i].join();
+                boolean last = i == tasks.length - 1;
+
+                if (!last && !part.endsAtTopLevel) {
+                    cancel(tasks, i + 1);
+                    append(root, parser.parseSequentially(points[i + 1], parser.rootName).root);
+                    break;
+                }
+
+                append(root, part.root);
+            }
+
+            return root;
+        }
+
+        private static void cancel(PartTask[] tasks, int from) {
+            for (int i = from; i < tasks.length; i++) tasks[i].cancel(false);
+        }
+    }
+
+    private static final class PartTask extends RecursiveTask<Part> {
+        private final XmlParallelParser parser;
+        private final int start;
+        private final int end;
+        private final String rootName;
+
+        PartTask(XmlParallelParser parser, int start, int end, String rootName) {
+            this.parser = parser;
+            this.start = start;
+            this.end = end;
+            this.rootName = rootName;
+        }
+
+        @Override
+        protected Part compute() {
+            return parser.parsePart(start, end, rootName);
+        }
+    }
+}
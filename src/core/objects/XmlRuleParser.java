@@ -0,0 +1,162 @@
+package core.objects;
+
+import core.parsers.XmlParseOptions;
+import core.parsers.XmlPullParser;
+import flags.RuleType;
+import flags.XmlEvent;
+import interfaces.XmlTagRule;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/**
+ * Builds a tree out of the events of a pull parser like XmlObject.parseXml, running the rules of the options on
+ * each element when it is opened and closed. The elements dropped when they are opened are skipped with their
+ * content, so no object, text or attribute of them is ever created.
+ */
+final class XmlRuleParser {
+
+    private static final XmlTagRule<?>[] NO_RULES = new XmlTagRule<?>[0];
+
+    private final ArrayList<XmlTagRule<?>> openRules = new ArrayList<>();
+    private final ArrayList<XmlTagRule<?>> closeRules = new ArrayList<>();
+
+    //The rules of each tag name, found the first time the name is parsed.
+    private final HashMap<String, XmlTagRule<?>[]> openRulesByName = new HashMap<>();
+    private final HashMap<String, XmlTagRule<?>[]> closeRulesByName = new HashMap<>();
+
+    private XmlRuleParser(ArrayList<XmlTagRule<?>> rules) {
+        for (XmlTagRule<?> rule : rules) {
+            if (rule.getRuleType() == RuleType.PARSER_RULE) openRules.add(rule);
+            else closeRules.add(rule);
+        }
+    }
+
+    /**
+     * Builds an object out of the events of a pull parser, the name table of the options is set already.
+     *
+     * @param parser  The parser standing before the first tag of the script.
+     * @param options The options of the parsing, with at least one rule.
+     * @return An object that was created from the script.
+     * @throws IOException if reading the script failed.
+     */
+    static XmlObject parse(XmlPullParser parser, XmlParseOptions options) throws IOException {
+        return new XmlRuleParser(options.getRules()).parseScript(parser, options.isLazyAttributes());
+    }
+
+    private XmlObject parseScript(XmlPullParser parser, boolean lazyAttributes) throws IOException {
+        if (parser.next() == XmlEvent.END_DOCUMENT)
+            throw new IllegalStateException("No match found");
+
+        //The root is kept whatever its rules say, it is ended with the script.
+        XmlObject rootXmlObject = XmlObject.createNewObject(parser, null, lazyAttributes);
+        opened(rootXmlObject);
+
+        XmlObject currentXmlObject = rootXmlObject;
+        XmlEvent event;
+
+        while ((event = parser.next()) != XmlEvent.END_DOCUMENT) {
+            switch (event) {
+                case TEXT:
+                    currentXmlObject.addText(parser.getText());
+                    break;
+
+                case START_TAG:
+                    XmlObject node = XmlObject.createNewObject(parser, currentXmlObject, lazyAttributes);
+                    if (!opened(node)) {
+                        skipElement(parser);
+                        break;
+                    }
+                    currentXmlObject.addNode(node);
+                    currentXmlObject = node;
+                    break;
+
+                case END_TAG:
+                    XmlObject parent = currentXmlObject.getParentObject();
+                    if (!closed(currentXmlObject) && parent != null) removeLast(parent, currentXmlObject);
+                    if (parent != null) currentXmlObject = parent;
+                    break;
+
+                case COMMENT:
+                    XmlObject comment = XmlObject.createNewObject(parser, currentXmlObject, lazyAttributes);
+                    comment.addText(parser.getText());
+                    if (!opened(comment)) break;
+                    currentXmlObject.addNode(comment);
+                    if (!closed(comment)) removeLast(currentXmlObject, comment);
+                    break;
+            }
+        }
+
+        return rootXmlObject;
+    }
+
+    /**
+     * Runs the rules of an element that is opened.
+     *
+     * @return true if the element is kept.
+     */
+    private boolean opened(XmlObject object) {
+        return run(rulesOf(object.getTagName(), openRules, openRulesByName), object);
+    }
+
+    /**
+     * Runs the rules of an element that is closed.
+     *
+     * @return true if the element is kept.
+     */
+    private boolean closed(XmlObject object) {
+        return run(rulesOf(object.getTagName(), closeRules, closeRulesByName), object);
+    }
+
+    private static boolean run(XmlTagRule<?>[] rules, XmlObject object) {
+        for (XmlTagRule<?> rule : rules) {
+            rule.execute(object);
+            if (!rule.keep(object)) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Gets the rules of a tag name in the order they were added, the rules of all the elements included.
+     */
+    private static XmlTagRule<?>[] rulesOf(String tagName, ArrayList<XmlTagRule<?>> rules,
+                                           HashMap<String, XmlTagRule<?>[]> rulesByName) {
+        if (rules.isEmpty()) return NO_RULES;
+
+        XmlTagRule<?>[] found = rulesByName.get(tagName);
+        if (found == null) {
+            ArrayList<XmlTagRule<?>> matching = new ArrayList<>();
+            for (XmlTagRule<?> rule : rules)
+                if (rule.getTagName() == null || rule.getTagName().equals(tagName)) matching.add(rule);
+
+            found = matching.isEmpty() ? NO_RULES : matching.toArray(NO_RULES);
+            rulesByName.put(tagName, found);
+        }
+        return found;
+    }
+
+    /**
+     * Skips the events of the element of the current START_TAG up to its END_TAG.
+     */
+    private static void skipElement(XmlPullParser parser) throws IOException {
+        int depth = parser.getDepth() - 1;
+        XmlEvent event;
+
+        while ((event = parser.next()) != XmlEvent.END_DOCUMENT) {
+            if (event == XmlEvent.END_TAG && parser.getDepth() == depth) return;
+        }
+    }
+
+    /**
+     * Removes a node from its parent, it is the last node unless a rule added nodes to the parent.
+     */
+    private static void removeLast(XmlObject parent, XmlObject node) {
+        for (int i = parent.getNodesCount() - 1; i >= 0; i--) {
+            if (parent.getNode(i) == node) {
+                parent.removeNode(i);
+                return;
+            }
+        }
+    }
+}
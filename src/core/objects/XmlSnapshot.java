@@ -0,0 +1,536 @@
+package core.objects;
+
+import core.objects.XmlObject.ObjectAttribute;
+import exceptions.SnapshotVersionException;
+import flags.TagFlag;
+import flags.VisitResult;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * The binary snapshot format of XmlObject trees.
+ * <p>
+ * A snapshot starts with the magic bytes "R3XS", the version of the format as a varint and a flags byte, bit 0
+ * telling if the rest of the snapshot is deflated. The rest holds the count of objects, the table of the tag and
+ * attribute names, and the objects in the order of the script. Each object is its name index, its tag type, its
+ * attributes as name indexes and values, its count of children and its text parts, followed by its children.
+ * The counts and indexes are unsigned varints and the strings are a varint length followed by UTF-8 bytes, where
+ * lone surrogates are written as three bytes so every string is read back as it was.
+ * <p>
+ * Reading a snapshot only builds the objects, their attributes and texts are decoded out of the snapshot when
+ * they are first used, so the snapshot is kept while one of its objects has not been read.
+ */
+final class XmlSnapshot {
+
+    static final int VERSION = 1;
+
+    private static final byte[] MAGIC = {'R', '3', 'X', 'S'};
+    private static final int FLAG_COMPRESSED = 1;
+    private static final TagFlag[] TAG_FLAGS = TagFlag.values();
+
+    private XmlSnapshot() {
+    }
+
+    /**
+     * Writes the subtree of an object.
+     *
+     * @param root       The object.
+     * @param output     The stream the snapshot is written to, it is not closed.
+     * @param compressed true for deflating the snapshot.
+     * @throws IOException if writing failed.
+     */
+    static void write(XmlObject root, OutputStream output, boolean compressed) throws IOException {
+        output.write(MAGIC);
+        Writer header = new Writer(output);
+        header.writeVarint(VERSION);
+        header.writeByte(compressed ? FLAG_COMPRESSED : 0);
+        header.flush();
+
+        HashMap<String, Integer> names = new HashMap<>();
+        ArrayList<String> nameList = new ArrayList<>();
+        int[] count = new int[1];
+        root.walk((object, depth) -> {
+            count[0]++;
+            addName(names, nameList, object.getTagName());
+            XmlAttributeList attributes = object.attributes();
+            for (int i = 0; i < attributes.size(); i++) addName(names, nameList, attributes.get(i).getName());
+            return VisitResult.CONTINUE;
+        });
+
+        Deflater deflater = compressed ? new Deflater(Deflater.BEST_SPEED) : null;
+        try {
+            DeflaterOutputStream deflaterOutput = compressed ? new DeflaterOutputStream(output, deflater, 65536) : null;
+            writeContent(root, new Writer(compressed ? deflaterOutput : output), names, nameList, count[0]);
+            if (compressed) deflaterOutput.finish();
+        } finally {
+            if (deflater != null) deflater.end();
+        }
+        output.flush();
+    }
+
+    private static void writeContent(XmlObject root, Writer writer, HashMap<String, Integer> names, ArrayList<String> nameList, int count) throws IOException {
+        writer.writeVarint(count);
+        writer.writeVarint(nameList.size());
+        for (String name : nameList) writer.writeString(name);
+
+        IOException[] error = new IOException[1];
+        root.walk((object, depth) -> {
+            try {
+                writer.writeVarint(names.get(object.getTagName()));
+                writer.writeByte(object.getTagType() == null ? 0xFF : object.getTagType().ordinal());
+
+                XmlAttributeList attributes = object.attributes();
+                writer.writeVarint(attributes.size());
+                for (int i = 0; i < attributes.size(); i++) {
+                    ObjectAttribute attribute = attributes.get(i);
+                    writer.writeVarint(names.get(attribute.getName()));
+                    writer.writeNullableString(attribute.getValue());
+                }
+
+                int nodesCount = object.getNodesCount();
+                writer.writeVarint(nodesCount);
+                for (int i = 0; i <= nodesCount; i++) writer.writeString(object.getTextPart(i));
+                return VisitResult.CONTINUE;
+            } catch (IOException e) {
+                error[0] = e;
+                return VisitResult.STOP;
+            }
+        });
+        if (error[0] != null) throw error[0];
+        writer.flush();
+    }
+
+    private static void addName(HashMap<String, Integer> names, ArrayList<String> nameList, String name) {
+        if (names.putIfAbsent(name, nameList.size()) == null) nameList.add(name);
+    }
+
+    /**
+     * Reads a snapshot from a stream.
+     *
+     * @param input The stream, it is read to its end and not closed.
+     * @return The root object of the snapshot.
+     * @throws IOException if reading failed or the stream is not a snapshot.
+     */
+    static XmlObject read(InputStream input) throws IOException {
+        byte[] header = new byte[MAGIC.length];
+        readFully(input, header);
+        checkMagic(header);
+
+        int version = readVarint(input);
+        checkVersion(version);
+        int flags = input.read();
+        if (flags == -1) throw new IOException("The snapshot is truncated");
+
+        if ((flags & FLAG_COMPRESSED) == 0) return new Reader(readAll(input)).readTree();
+        return new Reader(inflate(input)).readTree();
+    }
+
+    /**
+     * Reads a snapshot file, an uncompressed snapshot is memory mapped and read in place.
+     *
+     * @param path The path of the file.
+     * @return The root object of the snapshot.
+     * @throws IOException if reading failed or the file is not a snapshot.
+     */
+    static XmlObject read(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE)
+                throw new IOException("The snapshot is too large to be mapped : " + channel.size() + " bytes");
+
+            ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            byte[] header = new byte[MAGIC.length];
+            if (buffer.remaining() < header.length) throw new IOException("The file is not a snapshot");
+            buffer.get(header);
+            checkMagic(header);
+
+            Reader reader = new Reader(buffer);
+            checkVersion(reader.readVarint());
+            int flags = reader.readByte();
+
+            if ((flags & FLAG_COMPRESSED) != 0) reader = new Reader(inflate(new ByteBufferInputStream(buffer)));
+            return reader.readTree();
+        }
+    }
+
+    private static void checkMagic(byte[] header) throws IOException {
+        if (!Arrays.equals(header, MAGIC)) throw new IOException("The data is not a snapshot");
+    }
+
+    private static void checkVersion(int version) {
+        if (version != VERSION)
+            throw new SnapshotVersionException("The snapshot has the version " + version + " while the version " + VERSION + " is read");
+    }
+
+    private static void readFully(InputStream input, byte[] bytes) throws IOException {
+        int length = 0;
+        while (length < bytes.length) {
+            int read = input.read(bytes, length, bytes.length - length);
+            if (read == -1) throw new IOException("The data is not a snapshot");
+            length += read;
+        }
+    }
+
+    private static int readVarint(InputStream input) throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            int b = input.read();
+            if (b == -1) throw new IOException("The snapshot is truncated");
+            value |= (b & 0x7F) << shift;
+            if (b < 0x80) return value;
+        }
+        throw new IOException("The snapshot is corrupted");
+    }
+
+    private static ByteBuffer inflate(InputStream input) throws IOException {
+        Inflater inflater = new Inflater();
+        try {
+            return readAll(new InflaterInputStream(input, inflater, 65536));
+        } finally {
+            inflater.end();
+        }
+    }
+
+    private static ByteBuffer readAll(InputStream input) throws IOException {
+        byte[] bytes = new byte[65536];
+        int length = 0;
+        int read;
+
+        while ((read = input.read(bytes, length, bytes.length - length)) != -1) {
+            length += read;
+            if (length == bytes.length) {
+                if (length >= Integer.MAX_VALUE / 2) throw new IOException("The snapshot is too large");
+                bytes = Arrays.copyOf(bytes, length * 2);
+            }
+        }
+
+        return ByteBuffer.wrap(bytes, 0, length);
+    }
+
+    /**
+     * Writes the varints and strings of a snapshot through its own buffer.
+     */
+    private static final class Writer {
+        private final OutputStream output;
+        private final byte[] buffer = new byte[65536];
+        private int length;
+
+        Writer(OutputStream output) {
+            this.output = output;
+        }
+
+        void writeByte(int b) throws IOException {
+            if (length == buffer.length) flush();
+            buffer[length++] = (byte) b;
+        }
+
+        void writeVarint(int value) throws IOException {
+            if (buffer.length - length < 5) flush();
+            while ((value & ~0x7F) != 0) {
+                buffer[length++] = (byte) ((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            buffer[length++] = (byte) value;
+        }
+
+        void writeNullableString(String string) throws IOException {
+            if (string == null) {
+                writeVarint(0);
+                return;
+            }
+            writeString(string, 1);
+        }
+
+        void writeString(String string) throws IOException {
+            writeString(string, 0);
+        }
+
+        /**
+         * Writes the byte length plus a bias, then the bytes.
+         */
+        private void writeString(String string, int bias) throws IOException {
+            int byteLength = 0;
+            for (int i = 0; i < string.length(); i++) {
+                char c = string.charAt(i);
+                if (c < 0x80) byteLength++;
+                else if (c < 0x800) byteLength += 2;
+                else if (Character.isHighSurrogate(c) && i + 1 < string.length() && Character.isLowSurrogate(string.charAt(i + 1))) {
+                    byteLength += 4;
+                    i++;
+                } else byteLength += 3;
+            }
+
+            writeVarint(byteLength + bias);
+
+            for (int i = 0; i < string.length(); i++) {
+                if (buffer.length - length < 4) flush();
+                char c = string.charAt(i);
+
+                if (c < 0x80) {
+                    buffer[length++] = (byte) c;
+                } else if (c < 0x800) {
+                    buffer[length++] = (byte) (0xC0 | (c >> 6));
+                    buffer[length++] = (byte) (0x80 | (c & 0x3F));
+                } else if (Character.isHighSurrogate(c) && i + 1 < string.length() && Character.isLowSurrogate(string.charAt(i + 1))) {
+                    int codePoint = Character.toCodePoint(c, string.charAt(++i));
+                    buffer[length++] = (byte) (0xF0 | (codePoint >> 18));
+                    buffer[length++] = (byte) (0x80 | ((codePoint >> 12) & 0x3F));
+                    buffer[length++] = (byte) (0x80 | ((codePoint >> 6) & 0x3F));
+                    buffer[length++] = (byte) (0x80 | (codePoint & 0x3F));
+                } else {
+                    buffer[length++] = (byte) (0xE0 | (c >> 12));
+                    buffer[length++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+                    buffer[length++] = (byte) (0x80 | (c & 0x3F));
+                }
+            }
+        }
+
+        void flush() throws IOException {
+            output.write(buffer, 0, length);
+            length = 0;
+        }
+    }
+
+    /**
+     * Reads the objects of a snapshot out of a buffer, which may be a mapped file.
+     */
+    private static final class Reader {
+        private final ByteBuffer buffer;
+        private byte[] bytes = new byte[64];
+        private char[] chars = new char[64];
+
+        Reader(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        int readByte() throws IOException {
+            if (!buffer.hasRemaining()) throw new IOException("The snapshot is truncated");
+            return buffer.get() & 0xFF;
+        }
+
+        int readVarint() throws IOException {
+            int value = 0;
+            for (int shift = 0; shift < 35; shift += 7) {
+                int b = readByte();
+                value |= (b & 0x7F) << shift;
+                if (b < 0x80) return value;
+            }
+            throw new IOException("The snapshot is corrupted");
+        }
+
+        String readString() throws IOException {
+            return readString(readVarint());
+        }
+
+        String readNullableString() throws IOException {
+            int length = readVarint();
+            return length == 0 ? null : readString(length - 1);
+        }
+
+        void skipString() throws IOException {
+            skip(readVarint());
+        }
+
+        void skipNullableString() throws IOException {
+            int length = readVarint();
+            if (length != 0) skip(length - 1);
+        }
+
+        private void skip(int byteLength) throws IOException {
+            if (byteLength > buffer.remaining()) throw new IOException("The snapshot is truncated");
+            buffer.position(buffer.position() + byteLength);
+        }
+
+        private String readString(int byteLength) throws IOException {
+            if (byteLength == 0) return "";
+            if (byteLength > buffer.remaining()) throw new IOException("The snapshot is truncated");
+            if (bytes.length < byteLength) bytes = new byte[Math.max(byteLength, bytes.length * 2)];
+            buffer.get(bytes, 0, byteLength);
+
+            int ascii = 0;
+            while (ascii < byteLength && bytes[ascii] >= 0) ascii++;
+            //Most strings are ASCII, their bytes are their characters.
+            if (ascii == byteLength) return new String(bytes, 0, byteLength, StandardCharsets.ISO_8859_1);
+
+            if (chars.length < byteLength) chars = new char[Math.max(byteLength, chars.length * 2)];
+            for (int i = 0; i < ascii; i++) chars[i] = (char) bytes[i];
+            int count = ascii;
+
+            for (int i = ascii; i < byteLength; ) {
+                int b = bytes[i++];
+                if (b >= 0) {
+                    chars[count++] = (char) b;
+                } else if ((b & 0xE0) == 0xC0) {
+                    chars[count++] = (char) (((b & 0x1F) << 6) | (byteAt(i++, byteLength) & 0x3F));
+                } else if ((b & 0xF0) == 0xE0) {
+                    chars[count++] = (char) (((b & 0x0F) << 12) | ((byteAt(i++, byteLength) & 0x3F) << 6)
+                            | (byteAt(i++, byteLength) & 0x3F));
+                } else {
+                    int codePoint = ((b & 0x07) << 18) | ((byteAt(i++, byteLength) & 0x3F) << 12)
+                            | ((byteAt(i++, byteLength) & 0x3F) << 6) | (byteAt(i++, byteLength) & 0x3F);
+                    chars[count++] = Character.highSurrogate(codePoint);
+                    chars[count++] = Character.lowSurrogate(codePoint);
+                }
+            }
+
+            return new String(chars, 0, count);
+        }
+
+        private int byteAt(int index, int byteLength) throws IOException {
+            if (index >= byteLength) throw new IOException("The snapshot is corrupted");
+            return bytes[index];
+        }
+
+        XmlObject readTree() throws IOException {
+            int count = readVarint();
+            String[] names = new String[readVarint()];
+            for (int i = 0; i < names.length; i++) names[i] = readString();
+            Source source = new Source(buffer.duplicate(), names);
+
+            XmlObject[] parents = new XmlObject[16];
+            int[] remaining = new int[16];
+            int depth = -1;
+            XmlObject root = null;
+
+            for (int n = 0; n < count; n++) {
+                XmlObject parent = depth >= 0 ? parents[depth] : null;
+                String tagName = name(names, readVarint());
+                int tagType = readByte();
+
+                //The attributes and texts are only checked here, the object reads them when they are used.
+                int position = buffer.position();
+                int attributeCount = readVarint();
+                for (int i = 0; i < attributeCount; i++) {
+                    name(names, readVarint());
+                    skipNullableString();
+                }
+
+                int nodesCount = readVarint();
+                for (int i = 0; i <= nodesCount; i++) skipString();
+
+                XmlObject object = new XmlObject(tagName, tagType == 0xFF ? null : TAG_FLAGS[tagType],
+                        parent, new ArrayList<>(nodesCount), source, position);
+
+                if (parent == null) {
+                    if (root != null) throw new IOException("The snapshot is corrupted");
+                    root = object;
+                } else {
+                    parent.getXmlNodesList().add(object);
+                    remaining[depth]--;
+                }
+
+                if (nodesCount > 0) {
+                    if (++depth == parents.length) {
+                        parents = Arrays.copyOf(parents, depth * 2);
+                        remaining = Arrays.copyOf(remaining, depth * 2);
+                    }
+                    parents[depth] = object;
+                    remaining[depth] = nodesCount;
+                } else {
+                    while (depth >= 0 && remaining[depth] == 0) parents[depth--] = null;
+                }
+            }
+
+            if (root == null || depth >= 0) throw new IOException("The snapshot is truncated");
+            return root;
+        }
+
+        private static String name(String[] names, int index) throws IOException {
+            if (index >= names.length) throw new IOException("The snapshot is corrupted");
+            return names[index];
+        }
+    }
+
+    /**
+     * The buffer a snapshot was read from, the attributes and texts of its objects are decoded out of it when
+     * they are first used. Each read works on its own view of the buffer, so the objects of one snapshot can be
+     * read by several threads.
+     */
+    static final class Source {
+        private final ByteBuffer buffer;
+        private final String[] names;
+
+        Source(ByteBuffer buffer, String[] names) {
+            this.buffer = buffer;
+            this.names = names;
+        }
+
+        /**
+         * Reads the attributes of the object whose attributes start at a position.
+         */
+        XmlAttributeList readAttributes(int position) {
+            Reader reader = reader(position);
+            try {
+                int count = reader.readVarint();
+                XmlAttributeList attributes = new XmlAttributeList(count);
+                for (int i = 0; i < count; i++)
+                    attributes.add(new ObjectAttribute(names[reader.readVarint()], reader.readNullableString()));
+                return attributes;
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        /**
+         * Reads the texts of the object whose attributes start at a position, they follow its attributes.
+         */
+        ArrayList<String> readTexts(int position) {
+            Reader reader = reader(position);
+            try {
+                int count = reader.readVarint();
+                for (int i = 0; i < count; i++) {
+                    reader.readVarint();
+                    reader.skipNullableString();
+                }
+
+                int nodesCount = reader.readVarint();
+                ArrayList<String> texts = new ArrayList<>(nodesCount + 1);
+                for (int i = 0; i <= nodesCount; i++) texts.add(reader.readString());
+                return texts;
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        private Reader reader(int position) {
+            ByteBuffer view = buffer.duplicate();
+            view.position(position);
+            return new Reader(view);
+        }
+    }
+
+    private static final class ByteBufferInputStream extends InputStream {
+        private final ByteBuffer buffer;
+
+        ByteBufferInputStream(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public int read() {
+            return buffer.hasRemaining() ? buffer.get() & 0xFF : -1;
+        }
+
+        @Override
+        public int read(byte[] bytes, int offset, int length) {
+            if (!buffer.hasRemaining()) return -1;
+            length = Math.min(length, buffer.remaining());
+            buffer.get(bytes, offset, length);
+            return length;
+        }
+    }
+}
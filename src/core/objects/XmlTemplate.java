@@ -0,0 +1,420 @@
+package core.objects;
+
+import core.objects.XmlObject.ObjectAttribute;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * A XmlObject tree compiled once into the bytes of its script, for writing many documents that differ in a few
+ * texts and attribute values only.
+ * <p>
+ * The texts and attribute values of the tree may hold placeholders like <code>${name}</code>. The tree is
+ * written as {@link XmlObject#writeTo(Appendable)} writes it and the script is cut at the placeholders into
+ * encoded segments, so writing a document writes the segments and the escaped values bound to the placeholders,
+ * and nothing else is built again. The layout is fixed when the template is compiled, the values are written
+ * as they are without trimming their lines, and a placeholder may be used more than once.
+ * <pre>
+ * XmlTemplate template = XmlTemplate.compile(XmlObject.parseXml("&lt;user id=\"${id}\"&gt;${name}&lt;/user&gt;"));
+ * XmlTemplate.Binding binding = template.newBinding();
+ * template.render(binding.set("id", "7").set("name", "Sam"), outputStream);
+ * </pre>
+ * A template is never changed after it was compiled so it can be used by any count of threads, each with its
+ * own bindings.
+ */
+public final class XmlTemplate {
+
+    private static final int BUFFER_SIZE = 8192;
+    //The longest encoding of a character, as an escape or as UTF-8.
+    private static final int MAX_CHAR_BYTES = 6;
+
+    private final Charset charset;
+    private final boolean utf8;
+    private final byte[][] segments;
+    private final int[] holeSlots;
+    private final boolean[] holeInAttribute;
+    private final String[] placeholders;
+    private final HashMap<String, Integer> slots;
+
+    private XmlTemplate(Charset charset, ArrayList<String> segments, ArrayList<Integer> holeSlots,
+                        ArrayList<Boolean> holeInAttribute, ArrayList<String> placeholders) {
+        this.charset = charset;
+        this.utf8 = charset.equals(StandardCharsets.UTF_8);
+
+        this.segments = new byte[segments.size()][];
+        for (int i = 0; i < segments.size(); i++) this.segments[i] = segments.get(i).getBytes(charset);
+
+        this.holeSlots = new int[holeSlots.size()];
+        this.holeInAttribute = new boolean[holeSlots.size()];
+        for (int i = 0; i < holeSlots.size(); i++) {
+            this.holeSlots[i] = holeSlots.get(i);
+            this.holeInAttribute[i] = holeInAttribute.get(i);
+        }
+
+        this.placeholders = placeholders.toArray(new String[0]);
+        this.slots = new HashMap<>();
+        for (int i = 0; i < this.placeholders.length; i++) slots.put(this.placeholders[i], i);
+    }
+
+    /**
+     * Compiles a tree into a template writing UTF-8.
+     *
+     * @param tree The tree, it is not changed and can be changed after the compilation.
+     * @return The template.
+     */
+    public static XmlTemplate compile(XmlObject tree) {
+        return compile(tree, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Compiles a tree into a template, UTF-8 is encoded the fastest.
+     *
+     * @param tree    The tree, it is not changed and can be changed after the compilation.
+     * @param charset The charset of the written documents.
+     * @return The template.
+     */
+    public static XmlTemplate compile(XmlObject tree, Charset charset) {
+        Compiler compiler = new Compiler();
+        try {
+            compiler.appendTree(tree);
+        } catch (IOException e) {
+            //A StringBuilder never throws.
+            throw new UncheckedIOException(e);
+        }
+        compiler.segments.add(compiler.constant.toString());
+
+        return new XmlTemplate(charset, compiler.segments, compiler.holeSlots, compiler.holeInAttribute,
+                compiler.placeholders);
+    }
+
+    /**
+     * @return The names of the placeholders in the order they first appear in the script.
+     */
+    public ArrayList<String> getPlaceholders() {
+        return new ArrayList<>(Arrays.asList(placeholders));
+    }
+
+    /**
+     * Gets the slot of a placeholder, binding a value by its slot skips looking up its name.
+     *
+     * @param placeholder The name of the placeholder.
+     * @return The slot of the placeholder.
+     */
+    public int getSlot(String placeholder) {
+        Integer slot = slots.get(placeholder);
+        if (slot == null) throw new IllegalArgumentException("The template has no placeholder : " + placeholder);
+        return slot;
+    }
+
+    /**
+     * @return A new binding of the placeholders of this template, to be reused for writing many documents.
+     */
+    public Binding newBinding() {
+        return new Binding(this);
+    }
+
+    /**
+     * Writes a document with the values of a binding, the stream is not flushed nor closed.
+     *
+     * @param binding      The values of the placeholders, each placeholder must have a value.
+     * @param outputStream The stream to be written to.
+     * @throws IOException if writing to the stream failed.
+     */
+    public void render(Binding binding, OutputStream outputStream) throws IOException {
+        if (binding.template != this)
+            throw new IllegalArgumentException("The binding belongs to another template");
+
+        binding.out = outputStream;
+        binding.length = 0;
+        try {
+            for (int i = 0; i < holeSlots.length; i++) {
+                binding.writeBytes(segments[i]);
+
+                String value = binding.values[holeSlots[i]];
+                if (value == null)
+                    throw new IllegalStateException("The placeholder has no value : " + placeholders[holeSlots[i]]);
+                if (utf8) binding.writeUtf8(value, holeInAttribute[i]);
+                else binding.writeBytes(escape(value, holeInAttribute[i]).getBytes(charset));
+            }
+            binding.writeBytes(segments[holeSlots.length]);
+            binding.flush();
+        } finally {
+            binding.out = null;
+        }
+    }
+
+    /**
+     * Escapes the characters of a value that would end its text or attribute.
+     */
+    private static String escape(String value, boolean inAttribute) {
+        StringBuilder builder = new StringBuilder(value.length() + 16);
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            String escaped = escape(c, inAttribute);
+            if (escaped == null) builder.append(c);
+            else builder.append(escaped);
+        }
+        return builder.toString();
+    }
+
+    private static String escape(char c, boolean inAttribute) {
+        switch (c) {
+            case '&':
+                return "&amp;";
+            case '<':
+                return "&lt;";
+            case '>':
+                return "&gt;";
+            case '"':
+                return inAttribute ? "&quot;" : null;
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * The values bound to the placeholders of a template, with the buffer the documents are written through.
+     * A binding is used by one thread at a time, the setters return the binding so they can be chained.
+     */
+    public static final class Binding {
+
+        private final XmlTemplate template;
+        private final String[] values;
+        private final byte[] buffer = new byte[BUFFER_SIZE];
+        private int length;
+        private OutputStream out;
+
+        private Binding(XmlTemplate template) {
+            this.template = template;
+            this.values = new String[template.placeholders.length];
+        }
+
+        /**
+         * Binds a value to a placeholder.
+         *
+         * @param placeholder The name of the placeholder.
+         * @param value       The value, it is escaped when it is written.
+         * @return This binding.
+         */
+        public Binding set(String placeholder, String value) {
+            values[template.getSlot(placeholder)] = value;
+            return this;
+        }
+
+        /**
+         * Binds a value to a placeholder by its slot, see {@link XmlTemplate#getSlot(String)}.
+         *
+         * @param slot  The slot of the placeholder.
+         * @param value The value, it is escaped when it is written.
+         * @return This binding.
+         */
+        public Binding set(int slot, String value) {
+            values[slot] = value;
+            return this;
+        }
+
+        /**
+         * Removes the values of all the placeholders.
+         *
+         * @return This binding.
+         */
+        public Binding clear() {
+            Arrays.fill(values, null);
+            return this;
+        }
+
+        private void writeBytes(byte[] bytes) throws IOException {
+            if (bytes.length > buffer.length - length) {
+                flush();
+                if (bytes.length > buffer.length) {
+                    out.write(bytes);
+                    return;
+                }
+            }
+            System.arraycopy(bytes, 0, buffer, length, bytes.length);
+            length += bytes.length;
+        }
+
+        /**
+         * Escapes and encodes a value straight into the buffer.
+         */
+        private void writeUtf8(String value, boolean inAttribute) throws IOException {
+            byte[] buffer = this.buffer;
+            int length = this.length;
+
+            for (int i = 0; i < value.length(); i++) {
+                if (length > buffer.length - MAX_CHAR_BYTES) {
+                    this.length = length;
+                    flush();
+                    length = 0;
+                }
+
+                char c = value.charAt(i);
+                if (c < 0x80) {
+                    String escaped = c == '&' || c == '<' || c == '>' || c == '"' ? escape(c, inAttribute) : null;
+                    if (escaped == null) {
+                        buffer[length++] = (byte) c;
+                    } else {
+                        for (int j = 0; j < escaped.length(); j++) buffer[length++] = (byte) escaped.charAt(j);
+                    }
+                } else if (c < 0x800) {
+                    buffer[length++] = (byte) (0xC0 | c >> 6);
+                    buffer[length++] = (byte) (0x80 | c & 0x3F);
+                } else if (Character.isHighSurrogate(c) && i + 1 < value.length()
+                        && Character.isLowSurrogate(value.charAt(i + 1))) {
+                    int codePoint = Character.toCodePoint(c, value.charAt(++i));
+                    buffer[length++] = (byte) (0xF0 | codePoint >> 18);
+                    buffer[length++] = (byte) (0x80 | codePoint >> 12 & 0x3F);
+                    buffer[length++] = (byte) (0x80 | codePoint >> 6 & 0x3F);
+                    buffer[length++] = (byte) (0x80 | codePoint & 0x3F);
+                } else if (Character.isSurrogate(c)) {
+                    //A lone surrogate can not be encoded, it is replaced like String.getBytes replaces it.
+                    buffer[length++] = '?';
+                } else {
+                    buffer[length++] = (byte) (0xE0 | c >> 12);
+                    buffer[length++] = (byte) (0x80 | c >> 6 & 0x3F);
+                    buffer[length++] = (byte) (0x80 | c & 0x3F);
+                }
+            }
+
+            this.length = length;
+        }
+
+        private void flush() throws IOException {
+            if (length > 0) out.write(buffer, 0, length);
+            length = 0;
+        }
+    }
+
+    /**
+     * Writes a tree the way writeTo writes it, cutting the script at the placeholders.
+     */
+    private static final class Compiler {
+
+        final ArrayList<String> segments = new ArrayList<>();
+        final ArrayList<Integer> holeSlots = new ArrayList<>();
+        final ArrayList<Boolean> holeInAttribute = new ArrayList<>();
+        final ArrayList<String> placeholders = new ArrayList<>();
+        final HashMap<String, Integer> slots = new HashMap<>();
+        final StringBuilder constant = new StringBuilder();
+        private final StringBuilder text = new StringBuilder();
+
+        void appendTree(XmlObject root) throws IOException {
+            if (!appendTagOpen(root, 0)) return;
+
+            XmlObject[] objects = new XmlObject[16];
+            int[] positions = new int[16];
+            int top = 0;
+            objects[0] = root;
+
+            while (top >= 0) {
+                XmlObject current = objects[top];
+                int position = positions[top];
+
+                text.setLength(0);
+                XmlObject.writeText(text, current.getTextPart(position), top + 1);
+                appendPart(text, false);
+
+                if (position < current.getNodesCount()) {
+                    positions[top]++;
+                    XmlObject node = current.getNode(position);
+
+                    if (appendTagOpen(node, top + 1)) {
+                        if (++top == objects.length) {
+                            objects = Arrays.copyOf(objects, top * 2);
+                            positions = Arrays.copyOf(positions, top * 2);
+                        }
+                        objects[top] = node;
+                        positions[top] = 0;
+                    }
+                } else {
+                    XmlObject.writeIndent(constant, top);
+                    constant.append(current.buildTagClose()).append('\n');
+                    objects[top--] = null;
+                }
+            }
+        }
+
+        /**
+         * Appends the open tag of an object, or its open-close tag when it has neither text nor nodes.
+         *
+         * @return true if an open tag was appended and the content and close tag should follow.
+         */
+        private boolean appendTagOpen(XmlObject object, int depth) throws IOException {
+            XmlObject.writeIndent(constant, depth);
+            boolean empty = object.getTextPart(0).equals("") && object.getNodesCount() == 0;
+
+            //The tags without placeholders are written by the object itself, raw open tags included.
+            if ((!empty && object.getTagName().equals("comment")) || !hasPlaceholders(object)) {
+                constant.append(empty ? object.buildTagOpenClose() : object.buildTagOpen()).append('\n');
+                return !empty;
+            }
+
+            constant.append('<').append(object.getTagName());
+            XmlAttributeList attributes = object.attributes();
+            for (int i = 0; i < attributes.size(); i++) {
+                ObjectAttribute attribute = attributes.get(i);
+                constant.append(' ').append(attribute.getName()).append("=\"");
+                appendPart(String.valueOf(attribute.getValue()), true);
+                constant.append('"');
+            }
+            constant.append(empty ? "/>" : ">").append('\n');
+            return !empty;
+        }
+
+        private static boolean hasPlaceholders(XmlObject object) {
+            XmlAttributeList attributes = object.attributes();
+            for (int i = 0; i < attributes.size(); i++) {
+                String value = attributes.get(i).getValue();
+                if (value != null && value.contains("${")) return true;
+            }
+            return false;
+        }
+
+        /**
+         * Appends a text or an attribute value, each placeholder in it ends the current segment.
+         */
+        private void appendPart(CharSequence part, boolean inAttribute) {
+            int start = 0;
+            int length = part.length();
+
+            for (int i = 0; i + 1 < length; i++) {
+                if (part.charAt(i) != '$' || part.charAt(i + 1) != '{') continue;
+
+                int end = i + 2;
+                while (end < length && isNameChar(part.charAt(end))) end++;
+                //Anything else than ${name} is written as it is.
+                if (end == i + 2 || end == length || part.charAt(end) != '}') continue;
+
+                constant.append(part, start, i);
+                segments.add(constant.toString());
+                constant.setLength(0);
+
+                String name = part.subSequence(i + 2, end).toString();
+                Integer slot = slots.get(name);
+                if (slot == null) {
+                    slot = placeholders.size();
+                    slots.put(name, slot);
+                    placeholders.add(name);
+                }
+                holeSlots.add(slot);
+                holeInAttribute.add(inAttribute);
+
+                start = end + 1;
+                i = end;
+            }
+
+            constant.append(part, start, length);
+        }
+
+        private static boolean isNameChar(char c) {
+            return c >= 'a' && c <= 'z' || c >= 'A' && c <= 'Z' || c >= '0' && c <= '9' || c == '_' || c == '-' || c == '.';
+        }
+    }
+}
@@ -0,0 +1,135 @@
+package core.parsers;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * A reader that decodes a file directly from memory mapped windows of it.
+ * <p>
+ * The file is never copied into a string, only the mapped window is decoded into the buffer of the reader
+ * user. Files larger than the window size (2 GB at most) are mapped window after window.
+ */
+public class MappedFileReader extends Reader {
+
+    public static final int DEFAULT_WINDOW_SIZE = 1 << 28;
+    private static final int MINIMUM_REMAINING = 16;
+
+    private final FileChannel channel;
+    private final long fileSize;
+    private final int windowSize;
+    private final CharsetDecoder decoder;
+
+    private MappedByteBuffer window;
+    private long windowStart;
+    private boolean finished;
+
+    //The chars decoded when the buffer of the caller had no room for a whole character.
+    private final CharBuffer spill = (CharBuffer) CharBuffer.allocate(2).flip();
+
+    /**
+     * A global constructor
+     *
+     * @param path    The path of the file.
+     * @param charset The charset of the file.
+     * @throws IOException if the file can not be opened.
+     */
+    public MappedFileReader(Path path, Charset charset) throws IOException {
+        this(path, charset, DEFAULT_WINDOW_SIZE);
+    }
+
+    /**
+     * A global constructor
+     *
+     * @param path       The path of the file.
+     * @param charset    The charset of the file.
+     * @param windowSize The count of bytes mapped at once.
+     * @throws IOException if the file can not be opened.
+     */
+    public MappedFileReader(Path path, Charset charset, int windowSize) throws IOException {
+        if (windowSize < MINIMUM_REMAINING) throw new IllegalArgumentException("The window size should be at least 16 bytes");
+
+        this.channel = FileChannel.open(path, StandardOpenOption.READ);
+        this.fileSize = channel.size();
+        this.windowSize = windowSize;
+        this.decoder = charset.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+    }
+
+    @Override
+    public int read(char[] buffer, int offset, int length) throws IOException {
+        if (length == 0) return 0;
+        if (spill.hasRemaining()) return readSpill(buffer, offset, length);
+        if (finished) return -1;
+
+        CharBuffer target = CharBuffer.wrap(buffer, offset, length);
+
+        while (target.position() == offset) {
+            //Move the window when the rest of it may be a part of a character that continues in the next window.
+            if (window == null || (!isLastWindow() && window.remaining() < MINIMUM_REMAINING))
+                mapWindowAt(window == null ? 0 : windowStart + window.position());
+
+            boolean lastWindow = isLastWindow();
+            CoderResult result = decoder.decode(window, target, lastWindow);
+            if (result.isError()) result.throwException();
+
+            //A surrogate pair does not fit in a single free char, it is decoded aside and handed out char by char.
+            if (result.isOverflow() && target.position() == offset) {
+                spill.clear();
+                result = decoder.decode(window, spill, lastWindow);
+                if (result.isError()) result.throwException();
+                spill.flip();
+                if (spill.hasRemaining()) return readSpill(buffer, offset, length);
+            }
+
+            if (lastWindow && result.isUnderflow()) {
+                result = decoder.flush(target);
+                if (result.isOverflow() && target.position() == offset) {
+                    spill.clear();
+                    result = decoder.flush(spill);
+                    spill.flip();
+                    if (result.isUnderflow()) finished = true;
+                    if (spill.hasRemaining()) return readSpill(buffer, offset, length);
+                }
+                if (result.isUnderflow()) {
+                    finished = true;
+                    break;
+                }
+            }
+        }
+
+        int read = target.position() - offset;
+        return read == 0 ? -1 : read;
+    }
+
+    private int readSpill(char[] buffer, int offset, int length) {
+        int read = Math.min(length, spill.remaining());
+        spill.get(buffer, offset, read);
+        return read;
+    }
+
+    private boolean isLastWindow() {
+        return windowStart + window.limit() >= fileSize;
+    }
+
+    private void mapWindowAt(long position) throws IOException {
+        long size = Math.min(windowSize, fileSize - position);
+        windowStart = position;
+        window = channel.map(FileChannel.MapMode.READ_ONLY, position, size);
+    }
+
+    @Override
+    public void close() throws IOException {
+        window = null;
+        channel.close();
+    }
+}
@@ -0,0 +1,181 @@
+package core.parsers;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A symbol table for tag and attribute names.
+ * <p>
+ * Names are interned directly from the characters of the script, a string is only created the first time a
+ * name is seen, so all the elements of a parsed tree share the same name strings and names taken from the
+ * same table can be compared by identity.
+ * <p>
+ * The table can be shared between parsers and threads, lookups do not lock and only adding a new name is
+ * synchronized. A table holds a limited count of names so a table shared by many scripts does not grow
+ * forever, once it is full the new names are returned as strings that are not interned, see {@link #isFull()}.
+ */
+public class XmlNameTable {
+
+    private static final int INITIAL_CAPACITY = 64;
+    private static final int DEFAULT_MAX_SIZE = 1 << 16;
+
+    private volatile AtomicReferenceArray<Entry> entries;
+    private final int maxSize;
+    private int size;
+    private volatile boolean full;
+
+    /**
+     * A global constructor
+     */
+    public XmlNameTable() {
+        this(DEFAULT_MAX_SIZE);
+    }
+
+    /**
+     * A global constructor
+     *
+     * @param maxSize The count of names after which the new names are no longer interned.
+     */
+    public XmlNameTable(int maxSize) {
+        if (maxSize < 0) throw new IllegalArgumentException("The count of names can not be negative : " + maxSize);
+        this.entries = new AtomicReferenceArray<>(INITIAL_CAPACITY);
+        this.maxSize = maxSize;
+        this.full = maxSize == 0;
+    }
+
+    /**
+     * Gets the interned name of a part of a buffer, the name is added if it was not seen before and the table
+     * is not full.
+     *
+     * @param buffer The buffer holding the name.
+     * @param start  The index of the first character of the name.
+     * @param end    The index after the last character of the name.
+     * @return The interned name.
+     */
+    public String intern(char[] buffer, int start, int end) {
+        int hash = hash(buffer, start, end);
+        String name = find(entries, hash, buffer, start, end);
+        if (name != null) return name;
+
+        synchronized (this) {
+            name = find(entries, hash, buffer, start, end);
+            if (name == null) {
+                name = new String(buffer, start, end - start);
+                if (!full) add(name, hash);
+            }
+            return name;
+        }
+    }
+
+    /**
+     * Gets the interned copy of a name, the name is added if it was not seen before and the table is not full.
+     *
+     * @param name The name.
+     * @return The interned name.
+     */
+    public String intern(String name) {
+        int hash = name.hashCode();
+        for (Entry entry = bucket(entries, hash); entry != null; entry = entry.next)
+            if (entry.hash == hash && entry.name.equals(name)) return entry.name;
+
+        synchronized (this) {
+            for (Entry entry = bucket(entries, hash); entry != null; entry = entry.next)
+                if (entry.hash == hash && entry.name.equals(name)) return entry.name;
+
+            if (!full) add(name, hash);
+            return name;
+        }
+    }
+
+    /**
+     * Gets the interned name of a part of a buffer without adding it.
+     *
+     * @param buffer The buffer holding the name.
+     * @param start  The index of the first character of the name.
+     * @param end    The index after the last character of the name.
+     * @return The interned name or null if the name was never added.
+     */
+    public String find(char[] buffer, int start, int end) {
+        return find(entries, hash(buffer, start, end), buffer, start, end);
+    }
+
+    /**
+     * @return The count of names in the table.
+     */
+    public synchronized int size() {
+        return size;
+    }
+
+    /**
+     * Checks if the table is full. The names that were not added before are then not interned, two such names
+     * must be compared by their characters, and a name missing from the table may still be used by a tree.
+     *
+     * @return true if no more names are added to the table.
+     */
+    public boolean isFull() {
+        return full;
+    }
+
+    private static String find(AtomicReferenceArray<Entry> entries, int hash, char[] buffer, int start, int end) {
+        int length = end - start;
+
+        for (Entry entry = bucket(entries, hash); entry != null; entry = entry.next) {
+            if (entry.hash != hash || entry.name.length() != length) continue;
+
+            String name = entry.name;
+            int i = 0;
+            while (i < length && name.charAt(i) == buffer[start + i]) i++;
+            if (i == length) return name;
+        }
+
+        return null;
+    }
+
+    private static Entry bucket(AtomicReferenceArray<Entry> entries, int hash) {
+        return entries.get((hash ^ (hash >>> 16)) & (entries.length() - 1));
+    }
+
+    /**
+     * Adds a name, the entries are never changed so the lookups without lock always see complete buckets. A new
+     * entry is published as the head of its bucket, and a grown table is filled before it is published.
+     */
+    private void add(String name, int hash) {
+        AtomicReferenceArray<Entry> table = entries;
+
+        if (size >= table.length() * 3 / 4) {
+            AtomicReferenceArray<Entry> newTable = new AtomicReferenceArray<>(table.length() * 2);
+            for (int i = 0; i < table.length(); i++) {
+                for (Entry entry = table.get(i); entry != null; entry = entry.next) {
+                    int index = (entry.hash ^ (entry.hash >>> 16)) & (newTable.length() - 1);
+                    newTable.lazySet(index, new Entry(entry.name, entry.hash, newTable.get(index)));
+                }
+            }
+            entries = table = newTable;
+        }
+
+        int index = (hash ^ (hash >>> 16)) & (table.length() - 1);
+        table.set(index, new Entry(name, hash, table.get(index)));
+        if (++size >= maxSize) full = true;
+    }
+
+    /**
+     * Computes the same hash as String.hashCode() for a part of a buffer.
+     */
+    private static int hash(char[] buffer, int start, int end) {
+        int hash = 0;
+        for (int i = start; i < end; i++)
+            hash = 31 * hash + buffer[i];
+        return hash;
+    }
+
+    private static final class Entry {
+        final String name;
+        final int hash;
+        final Entry next;
+
+        Entry(String name, int hash, Entry next) {
+            this.name = name;
+            this.hash = hash;
+            this.next = next;
+        }
+    }
+}
@@ -0,0 +1,143 @@
+package core.parsers;
+
+import interfaces.XmlTagRule;
+
+import java.util.ArrayList;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * The options of XmlObject.parseXml, the setters return the options so they can be chained :
+ * <pre>
+ * XmlObject.parseXml(script, new XmlParseOptions().setLazyAttributes(true));
+ * </pre>
+ */
+public class XmlParseOptions {
+
+    private XmlNameTable nameTable;
+    private boolean lazyAttributes;
+    private int parallelism = 1;
+    private ForkJoinPool pool;
+    private int minChunkSize = 256 * 1024;
+    private final ArrayList<XmlTagRule<?>> rules = new ArrayList<>();
+
+    /**
+     * @return The table the names are interned in, or null if each parse uses its own table.
+     */
+    public XmlNameTable getNameTable() {
+        return nameTable;
+    }
+
+    /**
+     * Sets a name table shared by the parses using these options.
+     *
+     * @param nameTable The table the names are interned in, or null for a table per parse.
+     * @return These options.
+     */
+    public XmlParseOptions setNameTable(XmlNameTable nameTable) {
+        this.nameTable = nameTable;
+        return this;
+    }
+
+    /**
+     * @return true if the attributes of the parsed objects are only parsed when they are used.
+     */
+    public boolean isLazyAttributes() {
+        return lazyAttributes;
+    }
+
+    /**
+     * Sets whether each parsed object keeps its raw open tag and parses its attributes only when they are
+     * first used. The open tags of objects whose attributes are never handed out or changed are written
+     * back as they were in the script.
+     *
+     * @param lazyAttributes true for parsing the attributes on their first use.
+     * @return These options.
+     */
+    public XmlParseOptions setLazyAttributes(boolean lazyAttributes) {
+        this.lazyAttributes = lazyAttributes;
+        return this;
+    }
+
+    /**
+     * @return The count of parts a script is split into and parsed in parallel, 1 for a sequential parse.
+     */
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    /**
+     * Sets the count of parts a script in memory is split into and parsed in parallel. The script is split right
+     * after the closing tags of the children of the root element, a part that does not end at the top level of the
+     * root element is parsed again sequentially with the rest of the script, so the parsed tree is always the tree
+     * of a sequential parse. Scripts parsed with rules are always parsed sequentially.
+     *
+     * @param parallelism The count of parts, 1 for a sequential parse.
+     * @return These options.
+     */
+    public XmlParseOptions setParallelism(int parallelism) {
+        if (parallelism < 1)
+            throw new IllegalArgumentException("The parallelism must be positive : " + parallelism);
+        this.parallelism = parallelism;
+        return this;
+    }
+
+    /**
+     * @return The pool the parts are parsed in, or null for the common pool.
+     */
+    public ForkJoinPool getPool() {
+        return pool;
+    }
+
+    /**
+     * Sets the pool the parts of a parallel parse are parsed in.
+     *
+     * @param pool The pool, or null for the common pool.
+     * @return These options.
+     */
+    public XmlParseOptions setPool(ForkJoinPool pool) {
+        this.pool = pool;
+        return this;
+    }
+
+    /**
+     * @return The least count of characters of a part of a parallel parse.
+     */
+    public int getMinChunkSize() {
+        return minChunkSize;
+    }
+
+    /**
+     * Sets the least count of characters of a part of a parallel parse, smaller scripts are split into fewer parts
+     * so the parts are worth the cost of a task.
+     *
+     * @param minChunkSize The least count of characters of a part.
+     * @return These options.
+     */
+    public XmlParseOptions setMinChunkSize(int minChunkSize) {
+        if (minChunkSize < 1)
+            throw new IllegalArgumentException("The chunk size must be positive : " + minChunkSize);
+        this.minChunkSize = minChunkSize;
+        return this;
+    }
+
+    /**
+     * @return The rules run on the elements while they are parsed, in the order they run.
+     */
+    public ArrayList<XmlTagRule<?>> getRules() {
+        return rules;
+    }
+
+    /**
+     * Adds a rule run on the elements while they are parsed, see {@link abstraction.XmlRule}. The rules of an
+     * element run in the order they were added, and the first rule that does not keep the element ends its rules.
+     *
+     * @param rule The rule.
+     * @return These options.
+     */
+    public XmlParseOptions addRule(XmlTagRule<?> rule) {
+        if (rule == null || rule.getRuleType() == null)
+            throw new IllegalArgumentException("The rule has no type : " + rule);
+        rules.add(rule);
+        return this;
+    }
+}
@@ -0,0 +1,590 @@
+package core.parsers;
+
+import flags.TagFlag;
+import flags.XmlEvent;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+/**
+ * A pull parser that reads xml scripts as a sequence of events.
+ * <p>
+ * Each call to {@link #next()} moves to the next event, the name, attributes and text of the event
+ * can be read until the next call. The events follow the same rules XmlObject.parseXml uses for
+ * building its trees :
+ * <ul>
+ * <li>The first tag of the script is always reported as the START_TAG of the root.</li>
+ * <li>TEXT is the text between two useful tags and it belongs to the current element,
+ * useless tags are kept as a part of the text.</li>
+ * <li>Open-close tags are reported as a START_TAG followed by an END_TAG.</li>
+ * <li>A close tag only ends the current element if its name matches the current element or one of its parents,
+ * close tags of the root element are ignored.</li>
+ * <li>Comments are reported as one COMMENT event with the comment body as its text.</li>
+ * <li>The text after the last tag is ignored, and all the open elements are ended before END_DOCUMENT.</li>
+ * </ul>
+ * When reading from a Reader the script is read through a bounded buffer, so only the current tag and
+ * its preceding text are kept in memory.
+ * <p>
+ * Tag and attribute names are interned in a {@link XmlNameTable}, each parser has its own table unless
+ * a shared one is set, so equal names of the same parse are always the same string.
+ */
+public class XmlPullParser {
+
+    private final XmlTokenizer tokenizer;
+    private XmlNameTable nameTable = new XmlNameTable();
+
+    private XmlEvent event;
+    private boolean started;
+    private boolean ended;
+    private boolean inComment;
+    private TagFlag pendingTag;
+    private boolean pendingEnd;
+
+    private String[] openNames = new String[16];
+    private int depth;
+
+    private boolean fragment;
+    private int fragmentEnd;
+    private int fragmentDepth;
+    private boolean endsBeforeTag;
+    private boolean escaped;
+    private boolean endsAtTopLevel;
+
+    private String name;
+    private boolean emptyElementTag;
+    private int textStart;
+    private int textEnd;
+
+    private String commentName;
+    private long commentBodyStart;
+    private long commentBufferStart;
+    private int commentAttributeCount;
+    private int[] commentAttributes = new int[0];
+
+    /**
+     * A global constructor
+     *
+     * @param xmlScript The script required for parsing.
+     */
+    public XmlPullParser(String xmlScript) {
+        this(new XmlTokenizer(xmlScript));
+    }
+
+    /**
+     * A global constructor
+     *
+     * @param script The characters of the script required for parsing.
+     */
+    public XmlPullParser(char[] script) {
+        this(new XmlTokenizer(script));
+    }
+
+    /**
+     * A constructor for parsing a script while reading it.
+     *
+     * @param reader The reader of the script.
+     */
+    public XmlPullParser(Reader reader) {
+        this(new XmlTokenizer(reader));
+    }
+
+    /**
+     * A constructor for parsing a script while reading it.
+     *
+     * @param reader     The reader of the script.
+     * @param bufferSize The initial size of the read buffer.
+     */
+    public XmlPullParser(Reader reader, int bufferSize) {
+        this(new XmlTokenizer(reader, bufferSize));
+    }
+
+    /**
+     * A constructor for parsing a script while reading it.
+     *
+     * @param inputStream The stream of the script.
+     * @param charset     The charset of the script.
+     */
+    public XmlPullParser(InputStream inputStream, Charset charset) {
+        this(new XmlTokenizer(new InputStreamReader(inputStream, charset)));
+    }
+
+    /**
+     * A constructor for parsing the tags of a tokenizer.
+     *
+     * @param tokenizer The tokenizer of the script.
+     */
+    public XmlPullParser(XmlTokenizer tokenizer) {
+        this.tokenizer = tokenizer;
+    }
+
+    /**
+     * Creates a parser for a part of a script, like the parts of a script parsed in parallel. When the part does
+     * not end with the script the elements that are still open at its end are not ended, the parser moves to
+     * END_DOCUMENT directly. A part that ends with the script is ended like a whole script.
+     *
+     * @param script    The characters of the whole script.
+     * @param start     The index where the part starts.
+     * @param end       The index where the part ends.
+     * @param rootName  The name of the root element when the part starts inside the root element right after a
+     *                  tag, or null when the part starts at the beginning of the script.
+     * @param nameTable The table the names are interned in.
+     * @return The parser of the part.
+     */
+    public static XmlPullParser forFragment(char[] script, int start, int end, String rootName, XmlNameTable nameTable) {
+        return forFragment(script, start, end, rootName == null ? new String[0] : new String[]{rootName}, false, nameTable);
+    }
+
+    /**
+     * Creates a parser for a part of a script that starts right after a tag inside some open elements and ends
+     * where a tag of the whole script starts, like the content of an element that is parsed again after an edit.
+     * When the part does not end with the script the text before its end is reported as TEXT.
+     *
+     * @param script    The characters of the whole script.
+     * @param start     The index where the part starts.
+     * @param end       The index where the part ends.
+     * @param openNames The names of the elements open at the start of the part from the root down.
+     * @param nameTable The table the names are interned in.
+     * @return The parser of the part.
+     */
+    public static XmlPullParser forContent(char[] script, int start, int end, String[] openNames, XmlNameTable nameTable) {
+        return forFragment(script, start, end, openNames, true, nameTable);
+    }
+
+    private static XmlPullParser forFragment(char[] script, int start, int end, String[] openNames
+            , boolean endsBeforeTag, XmlNameTable nameTable) {
+        XmlPullParser parser = new XmlPullParser(new XmlTokenizer(script, start, end - start));
+        parser.setNameTable(nameTable);
+        parser.fragment = end < script.length;
+        parser.fragmentEnd = end;
+        parser.fragmentDepth = Math.max(openNames.length, 1);
+        parser.endsBeforeTag = endsBeforeTag;
+
+        if (openNames.length > 0) {
+            parser.started = true;
+            for (String openName : openNames) parser.push(nameTable.intern(openName));
+            parser.tokenizer.setMark(start);
+        }
+        return parser;
+    }
+
+    /**
+     * Checks, after END_DOCUMENT, if a part created by {@link #forFragment} or {@link #forContent} ended outside comments with the same
+     * elements open it started with, without ending any of them on the way, and if its tags are the same tags a
+     * parser of the whole script finds. A part of a script parsed in parallel must also end right after a tag.
+     * The events of the part are then the same events a parser of the whole script reports, and the next part
+     * of the script can be parsed on its own.
+     *
+     * @return true if the part ended at the level it started at.
+     */
+    public boolean endsAtTopLevel() {
+        return endsAtTopLevel;
+    }
+
+    /**
+     * @return The tokenizer of the script.
+     */
+    public XmlTokenizer getTokenizer() {
+        return tokenizer;
+    }
+
+    /**
+     * Sets the table the names are interned in, it should be set before the first event.
+     *
+     * @param nameTable The name table, it can be shared between parsers.
+     */
+    public void setNameTable(XmlNameTable nameTable) {
+        if (nameTable == null) throw new IllegalArgumentException("The name table can not be null");
+        this.nameTable = nameTable;
+    }
+
+    /**
+     * @return The table the names are interned in.
+     */
+    public XmlNameTable getNameTable() {
+        return nameTable;
+    }
+
+    /**
+     * Moves to the next event.
+     *
+     * @return The new event, END_DOCUMENT is returned when the script ends.
+     * @throws IOException if reading the script failed.
+     */
+    public XmlEvent next() throws IOException {
+        try {
+            event = nextEvent();
+            return event;
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    private XmlEvent nextEvent() {
+        if (pendingEnd) {
+            pendingEnd = false;
+            name = openNames[--depth];
+            return XmlEvent.END_TAG;
+        }
+
+        if (pendingTag != null) {
+            XmlEvent tagEvent = emitTag();
+            if (tagEvent != null) return tagEvent;
+        }
+
+        if (!started) {
+            started = true;
+            if (!tokenizer.nextToken()) return endDocument();
+
+            //The first tag is always the root whatever its type is.
+            name = tokenizer.getTagName(nameTable);
+            emptyElementTag = false;
+            push(name);
+            tokenizer.setMark(tokenizer.getTokenEnd());
+            return XmlEvent.START_TAG;
+        }
+
+        while (!ended && tokenizer.nextToken()) {
+            TagFlag flag = getTagFlag();
+            if (flag == TagFlag.Useless) continue;
+
+            if (flag == TagFlag.Comment_Close) {
+                inComment = false;
+                name = commentName;
+                textStart = (int) (commentBodyStart - tokenizer.getBufferStart());
+                textEnd = tokenizer.getTokenStart();
+                tokenizer.setMark(tokenizer.getTokenEnd());
+                return XmlEvent.COMMENT;
+            }
+
+            pendingTag = flag;
+            textStart = tokenizer.getMark();
+            textEnd = tokenizer.getTokenStart();
+            if (textEnd > textStart) return XmlEvent.TEXT;
+
+            XmlEvent tagEvent = emitTag();
+            if (tagEvent != null) return tagEvent;
+        }
+
+        if (fragment) {
+            if (ended) return endDocument();
+            ended = true;
+            endsAtTopLevel = started && !inComment && !escaped && depth == fragmentDepth
+                    && !tokenizer.isRangeEndReached() && (endsBeforeTag || tokenizer.getMark() == fragmentEnd);
+
+            //The text before a tag is not ignored, the script goes on after it.
+            textStart = tokenizer.getMark();
+            textEnd = fragmentEnd;
+            if (endsBeforeTag && started && !inComment && textEnd > textStart) return XmlEvent.TEXT;
+            return endDocument();
+        }
+
+        if (inComment) {
+            //A comment that is never closed has no text.
+            inComment = false;
+            name = commentName;
+            textStart = 0;
+            textEnd = 0;
+            return XmlEvent.COMMENT;
+        }
+
+        ended = true;
+        if (depth > 0) {
+            name = openNames[--depth];
+            return XmlEvent.END_TAG;
+        }
+
+        return endDocument();
+    }
+
+    /**
+     * Creates the events of the tag waiting after its preceding text.
+     *
+     * @return The event of the tag, or null if the tag has no event of its own.
+     */
+    private XmlEvent emitTag() {
+        TagFlag flag = pendingTag;
+        pendingTag = null;
+
+        if (flag == TagFlag.Comment_Open) {
+            inComment = true;
+            commentName = tokenizer.getTagName(nameTable);
+            commentBodyStart = tokenizer.getBufferStart() + tokenizer.getTokenEnd();
+            saveCommentAttributes();
+            //Keep the comment tag in the buffer until the comment ends.
+            tokenizer.setMark(tokenizer.getTokenStart());
+            return null;
+        }
+
+        tokenizer.setMark(tokenizer.getTokenEnd());
+
+        if (flag == TagFlag.Open || flag == TagFlag.Open_Close) {
+            name = tokenizer.getTagName(nameTable);
+            emptyElementTag = flag == TagFlag.Open_Close;
+            pendingEnd = emptyElementTag;
+            push(name);
+            return XmlEvent.START_TAG;
+        }
+
+        //Close tags of the root element do not end it.
+        if (depth > 1) {
+            if (depth == fragmentDepth) escaped = true;
+            name = openNames[--depth];
+            return XmlEvent.END_TAG;
+        }
+
+        return null;
+    }
+
+    private XmlEvent endDocument() {
+        ended = true;
+        name = null;
+        tokenizer.setMark(-1);
+        return XmlEvent.END_DOCUMENT;
+    }
+
+    /**
+     * Defines the current tag of the tokenizer whether it is open, close, open-close, comment or useless.
+     *
+     * @return The flag of the current tag.
+     */
+    private TagFlag getTagFlag() {
+        TagFlag tokenType = tokenizer.getTokenType();
+
+        if (!inComment) {
+            if (tokenType == TagFlag.Open_Close || tokenType == TagFlag.Comment_Open)
+                return tokenType;
+
+            if (tokenType == TagFlag.Open && tokenizer.isWordTag())
+                return tokenizer.isTagName("comment", true) ? TagFlag.Comment_Open : TagFlag.Open;
+
+            if (tokenType == TagFlag.Close && tokenizer.isPlainClose()) {
+                //The open names are interned, a name missing from the table can only match a name opened after
+                //the table was full, which is compared by its characters.
+                String closeName = tokenizer.findTagName(nameTable);
+                if (closeName != null) {
+                    for (int i = depth - 1; i >= 0; i--)
+                        if (openNames[i] == closeName) return TagFlag.Close;
+                } else if (nameTable.isFull()) {
+                    for (int i = depth - 1; i >= 0; i--)
+                        if (tokenizer.isTagName(openNames[i], false)) return TagFlag.Close;
+                }
+            }
+
+            return TagFlag.Useless;
+        }
+
+        if (tokenType == TagFlag.Comment_Close || (tokenType == TagFlag.Close && tokenizer.isTagName("comment", false)))
+            return TagFlag.Comment_Close;
+
+        return TagFlag.Useless;
+    }
+
+    private void push(String name) {
+        if (depth == openNames.length) openNames = Arrays.copyOf(openNames, depth * 2);
+        openNames[depth++] = name;
+    }
+
+    private void saveCommentAttributes() {
+        commentAttributeCount = tokenizer.getAttributeCount();
+        commentBufferStart = tokenizer.getBufferStart();
+        if (commentAttributes.length < commentAttributeCount * 4)
+            commentAttributes = new int[commentAttributeCount * 4];
+
+        for (int i = 0; i < commentAttributeCount; i++) {
+            commentAttributes[i * 4] = tokenizer.getAttributeNameStart(i);
+            commentAttributes[i * 4 + 1] = tokenizer.getAttributeNameEnd(i);
+            commentAttributes[i * 4 + 2] = tokenizer.getAttributeValueStart(i);
+            commentAttributes[i * 4 + 3] = tokenizer.getAttributeValueEnd(i);
+        }
+    }
+
+    /**
+     * @return The current event.
+     */
+    public XmlEvent getEvent() {
+        return event;
+    }
+
+    /**
+     * Gets the name of the current START_TAG, END_TAG or COMMENT event, comments written as "&lt;!--" are
+     * named "comment".
+     *
+     * @return The tag name.
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Gets the count of the open elements, the root element has a depth of 1.
+     *
+     * @return The depth of the current element.
+     */
+    public int getDepth() {
+        return depth;
+    }
+
+    /**
+     * @return true if the current START_TAG is an open-close tag, the next event is then its END_TAG.
+     */
+    public boolean isEmptyElementTag() {
+        return event == XmlEvent.START_TAG && emptyElementTag;
+    }
+
+    /**
+     * Gets the text of the current TEXT event or the body of the current COMMENT event.
+     *
+     * @return The text.
+     */
+    public String getText() {
+        if (event != XmlEvent.TEXT && event != XmlEvent.COMMENT) return null;
+        return new String(tokenizer.getScript(), textStart, textEnd - textStart);
+    }
+
+    /**
+     * @return The index of the '&lt;' character of the current START_TAG in the buffer.
+     */
+    public int getTagStart() {
+        return tokenizer.getTokenStart();
+    }
+
+    /**
+     * @return The index after the '&gt;' character of the current START_TAG in the buffer.
+     */
+    public int getTagEnd() {
+        return tokenizer.getTokenEnd();
+    }
+
+    /**
+     * @return The index of the first character of the current text in the buffer.
+     */
+    public int getTextStart() {
+        return textStart;
+    }
+
+    /**
+     * @return The index after the last character of the current text in the buffer.
+     */
+    public int getTextEnd() {
+        return textEnd;
+    }
+
+    /**
+     * @return The count of attributes of the current START_TAG or COMMENT event.
+     */
+    public int getAttributeCount() {
+        if (event == XmlEvent.COMMENT) return commentAttributeCount;
+        if (event == XmlEvent.START_TAG && depth > 0) return tokenizer.getAttributeCount();
+        return 0;
+    }
+
+    /**
+     * @param position The position of the attribute.
+     * @return The interned name of the attribute.
+     */
+    public String getAttributeName(int position) {
+        return nameTable.intern(tokenizer.getScript(), getAttributeNameStart(position), getAttributeNameEnd(position));
+    }
+
+    /**
+     * @param position The position of the attribute.
+     * @return The value of the attribute, attributes without values have an empty value.
+     */
+    public String getAttributeValue(int position) {
+        int start = getAttributeValueStart(position);
+        if (start == -1) return "";
+        return new String(tokenizer.getScript(), start, getAttributeValueEnd(position) - start);
+    }
+
+    /**
+     * Gets an attribute value by name.
+     *
+     * @param attributeName The name of the attribute.
+     * @return The value of the attribute or null if it does not exist.
+     */
+    public String getAttributeValue(String attributeName) {
+        char[] buffer = tokenizer.getScript();
+        int count = getAttributeCount();
+
+        for (int i = 0; i < count; i++) {
+            int start = getAttributeNameStart(i);
+            int nameLength = getAttributeNameEnd(i) - start;
+            if (nameLength != attributeName.length()) continue;
+
+            int j = 0;
+            while (j < nameLength && buffer[start + j] == attributeName.charAt(j)) j++;
+            if (j == nameLength) return getAttributeValue(i);
+        }
+
+        return null;
+    }
+
+    /**
+     * @param position The position of the attribute.
+     * @return The index of the first character of the attribute name in the buffer.
+     */
+    public int getAttributeNameStart(int position) {
+        if (event == XmlEvent.COMMENT) return commentOffset(position * 4);
+        return tokenizer.getAttributeNameStart(position);
+    }
+
+    /**
+     * @param position The position of the attribute.
+     * @return The index after the last character of the attribute name in the buffer.
+     */
+    public int getAttributeNameEnd(int position) {
+        if (event == XmlEvent.COMMENT) return commentOffset(position * 4 + 1);
+        return tokenizer.getAttributeNameEnd(position);
+    }
+
+    /**
+     * @param position The position of the attribute.
+     * @return The index of the first character of the attribute value in the buffer, or -1 if it has no value.
+     */
+    public int getAttributeValueStart(int position) {
+        if (event == XmlEvent.COMMENT) return commentOffset(position * 4 + 2);
+        return tokenizer.getAttributeValueStart(position);
+    }
+
+    /**
+     * @param position The position of the attribute.
+     * @return The index after the last character of the attribute value in the buffer, or -1 if it has no value.
+     */
+    public int getAttributeValueEnd(int position) {
+        if (event == XmlEvent.COMMENT) return commentOffset(position * 4 + 3);
+        return tokenizer.getAttributeValueEnd(position);
+    }
+
+    /**
+     * Moves an offset of the saved comment tag to the current buffer.
+     */
+    private int commentOffset(int index) {
+        int offset = commentAttributes[index];
+        if (offset == -1) return -1;
+        return (int) (offset + commentBufferStart - tokenizer.getBufferStart());
+    }
+
+    /**
+     * Gets the buffer the offsets of the current event refer to.
+     *
+     * @return The buffer of the script.
+     */
+    public char[] getBuffer() {
+        return tokenizer.getScript();
+    }
+
+    /**
+     * Checks if the parser holds the whole script, in that case the buffer is never reused and
+     * the offsets stay valid after the parsing ends.
+     *
+     * @return true if the parser was created over the whole script.
+     */
+    public boolean isWholeScript() {
+        return tokenizer.isWholeScript();
+    }
+}
@@ -0,0 +1,608 @@
+package core.parsers;
+
+import flags.TagFlag;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.util.Arrays;
+
+/**
+ * A hand written single-pass tokenizer for xml scripts.
+ * <p>
+ * The tokenizer walks the script character by character and recognizes the same tags that
+ * {@link helpers.Regex#REGEX_TAG_ALL} recognizes (comment marks, open, close and open-close tags)
+ * without creating any regex matcher or intermediate string for the skipped text.
+ * <p>
+ * The tokenizer only gives the lexical type of the tag, the parser is responsible for deciding
+ * whether the tag is useful or not in its current context.
+ * <p>
+ * When created over a Reader the script is read into a bounded buffer, all the indexes given by the
+ * tokenizer are indexes in that buffer and stay valid until the next call to {@link #nextToken()}.
+ * The characters starting from the mark (see {@link #setMark(int)}) are kept in the buffer.
+ */
+public class XmlTokenizer {
+
+    public static final int DEFAULT_BUFFER_SIZE = 8192;
+
+    private final Reader reader;
+    private char[] script;
+    private int length;
+    private long bufferStart;
+    private boolean endOfScript;
+    private int position;
+    private int mark = -1;
+    private boolean rangeEndReached;
+    private int furthestIndex = -1;
+
+    private TagFlag tokenType;
+    private int tokenStart;
+    private int tokenEnd;
+    private int nameStart;
+    private int nameEnd;
+    private boolean plainClose;
+    private boolean selfClosing;
+
+    private int attributeCount;
+    private int[] attributeOffsets = new int[4 * 8];
+
+    /**
+     * A global constructor
+     *
+     * @param xmlScript The script required for tokenizing.
+     */
+    public XmlTokenizer(String xmlScript) {
+        this(xmlScript.toCharArray());
+    }
+
+    /**
+     * A global constructor
+     *
+     * @param script The characters of the script required for tokenizing.
+     */
+    public XmlTokenizer(char[] script) {
+        this(script, 0, script.length);
+    }
+
+    /**
+     * A constructor for tokenizing a part of a script, the indexes given by the tokenizer are
+     * indexes in the whole script.
+     *
+     * @param script The characters of the script.
+     * @param offset The index of the first character to be tokenized.
+     * @param count  The count of characters to be tokenized.
+     */
+    public XmlTokenizer(char[] script, int offset, int count) {
+        if (offset < 0 || count < 0 || offset + count > script.length)
+            throw new IndexOutOfBoundsException("Range [" + offset + ", " + (offset + count) + ") out of " + script.length);
+
+        this.reader = null;
+        this.script = script;
+        this.length = offset + count;
+        this.endOfScript = true;
+        this.position = offset;
+    }
+
+    /**
+     * A constructor for reading the script incrementally.
+     *
+     * @param reader The reader of the script.
+     */
+    public XmlTokenizer(Reader reader) {
+        this(reader, DEFAULT_BUFFER_SIZE);
+    }
+
+    /**
+     * A constructor for reading the script incrementally.
+     *
+     * @param reader     The reader of the script.
+     * @param bufferSize The initial size of the buffer, the buffer only grows when a single tag
+     *                   or marked text does not fit in it.
+     */
+    public XmlTokenizer(Reader reader, int bufferSize) {
+        this.reader = reader;
+        this.script = new char[Math.max(bufferSize, 16)];
+        this.length = 0;
+        this.endOfScript = false;
+        this.position = 0;
+    }
+
+    /**
+     * Checks if a tag was looked for past the end of the tokenized part of the script. When it was not, the
+     * tags found are the same tags a tokenizer of the whole script finds in that part.
+     *
+     * @return true if a character after the end of the tokenized part was required.
+     */
+    public boolean isRangeEndReached() {
+        return rangeEndReached;
+    }
+
+    /**
+     * Gets the highest index of the buffer that was looked at while finding the tags so far. The tags found up to
+     * now stay the same when only the characters after this index change.
+     *
+     * @return The highest index looked at, or -1 before the first tag is looked for.
+     */
+    public int getFurthestIndex() {
+        return furthestIndex;
+    }
+
+    /**
+     * Moves to the next tag in the script.
+     *
+     * @return true if a new tag was found, false if the end of the script was reached.
+     * @throws UncheckedIOException if reading the script failed.
+     */
+    public boolean nextToken() {
+        if (reader != null) compact();
+
+        int index = position;
+
+        //Reaching the end of the range here is not reported, no tag starts there.
+        while (index < length || (reader != null && fill(index))) {
+            char c = script[index];
+
+            if (c == '<') {
+                if (has(index + 3) && script[index + 1] == '!' && script[index + 2] == '-' && script[index + 3] == '-') {
+                    setCommentToken(TagFlag.Comment_Open, index, index + 4);
+                    return true;
+                }
+                if (scanTag(index)) return true;
+
+            } else if (c == '-') {
+                if (has(index + 2) && script[index + 1] == '-' && script[index + 2] == '>') {
+                    setCommentToken(TagFlag.Comment_Close, index, index + 3);
+                    return true;
+                }
+            }
+
+            index++;
+        }
+
+        position = length;
+        tokenType = null;
+        if (length - 1 > furthestIndex) furthestIndex = length - 1;
+        return false;
+    }
+
+    /**
+     * Checks if the character at the given index is available, reading more of the script if needed.
+     *
+     * @param index The index in the buffer.
+     * @return true if the index is inside the script.
+     */
+    private boolean has(int index) {
+        if (index > furthestIndex) furthestIndex = index;
+        return index < length || fill(index);
+    }
+
+    /**
+     * Reads from the reader until the given index is in the buffer, growing the buffer when it is full.
+     * The buffer is never moved here so the indexes held while scanning a tag stay valid.
+     */
+    private boolean fill(int index) {
+        try {
+            while (index >= length) {
+                if (endOfScript) {
+                    if (reader == null && index < script.length) rangeEndReached = true;
+                    return false;
+                }
+                if (length == script.length) script = Arrays.copyOf(script, script.length * 2);
+
+                int read = reader.read(script, length, script.length - length);
+                if (read == -1) {
+                    endOfScript = true;
+                    return false;
+                }
+                length += read;
+            }
+            return true;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Drops the characters that are before the mark and the current position when they take more than
+     * half of the buffer, so the buffer is reused instead of growing.
+     */
+    private void compact() {
+        int keep = mark >= 0 && mark < position ? mark : position;
+        if (keep < script.length / 2) return;
+
+        System.arraycopy(script, keep, script, 0, length - keep);
+        length -= keep;
+        position -= keep;
+        if (mark >= 0) mark -= keep;
+        bufferStart += keep;
+    }
+
+    /**
+     * Sets the current token to a comment mark.
+     */
+    private void setCommentToken(TagFlag type, int start, int end) {
+        tokenType = type;
+        tokenStart = start;
+        tokenEnd = end;
+        nameStart = start;
+        nameEnd = start;
+        plainClose = false;
+        attributeCount = 0;
+        position = end;
+    }
+
+    /**
+     * Tries to read a tag starting at the given '<' character.
+     * The accepted grammar is the one of REGEX_TAG_ALL :
+     * {@code <(/?)name(\s(attr(\s?=\s?quoted\s*?)|attr))*?\s*?/?>}
+     *
+     * @param start The index of the '<' character.
+     * @return true if a tag was read, false if the characters do not form a tag.
+     */
+    private boolean scanTag(int start) {
+        int index = start + 1;
+        boolean slash = false;
+
+        if (has(index) && script[index] == '/') {
+            slash = true;
+            index++;
+        }
+
+        int tagNameStart = index;
+        while (has(index) && isNameChar(script[index])) index++;
+        if (index == tagNameStart) return false;
+
+        tokenStart = start;
+        nameStart = tagNameStart;
+        nameEnd = index;
+
+        if (!scanAttributes(index)) return false;
+
+        if (selfClosing) tokenType = TagFlag.Open_Close;
+        else if (slash) tokenType = TagFlag.Close;
+        else tokenType = TagFlag.Open;
+
+        plainClose = slash && plainClose;
+        position = tokenEnd;
+        return true;
+    }
+
+    /**
+     * Reads the attributes and the end of a tag after the tag name in a single forward pass.
+     * A quoted value ends at its first closing quote. When the rest of the tag does not match, the tag is read on
+     * from the next quote of the last valued attribute after the mismatch, like the lazy value group of the regex
+     * is extended, but without going back over the characters already read, so a tag is read in a time linear in
+     * its length. The value itself still ends at its first closing quote, so {@code t="u"v="w"} has the attribute
+     * t with the value u, like the attributes were read out of the tag before.
+     *
+     * @param index The index after the tag name.
+     * @return true if the tag was completed.
+     */
+    private boolean scanAttributes(int index) {
+        int attribute = 0;
+        //Any count of white spaces may follow a valued attribute, only one may follow a name without a value.
+        boolean lastWasValued = false;
+        int lastValued = -1;
+
+        while (true) {
+            int spacesStart = index;
+            while (has(index) && isSpace(script[index])) index++;
+            int spaces = index - spacesStart;
+
+            if (has(index)) {
+                char c = script[index];
+
+                if (c == '>') {
+                    selfClosing = false;
+                    tokenEnd = index + 1;
+                    plainClose = attribute == 0 && spaces == 0;
+                    attributeCount = attribute;
+                    return true;
+                }
+
+                if (c == '/' && has(index + 1) && script[index + 1] == '>') {
+                    selfClosing = true;
+                    tokenEnd = index + 2;
+                    plainClose = false;
+                    attributeCount = attribute;
+                    return true;
+                }
+
+                if (c != '/' && spaces > 0 && (spaces == 1 || lastWasValued) && isAttributeNameChar(c)) {
+                    int attributeNameStart = index;
+                    while (has(index) && isAttributeNameChar(script[index])) index++;
+
+                    int offset = attribute * 4;
+                    if (offset + 4 > attributeOffsets.length)
+                        attributeOffsets = Arrays.copyOf(attributeOffsets, attributeOffsets.length * 2);
+                    attributeOffsets[offset] = attributeNameStart;
+                    attributeOffsets[offset + 1] = index;
+                    attributeOffsets[offset + 2] = -1;
+                    attributeOffsets[offset + 3] = -1;
+
+                    int quoteIndex = findValueQuote(index);
+                    int closeIndex = quoteIndex == -1 ? -1 : findQuote(quoteIndex + 1, script[quoteIndex]);
+                    lastWasValued = closeIndex != -1;
+                    if (lastWasValued) {
+                        attributeOffsets[offset + 2] = quoteIndex + 1;
+                        attributeOffsets[offset + 3] = closeIndex;
+                        lastValued = attribute;
+                        index = closeIndex + 1;
+                    }
+
+                    attribute++;
+                    continue;
+                }
+            }
+
+            //The rest of the tag does not match, the tag goes on after the next quote of the last value.
+            if (lastValued == -1) return false;
+            int closeIndex = findQuote(index, script[attributeOffsets[lastValued * 4 + 2] - 1]);
+            if (closeIndex == -1) return false;
+
+            attribute = lastValued + 1;
+            lastWasValued = true;
+            index = closeIndex + 1;
+        }
+    }
+
+    /**
+     * Finds the next quote of a kind.
+     *
+     * @return The index of the quote, or -1 if the script has no such quote after the index.
+     */
+    private int findQuote(int index, char quote) {
+        for (int i = index; has(i); i++)
+            if (script[i] == quote) return i;
+        return -1;
+    }
+
+    /**
+     * Tries to read {@code \s?=\s?("|')} after an attribute name.
+     *
+     * @param index The index right after the attribute name.
+     * @return The index of the opening quote, or -1 if there is no value.
+     */
+    private int findValueQuote(int index) {
+        if (has(index) && isSpace(script[index])) index++;
+        if (!has(index) || script[index] != '=') return -1;
+        index++;
+        if (has(index) && isSpace(script[index])) index++;
+        if (!has(index)) return -1;
+
+        char quote = script[index];
+        if (quote != '"' && quote != '\'') return -1;
+        return index;
+    }
+
+    /**
+     * Gets the lexical type of the current token.
+     * Comment_Open for "&lt;!--", Comment_Close for "--&gt;", Open_Close for tags ending with "/&gt;",
+     * Close for tags starting with "&lt;/" and Open for the rest.
+     *
+     * @return The type of the current token, or null if there is no current token.
+     */
+    public TagFlag getTokenType() {
+        return tokenType;
+    }
+
+    /**
+     * @return The index of the first character of the current token.
+     */
+    public int getTokenStart() {
+        return tokenStart;
+    }
+
+    /**
+     * @return The index after the last character of the current token.
+     */
+    public int getTokenEnd() {
+        return tokenEnd;
+    }
+
+    /**
+     * @return The index of the first character of the tag name.
+     */
+    public int getNameStart() {
+        return nameStart;
+    }
+
+    /**
+     * @return The index after the last character of the tag name.
+     */
+    public int getNameEnd() {
+        return nameEnd;
+    }
+
+    /**
+     * Checks if the current token is a close tag that has nothing but the tag name (like &lt;/div&gt;).
+     *
+     * @return true if the current token is a plain close tag.
+     */
+    public boolean isPlainClose() {
+        return plainClose;
+    }
+
+    /**
+     * @return The number of attributes in the current tag.
+     */
+    public int getAttributeCount() {
+        return attributeCount;
+    }
+
+    /**
+     * @param position The position of the attribute.
+     * @return The index of the first character of the attribute name.
+     */
+    public int getAttributeNameStart(int position) {
+        return attributeOffsets[position * 4];
+    }
+
+    /**
+     * @param position The position of the attribute.
+     * @return The index after the last character of the attribute name.
+     */
+    public int getAttributeNameEnd(int position) {
+        return attributeOffsets[position * 4 + 1];
+    }
+
+    /**
+     * @param position The position of the attribute.
+     * @return The index of the first character of the attribute value (without the quote),
+     * or -1 if the attribute has no value.
+     */
+    public int getAttributeValueStart(int position) {
+        return attributeOffsets[position * 4 + 2];
+    }
+
+    /**
+     * @param position The position of the attribute.
+     * @return The index of the closing quote of the attribute value, or -1 if the attribute has no value.
+     */
+    public int getAttributeValueEnd(int position) {
+        return attributeOffsets[position * 4 + 3];
+    }
+
+    /**
+     * Checks if the tag name starts with a word character (letter, digit or underscore).
+     *
+     * @return true if the tag name starts with a word character.
+     */
+    public boolean isWordTag() {
+        if (nameEnd == nameStart) return false;
+        char c = script[nameStart];
+        return c != '-';
+    }
+
+    /**
+     * Gets the tag name of the current token, comment marks are named "comment".
+     *
+     * @return The tag name.
+     */
+    public String getTagName() {
+        if (tokenType == TagFlag.Comment_Open || tokenType == TagFlag.Comment_Close) return "comment";
+        return new String(script, nameStart, nameEnd - nameStart);
+    }
+
+    /**
+     * Gets the interned tag name of the current token, comment marks are named "comment".
+     *
+     * @param nameTable The table the name is interned in.
+     * @return The interned tag name.
+     */
+    public String getTagName(XmlNameTable nameTable) {
+        if (tokenType == TagFlag.Comment_Open || tokenType == TagFlag.Comment_Close) return nameTable.intern("comment");
+        return nameTable.intern(script, nameStart, nameEnd);
+    }
+
+    /**
+     * Finds the tag name of the current token in a name table without adding it.
+     *
+     * @param nameTable The table the name is looked up in.
+     * @return The interned tag name or null if the table does not have it.
+     */
+    public String findTagName(XmlNameTable nameTable) {
+        if (tokenType == TagFlag.Comment_Open || tokenType == TagFlag.Comment_Close) return nameTable.intern("comment");
+        return nameTable.find(script, nameStart, nameEnd);
+    }
+
+    /**
+     * Compares the tag name of the current token without creating a new string.
+     *
+     * @param name       The name to be compared with.
+     * @param ignoreCase Whether the letters case should be ignored.
+     * @return true if the names are equal.
+     */
+    public boolean isTagName(String name, boolean ignoreCase) {
+        if (tokenType == TagFlag.Comment_Open || tokenType == TagFlag.Comment_Close)
+            return ignoreCase ? "comment".equalsIgnoreCase(name) : "comment".equals(name);
+
+        int nameLength = nameEnd - nameStart;
+        if (name.length() != nameLength) return false;
+
+        for (int i = 0; i < nameLength; i++) {
+            char a = script[nameStart + i];
+            char b = name.charAt(i);
+            if (a == b) continue;
+            if (!ignoreCase || Character.toLowerCase(a) != Character.toLowerCase(b)) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Gets the full text of the current token.
+     *
+     * @return A string containing the current token.
+     */
+    public String getToken() {
+        return new String(script, tokenStart, tokenEnd - tokenStart);
+    }
+
+    /**
+     * Gets a part of the script.
+     *
+     * @param start The start index.
+     * @param end   The end index.
+     * @return A string containing the characters between start and end.
+     */
+    public String getText(int start, int end) {
+        return new String(script, start, end - start);
+    }
+
+    /**
+     * Gets the buffer holding the script, when tokenizing a whole script this is the script itself.
+     *
+     * @return The buffer of the script.
+     */
+    public char[] getScript() {
+        return script;
+    }
+
+    /**
+     * Gets the position of the first character of the buffer in the whole script.
+     *
+     * @return The count of characters dropped from the buffer so far.
+     */
+    public long getBufferStart() {
+        return bufferStart;
+    }
+
+    /**
+     * Checks if the tokenizer holds the whole script, in that case the indexes never change
+     * and the buffer is the script itself.
+     *
+     * @return true if the tokenizer was created over the whole script.
+     */
+    public boolean isWholeScript() {
+        return reader == null;
+    }
+
+    /**
+     * Marks an index in the buffer, the characters starting from that index are kept in the buffer
+     * until the mark is moved. The mark is moved with the buffer when old characters are dropped.
+     *
+     * @param mark The index to be kept or -1 to remove the mark.
+     */
+    public void setMark(int mark) {
+        this.mark = mark;
+    }
+
+    /**
+     * @return The marked index in the buffer or -1 if there is no mark.
+     */
+    public int getMark() {
+        return mark;
+    }
+
+    private static boolean isSpace(char c) {
+        return c == ' ' || c == '\t' || c == '\n' || c == '\r' || c == '\f' || c == '\u000B';
+    }
+
+    private static boolean isNameChar(char c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') || c == '-' || c == '_';
+    }
+
+    private static boolean isAttributeNameChar(char c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || c == '-';
+    }
+}
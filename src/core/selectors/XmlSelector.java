@@ -0,0 +1,568 @@
+package core.selectors;
+
+import core.objects.XmlCursor;
+import core.objects.XmlDocument;
+import core.objects.XmlObject;
+import core.objects.XmlObjectCursor;
+import interfaces.XmlTreeCursor;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * A compiled query that finds elements in xml trees.
+ * <p>
+ * Two query syntaxes are compiled into the same matcher :
+ * <ul>
+ * <li>CSS selectors : {@code div.item > a[href]}, with type, universal, #id, .class and attribute selectors
+ * ({@code [a]}, {@code [a=v]}, {@code [a~=v]}, {@code [a^=v]}, {@code [a$=v]}, {@code [a*=v]}), the descendant
+ * and child combinators and selector lists separated by commas. The element the query runs on can be selected
+ * itself.</li>
+ * <li>An XPath subset : {@code //item[@id='x']/name}, with the / and // separators, name and * steps,
+ * {@code .} as the first step, the predicates {@code [@a]}, {@code [@a='v']} and {@code [@a!='v']}
+ * joined with "and", and paths joined with |. A path starting with / is matched from the element the
+ * query runs on, other paths from its children.</li>
+ * </ul>
+ * A query is compiled once and can be run on any number of trees. It is matched in a single top-down pass,
+ * each element carries the set of query steps its descendants can still match and subtrees that can not
+ * match anymore are skipped.
+ */
+public class XmlSelector {
+
+    private final String query;
+    private final Step[] steps;
+    private final long initialStates;
+    private final long descendantStates;
+
+    private XmlSelector(String query, ArrayList<Step> steps, long initialStates) {
+        this.query = query;
+        this.steps = steps.toArray(new Step[0]);
+        this.initialStates = initialStates;
+
+        long descendants = 0;
+        for (int i = 0; i < this.steps.length; i++)
+            if (this.steps[i].descendant) descendants |= 1L << i;
+        this.descendantStates = descendants;
+    }
+
+    /**
+     * Compiles a query. Queries with a '/', '|' or '@' outside brackets and quotes, or with a predicate starting
+     * with '@', are compiled as XPath and other queries as CSS selectors, so the attribute values of a CSS
+     * selector never decide its syntax. A single name is a CSS selector, use {@link #compileXPath(String)} for
+     * its XPath meaning.
+     *
+     * @param query The query.
+     * @return The compiled query.
+     * @throws IllegalArgumentException if the query is not valid.
+     */
+    public static XmlSelector compile(String query) {
+        if (isXPath(query)) return compileXPath(query);
+        return compileCss(query);
+    }
+
+    private static boolean isXPath(String query) {
+        if (query.trim().equals(".")) return true;
+
+        char quote = 0;
+        int depth = 0;
+        boolean predicateStart = false;
+
+        for (int i = 0; i < query.length(); i++) {
+            char c = query.charAt(i);
+            if (quote != 0) {
+                if (c == quote) quote = 0;
+                continue;
+            }
+
+            if (c == '"' || c == '\'') quote = c;
+            else if (c == '[') {
+                depth++;
+                predicateStart = true;
+                continue;
+            } else if (c == ']') depth = Math.max(depth - 1, 0);
+            else if ((c == '/' || c == '|') && depth == 0) return true;
+            else if (c == '@' && (depth == 0 || predicateStart)) return true;
+
+            if (!Character.isWhitespace(c)) predicateStart = false;
+        }
+        return false;
+    }
+
+    /**
+     * Compiles a CSS selector.
+     *
+     * @param query The selector.
+     * @return The compiled query.
+     * @throws IllegalArgumentException if the selector is not valid.
+     */
+    public static XmlSelector compileCss(String query) {
+        return new QueryReader(query).readCss();
+    }
+
+    /**
+     * Compiles an XPath query.
+     *
+     * @param query The path.
+     * @return The compiled query.
+     * @throws IllegalArgumentException if the path is not valid or uses an unsupported part of XPath.
+     */
+    public static XmlSelector compileXPath(String query) {
+        return new QueryReader(query).readXPath();
+    }
+
+    /**
+     * @return The query this selector was compiled from.
+     */
+    public String getQuery() {
+        return query;
+    }
+
+    /**
+     * Finds the matching elements in the subtree of an object.
+     *
+     * @param root The object the query runs on.
+     * @return The matching objects in the order of the script.
+     */
+    public ArrayList<XmlObject> select(XmlObject root) {
+        ArrayList<XmlObject> result = new ArrayList<>();
+        XmlObjectCursor cursor = new XmlObjectCursor(root);
+        evaluate(cursor, () -> result.add(cursor.getCurrent()));
+        return result;
+    }
+
+    /**
+     * Finds the first matching element in the subtree of an object.
+     *
+     * @param root The object the query runs on.
+     * @return The first matching object or null if there is no match.
+     */
+    public XmlObject selectFirst(XmlObject root) {
+        XmlObjectCursor cursor = new XmlObjectCursor(root);
+        return evaluate(cursor, () -> false) ? cursor.getCurrent() : null;
+    }
+
+    /**
+     * Finds the matching elements of a document.
+     *
+     * @param document The document.
+     * @return Cursors on the matching elements in the order of the script.
+     */
+    public ArrayList<XmlCursor> select(XmlDocument document) {
+        return select(document.getCursor());
+    }
+
+    /**
+     * Finds the matching elements in the subtree of an element of a document.
+     *
+     * @param root A cursor on the element the query runs on, it is not moved.
+     * @return Cursors on the matching elements in the order of the script.
+     */
+    public ArrayList<XmlCursor> select(XmlCursor root) {
+        ArrayList<XmlCursor> result = new ArrayList<>();
+        XmlCursor cursor = new XmlCursor(root.getDocument(), root.getIndex());
+        evaluate(cursor, () -> result.add(new XmlCursor(cursor.getDocument(), cursor.getIndex())));
+        return result;
+    }
+
+    /**
+     * Finds the first matching element of a document.
+     *
+     * @param document The document.
+     * @return A cursor on the first matching element or null if there is no match.
+     */
+    public XmlCursor selectFirst(XmlDocument document) {
+        return selectFirst(document.getCursor());
+    }
+
+    /**
+     * Finds the first matching element in the subtree of an element of a document.
+     *
+     * @param root A cursor on the element the query runs on, it is not moved.
+     * @return A cursor on the first matching element or null if there is no match.
+     */
+    public XmlCursor selectFirst(XmlCursor root) {
+        XmlCursor cursor = new XmlCursor(root.getDocument(), root.getIndex());
+        return evaluate(cursor, () -> false) ? cursor : null;
+    }
+
+    /**
+     * Matches the query against the subtree of the element a cursor stands on.
+     *
+     * @param cursor   The cursor, it is moved through the subtree and it is back on its element when
+     *                 the walk completes. When the listener stops the walk it stays on the last match.
+     * @param listener Called on each matching element.
+     * @return true if the listener stopped the walk.
+     */
+    public boolean evaluate(XmlTreeCursor cursor, OnMatchListener listener) {
+        long[] states = new long[16];
+        int depth = 0;
+        states[0] = initialStates;
+
+        while (true) {
+            long current = states[depth];
+            long childStates = current & descendantStates;
+            boolean matched = false;
+
+            for (long pending = current; pending != 0; pending &= pending - 1) {
+                int index = Long.numberOfTrailingZeros(pending);
+                Step step = steps[index];
+                if (!step.matches(cursor)) continue;
+
+                if (step.last) matched = true;
+                else childStates |= 1L << (index + 1);
+            }
+
+            if (matched && !listener.onMatch()) return true;
+
+            if (childStates != 0 && cursor.toFirstChild()) {
+                if (++depth == states.length) states = Arrays.copyOf(states, depth * 2);
+                states[depth] = childStates;
+                continue;
+            }
+
+            //Move to the next element that was not walked yet, the subtree of the first element is never left.
+            while (depth > 0 && !cursor.toNextSibling()) {
+                cursor.toParent();
+                depth--;
+            }
+            if (depth == 0) return false;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return query;
+    }
+
+    /**
+     * A listener for the elements matched by a query.
+     */
+    public interface OnMatchListener {
+        /**
+         * @return true to continue the walk, false to stop it.
+         */
+        boolean onMatch();
+    }
+
+    /**
+     * A part of a query that matches one element, the next step of the same query is matched
+     * against its children or all its descendants.
+     */
+    static final class Step {
+        private final String tagName;
+        private final Condition[] conditions;
+
+        //Whether the step may match any descendant of the previous step or only its children.
+        private boolean descendant;
+        //Whether the step is the last step of its query.
+        private boolean last;
+
+        /**
+         * @param tagName    The tag name or null for any element.
+         * @param conditions The attribute conditions.
+         */
+        Step(String tagName, ArrayList<Condition> conditions) {
+            this.tagName = tagName;
+            this.conditions = conditions.toArray(new Condition[0]);
+        }
+
+        boolean matches(XmlTreeCursor cursor) {
+            if (tagName != null && !tagName.equals(cursor.getTagName())) return false;
+            for (Condition condition : conditions)
+                if (!condition.matches(cursor.getAttributeValue(condition.name))) return false;
+            return true;
+        }
+    }
+
+    /**
+     * A condition on an attribute of an element.
+     */
+    static final class Condition {
+        static final int EXISTS = 0;
+        static final int EQUALS = 1;
+        static final int NOT_EQUALS = 2;
+        static final int CONTAINS_WORD = 3;
+        static final int STARTS_WITH = 4;
+        static final int ENDS_WITH = 5;
+        static final int CONTAINS = 6;
+
+        private final String name;
+        private final int operator;
+        private final String value;
+
+        Condition(String name, int operator, String value) {
+            this.name = name;
+            this.operator = operator;
+            this.value = value;
+        }
+
+        boolean matches(String attributeValue) {
+            if (operator == NOT_EQUALS) return attributeValue == null || !attributeValue.equals(value);
+            if (attributeValue == null) return false;
+
+            switch (operator) {
+                case EQUALS:
+                    return attributeValue.equals(value);
+                case CONTAINS_WORD:
+                    return containsWord(attributeValue);
+                case STARTS_WITH:
+                    return !value.isEmpty() && attributeValue.startsWith(value);
+                case ENDS_WITH:
+                    return !value.isEmpty() && attributeValue.endsWith(value);
+                case CONTAINS:
+                    return !value.isEmpty() && attributeValue.contains(value);
+                default:
+                    return true;
+            }
+        }
+
+        /**
+         * Checks if the value is one of the whitespace separated words of the attribute, like the classes of "class".
+         */
+        private boolean containsWord(String attributeValue) {
+            int length = value.length();
+            if (length == 0) return false;
+
+            int index = 0;
+            while ((index = attributeValue.indexOf(value, index)) != -1) {
+                int end = index + length;
+                if ((index == 0 || Character.isWhitespace(attributeValue.charAt(index - 1)))
+                        && (end == attributeValue.length() || Character.isWhitespace(attributeValue.charAt(end))))
+                    return true;
+                index++;
+            }
+            return false;
+        }
+    }
+
+    /**
+     * Reads the text of a query into steps.
+     */
+    private static final class QueryReader {
+        private final String query;
+        private int index;
+        private final ArrayList<Step> steps = new ArrayList<>();
+        private long initialStates;
+
+        QueryReader(String query) {
+            this.query = query;
+        }
+
+        XmlSelector readCss() {
+            do {
+                skipSpaces();
+                boolean descendant = true;
+
+                while (true) {
+                    addStep(readCompound(), descendant);
+                    boolean spaces = skipSpaces();
+
+                    if (peek('>')) {
+                        index++;
+                        skipSpaces();
+                        descendant = false;
+                    } else if (spaces && index < query.length() && !peek(',')) {
+                        descendant = true;
+                    } else {
+                        break;
+                    }
+                }
+
+                endPath();
+            } while (consume(','));
+
+            if (index < query.length()) throw error("Unexpected character");
+            return new XmlSelector(query, steps, initialStates);
+        }
+
+        /**
+         * Reads a compound selector like {@code a.item[href]}.
+         */
+        private Step readCompound() {
+            String tagName = null;
+            ArrayList<Condition> conditions = new ArrayList<>();
+
+            if (consume('*')) tagName = null;
+            else if (index < query.length() && isNameChar(query.charAt(index))) tagName = readName();
+            else if (!peek('#') && !peek('.') && !peek('[')) throw error("Expected a selector");
+
+            while (index < query.length()) {
+                if (consume('#')) {
+                    conditions.add(new Condition("id", Condition.EQUALS, readName()));
+                } else if (consume('.')) {
+                    conditions.add(new Condition("class", Condition.CONTAINS_WORD, readName()));
+                } else if (consume('[')) {
+                    skipSpaces();
+                    String name = readName();
+                    skipSpaces();
+
+                    int operator = Condition.EXISTS;
+                    String value = null;
+                    if (!peek(']')) {
+                        operator = readCssOperator();
+                        skipSpaces();
+                        value = peek('"') || peek('\'') ? readQuoted() : readName();
+                        skipSpaces();
+                    }
+                    expect(']');
+                    conditions.add(new Condition(name, operator, value));
+                } else {
+                    break;
+                }
+            }
+
+            return new Step(tagName, conditions);
+        }
+
+        private int readCssOperator() {
+            if (consume('=')) return Condition.EQUALS;
+
+            int operator;
+            if (consume('~')) operator = Condition.CONTAINS_WORD;
+            else if (consume('^')) operator = Condition.STARTS_WITH;
+            else if (consume('$')) operator = Condition.ENDS_WITH;
+            else if (consume('*')) operator = Condition.CONTAINS;
+            else throw error("Unknown attribute operator");
+
+            expect('=');
+            return operator;
+        }
+
+        XmlSelector readXPath() {
+            do {
+                skipSpaces();
+                boolean descendant;
+
+                if (consume('/')) {
+                    descendant = consume('/');
+                } else {
+                    //A relative path starts from the children of the element the query runs on.
+                    addStep(new Step(null, new ArrayList<>()), false);
+                    descendant = false;
+                    if (consume('.')) {
+                        if (peek('.')) throw error("The parent step is not supported");
+                        if (!consume('/')) {
+                            endPath();
+                            continue;
+                        }
+                        descendant = consume('/');
+                    }
+                }
+
+                while (true) {
+                    addStep(readXPathStep(), descendant);
+                    skipSpaces();
+                    if (!consume('/')) break;
+                    descendant = consume('/');
+                }
+
+                endPath();
+            } while (consume('|'));
+
+            if (index < query.length()) throw error("Unexpected character");
+            return new XmlSelector(query, steps, initialStates);
+        }
+
+        private Step readXPathStep() {
+            skipSpaces();
+            if (peek('.') || peek('@')) throw error("Only element steps are supported");
+
+            String tagName = consume('*') ? null : readName();
+            ArrayList<Condition> conditions = new ArrayList<>();
+
+            while (consume('[')) {
+                do {
+                    skipSpaces();
+                    expect('@');
+                    String name = readName();
+                    skipSpaces();
+
+                    if (consume('=')) {
+                        skipSpaces();
+                        conditions.add(new Condition(name, Condition.EQUALS, readQuoted()));
+                    } else if (consume('!')) {
+                        expect('=');
+                        skipSpaces();
+                        conditions.add(new Condition(name, Condition.NOT_EQUALS, readQuoted()));
+                    } else {
+                        conditions.add(new Condition(name, Condition.EXISTS, null));
+                    }
+                    skipSpaces();
+                } while (consumeWord("and"));
+                expect(']');
+            }
+
+            return new Step(tagName, conditions);
+        }
+
+        /**
+         * Adds a step, the first step of each path is matched starting from the element the query runs on.
+         */
+        private void addStep(Step step, boolean descendant) {
+            if (steps.size() == 64) throw error("The query has too many steps");
+
+            boolean first = steps.isEmpty() || steps.get(steps.size() - 1).last;
+            if (first) initialStates |= 1L << steps.size();
+            step.descendant = descendant;
+            steps.add(step);
+        }
+
+        private void endPath() {
+            steps.get(steps.size() - 1).last = true;
+        }
+
+        private String readName() {
+            int start = index;
+            while (index < query.length() && isNameChar(query.charAt(index))) index++;
+            if (index == start) throw error("Expected a name");
+            return query.substring(start, index);
+        }
+
+        private String readQuoted() {
+            if (!peek('"') && !peek('\'')) throw error("Expected a quoted value");
+            char quote = query.charAt(index++);
+            int end = query.indexOf(quote, index);
+            if (end == -1) throw error("The quoted value is not closed");
+
+            String value = query.substring(index, end);
+            index = end + 1;
+            return value;
+        }
+
+        private boolean skipSpaces() {
+            int start = index;
+            while (index < query.length() && Character.isWhitespace(query.charAt(index))) index++;
+            return index > start;
+        }
+
+        private boolean peek(char c) {
+            return index < query.length() && query.charAt(index) == c;
+        }
+
+        private boolean consume(char c) {
+            if (!peek(c)) return false;
+            index++;
+            return true;
+        }
+
+        private boolean consumeWord(String word) {
+            if (!query.startsWith(word, index)) return false;
+            int end = index + word.length();
+            if (end < query.length() && isNameChar(query.charAt(end))) return false;
+            index = end;
+            return true;
+        }
+
+        private void expect(char c) {
+            if (!consume(c)) throw error("Expected '" + c + "'");
+        }
+
+        private IllegalArgumentException error(String message) {
+            return new IllegalArgumentException(message + " at index " + index + " of \"" + query + "\"");
+        }
+
+        private static boolean isNameChar(char c) {
+            return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') || c == '_' || c == '-';
+        }
+    }
+}
@@ -0,0 +1,27 @@
+package exceptions;
+
+/**
+ * Thrown when a snapshot was written with another version of the snapshot format, the snapshot
+ * should be built again from its source.
+ */
+public class SnapshotVersionException extends RuntimeException {
+    public SnapshotVersionException() {
+        super("The snapshot was written with another version of the snapshot format, build it again from its source");
+    }
+
+    public SnapshotVersionException(String s) {
+        super(s);
+    }
+
+    public SnapshotVersionException(String s, Throwable throwable) {
+        super(s, throwable);
+    }
+
+    public SnapshotVersionException(Throwable throwable) {
+        super("The snapshot was written with another version of the snapshot format, build it again from its source", throwable);
+    }
+
+    public SnapshotVersionException(String s, Throwable throwable, boolean b, boolean b1) {
+        super(s, throwable, b, b1);
+    }
+}
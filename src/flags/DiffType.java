@@ -0,0 +1,5 @@
+package flags;
+
+public enum DiffType {
+    INSERT, DELETE, UPDATE, MOVE
+}
@@ -0,0 +1,5 @@
+package flags;
+
+public enum VisitResult {
+    CONTINUE, SKIP_SUBTREE, STOP
+}
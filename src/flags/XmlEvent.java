@@ -0,0 +1,5 @@
+package flags;
+
+public enum XmlEvent {
+    START_TAG, END_TAG, TEXT, COMMENT, END_DOCUMENT
+}
@@ -1,13 +1,9 @@
 package helpers;
 
 import core.HtmlObjectAttribute;
-import sun.net.www.protocol.file.FileURLConnection;
+import core.net.FetchedPage;
+import core.net.PageFetcher;
 
-import java.io.BufferedReader;
-import java.io.IOException;
-import java.io.InputStreamReader;
-import java.net.HttpURLConnection;
-import java.net.URL;
 import java.util.ArrayList;
 import java.util.concurrent.*;
 import java.util.regex.Matcher;
@@ -36,55 +32,10 @@ public class HelperMethods {
      * @return The html script of the website
      */
     public static String downloadWebPage(String urlString) {
-        ExecutorService executors = Executors.newSingleThreadExecutor();
         try {
-
-            Future<String> stringFuture = executors.submit(new Callable<String>() {
-                @Override
-                public String call() throws Exception {
-                    HttpURLConnection httpURLConnection = null;
-                    FileURLConnection fileURLConnection = null;
-                    BufferedReader reader = null;
-                    StringBuilder builder = new StringBuilder();
-
-                    try {
-                        URL url = new URL(urlString);
-                        try {
-                            httpURLConnection = (HttpURLConnection) url.openConnection();
-                            httpURLConnection.setRequestProperty("user-agent", "Mozilla/5.0 (X11; Ubuntu; Linux x86_64; rv:54.0) Gecko/20100101 Firefox/54.0");
-                            reader = new BufferedReader(new InputStreamReader(httpURLConnection.getInputStream()));
-                        } catch (ClassCastException e) {
-                            fileURLConnection = (FileURLConnection) url.openConnection();
-                            reader = new BufferedReader(new InputStreamReader(fileURLConnection.getInputStream()));
-                        }
-                        String line;
-
-                        while ((line = reader.readLine()) != null) {
-                            builder.append(line).append("\n");
-                        }
-
-                        if (httpURLConnection != null)
-                            httpURLConnection.disconnect();
-
-                        if (fileURLConnection != null)
-                            fileURLConnection.close();
-
-                        return builder.toString();
-
-                    } catch (IOException e) {
-                        e.printStackTrace();
-                    } finally {
-                        if (httpURLConnection != null) httpURLConnection.disconnect();
-                    }
-
-                    return "";
-                }
-            });
-            executors.shutdown();
-            String string = stringFuture.get();
-            stringFuture.cancel(true);
-            return string;
-        } catch (InterruptedException | ExecutionException e) {
+            FetchedPage page = PageFetcher.getDefault().fetch(urlString).join();
+            if (page.isSuccessful()) return page.getText();
+        } catch (CompletionException e) {
             e.printStackTrace();
         }
 
@@ -3,7 +3,45 @@ package interfaces;
 import core.objects.XmlObject;
 import flags.RuleType;
 
+/**
+ * A rule run on the elements of a script while XmlObject.parseXml parses it, see
+ * {@link core.parsers.XmlParseOptions#addRule(XmlTagRule)}.
+ * <p>
+ * A PARSER_RULE runs when an element is opened, the element has its attributes but not its content yet. A
+ * TEXT_RULE runs when an element is closed, the element has all its texts and nodes. Comments are opened and
+ * closed at once with their text.
+ */
 public interface XmlTagRule <T extends RuleType> {
+
+    /**
+     * @return PARSER_RULE for running the rule when an element is opened, TEXT_RULE for when it is closed.
+     */
     T getRuleType();
+
+    /**
+     * Runs the rule on an element, the rule may change the attributes and texts of the element, add nodes to it
+     * or keep values out of it.
+     *
+     * @param currentObject The element, its parent is the element it is parsed in.
+     */
     void execute(XmlObject currentObject);
-}
\ No newline at end of file
+
+    /**
+     * @return The tag name of the elements the rule runs on, or null if it runs on all the elements.
+     */
+    default String getTagName() {
+        return null;
+    }
+
+    /**
+     * Checks, after the rule was run on an element, if the element is kept in the tree. An element that is not
+     * kept when it is opened is skipped with its content before any object of its content is created, an
+     * element that is not kept when it is closed is removed from its parent. The root is always kept.
+     *
+     * @param currentObject The element.
+     * @return true for keeping the element.
+     */
+    default boolean keep(XmlObject currentObject) {
+        return true;
+    }
+}
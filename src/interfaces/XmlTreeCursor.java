@@ -0,0 +1,30 @@
+package interfaces;
+
+/**
+ * A cursor that walks a xml tree element by element, it is the common view the selectors use over
+ * XmlObject trees and read-only documents.
+ */
+public interface XmlTreeCursor {
+    String getTagName();
+
+    /**
+     * @param attributeName The name of the attribute.
+     * @return The value of the attribute of the current element or null if it does not exist.
+     */
+    String getAttributeValue(String attributeName);
+
+    /**
+     * @return true if the cursor moved to the first child, false if the element has no children.
+     */
+    boolean toFirstChild();
+
+    /**
+     * @return true if the cursor moved to the next sibling, false if the element is the last child.
+     */
+    boolean toNextSibling();
+
+    /**
+     * @return true if the cursor moved to the parent, false if the element has no parent in the walked tree.
+     */
+    boolean toParent();
+}
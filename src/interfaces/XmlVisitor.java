@@ -0,0 +1,32 @@
+package interfaces;
+
+import core.objects.XmlObject;
+import flags.VisitResult;
+
+/**
+ * A visitor of the objects of a tree walked by {@link XmlObject#walk(XmlVisitor)}.
+ */
+public interface XmlVisitor {
+
+    /**
+     * Called when the walk enters an object, before its children.
+     *
+     * @param object The object.
+     * @param depth  The depth of the object, 0 for the object the walk started from.
+     * @return CONTINUE to walk the children, SKIP_SUBTREE to go to the exit of the object directly,
+     * or STOP to end the walk.
+     */
+    VisitResult enter(XmlObject object, int depth);
+
+    /**
+     * Called when the walk exits an object, after its children. Every entered object is exited unless the walk
+     * is stopped.
+     *
+     * @param object The object.
+     * @param depth  The depth of the object.
+     * @return STOP to end the walk, any other result continues it.
+     */
+    default VisitResult exit(XmlObject object, int depth) {
+        return VisitResult.CONTINUE;
+    }
+}